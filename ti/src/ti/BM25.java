@@ -0,0 +1,118 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.util.ArrayList;
+
+/**
+ * Implements retrieval with the Okapi BM25 ranking function.
+ * <p>
+ * The score of a document is the sum over query terms of
+ * {@code qtf * idf * tf * (k1 + 1) / (tf + k1 * (1 - b + b * length / averageLength))}, with
+ * {@code idf = ln(1 + (N - df + 0.5) / (df + 0.5))}. Scores are computed exactly at query time from the
+ * {@link Index#getFrequencies term frequencies} and {@link Index#getDocumentLength document lengths} of the index,
+ * and the statistics of its whole collection, so that the documents of a shard are scored as in the whole collection.
+ */
+public class BM25 implements RetrievalModel
+{
+	public static final double DEFAULT_K1 = 1.2;
+	public static final double DEFAULT_B = 0.75;
+
+	/**
+	 * Score accumulators, reused by all queries run in the same thread.
+	 */
+	protected static final ThreadLocal<ScoreAccumulator> ACCUMULATORS = ThreadLocal.withInitial(ScoreAccumulator::new);
+
+	protected final double k1;
+	protected final double b;
+
+	/**
+	 * Creates a new BM25 model with the default parameters.
+	 */
+	public BM25()
+	{
+		this(BM25.DEFAULT_K1, BM25.DEFAULT_B);
+	}
+
+	/**
+	 * Creates a new BM25 model with the given parameters.
+	 *
+	 * @param k1 the term frequency saturation parameter.
+	 * @param b  the length normalization parameter, between {@code 0} and {@code 1}.
+	 */
+	public BM25(double k1, double b)
+	{
+		this.k1 = k1;
+		this.b = b;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ArrayList<Tuple<Integer, Double>> runQuery(String queryText, Index index, DocumentProcessor docProcessor, int k)
+	{
+		TermCounts queryTerms = docProcessor.countTerms(queryText);
+		int numDocs = index.getCollectionDocumentCount();
+		double averageLength = index.getAverageDocumentLength();
+
+		ScoreAccumulator scores = BM25.ACCUMULATORS.get(); // [docID] -> [score]
+		scores.reset(index.getDocumentCount());
+		long scanned = 0;
+		for (int i = 0; i < queryTerms.size(); i++) { // Foreach query term
+			Tuple<Integer, Double> termInfo = index.getTerm(queryTerms.getTerm(i));
+			if (termInfo == null)
+				continue;
+			int queryCount = queryTerms.getCount(i);
+
+			PostingsIterator postings = index.getFrequencies(termInfo.item1);
+			double idf = BM25.computeIDF(numDocs, index.getDocumentFrequency(termInfo.item1));
+			while (postings.next()) { // Foreach posting
+				int docID = postings.getID();
+				double score = BM25.computeScore((int) postings.getWeight(), index.getDocumentLength(docID),
+						averageLength, idf, this.k1, this.b);
+				scores.add(docID, (float) (queryCount * score));
+				scanned++;
+			}
+		}
+
+		TopKHeap topK = new TopKHeap(k);
+		for (int i = 0; i < scores.getTouchedCount(); i++) {
+			int docID = scores.getTouched(i);
+			topK.offer(docID, scores.get(docID));
+		}
+		Metrics.POSTINGS_SCANNED.add(scanned);
+		Metrics.CANDIDATES_SCORED.add(scores.getTouchedCount());
+		return topK.toList();
+	}
+
+	/**
+	 * Computes the BM25 IDF of a term.
+	 *
+	 * @param numDocs the number of documents in the index.
+	 * @param df      the number of documents that contain the term.
+	 * @return the IDF of the term.
+	 */
+	public static double computeIDF(int numDocs, int df)
+	{
+		return Math.log(1.0 + (numDocs - df + 0.5) / (df + 0.5));
+	}
+
+	/**
+	 * Computes the BM25 score of a term in a document.
+	 *
+	 * @param tf            the number of occurrences of the term in the document.
+	 * @param length        the length of the document.
+	 * @param averageLength the average document length in the index.
+	 * @param idf           the {@link #computeIDF IDF} of the term.
+	 * @param k1            the term frequency saturation parameter.
+	 * @param b             the length normalization parameter.
+	 * @return the score of the term in the document.
+	 */
+	public static double computeScore(long tf, int length, double averageLength, double idf, double k1, double b)
+	{
+		double norm = averageLength > 0 ? 1.0 - b + b * length / averageLength : 1.0;
+		return idf * tf * (k1 + 1.0) / (tf + k1 * norm);
+	}
+}
@@ -10,21 +10,30 @@ import org.w3c.dom.NodeList;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * This class contains the logic to run the retrieval process of the search engine in batch mode.
  */
 public class Batch
 {
+	protected static final int RESULTS_PER_QUERY = 500;
+	protected static final int MAX_PENDING_QUERIES = 1024;
+
 	protected File pathToQueries;
 
 	protected RetrievalModel model;
 	protected Index index;
 	protected DocumentProcessor docProcessor;
+	protected ExecutorService workers;
 
 	/**
 	 * Creates a new batch retriever for the queries in the specified path and using the given model.
+	 * Queries are run one after the other in the calling thread.
 	 *
 	 * @param pathToQueries the path to the file with queries.
 	 * @param model         the retrieval model to run queries.
@@ -32,11 +41,28 @@ public class Batch
 	 * @param docProcessor  the processor to extract query terms.
 	 */
 	public Batch(File pathToQueries, RetrievalModel model, Index index, DocumentProcessor docProcessor)
+	{
+		this(pathToQueries, model, index, docProcessor, null);
+	}
+
+	/**
+	 * Creates a new batch retriever for the queries in the specified path and using the given model.
+	 * Queries are run concurrently by the given workers against the shared index, so the model and the document
+	 * processor must be thread-safe.
+	 *
+	 * @param pathToQueries the path to the file with queries.
+	 * @param model         the retrieval model to run queries.
+	 * @param index         the index.
+	 * @param docProcessor  the processor to extract query terms.
+	 * @param workers       the workers to run queries, or {@code null} to run them in the calling thread.
+	 */
+	public Batch(File pathToQueries, RetrievalModel model, Index index, DocumentProcessor docProcessor, ExecutorService workers)
 	{
 		this.pathToQueries = pathToQueries;
 		this.model = model;
 		this.index = index;
 		this.docProcessor = docProcessor;
+		this.workers = workers;
 	}
 
 	/**
@@ -63,6 +89,10 @@ public class Batch
 
 	/**
 	 * Runs the batch retrieval process. For each query, it prints the results to {@link System#out} in TREC format.
+	 * <p>
+	 * If there are workers, queries are submitted to them and their results printed as they complete, but always in
+	 * the original order of the topics. At most {@link #MAX_PENDING_QUERIES} queries are pending at any time, so that
+	 * results do not pile up in memory while waiting for a slow query.
 	 *
 	 * @throws Exception in an error occurs during the process.
 	 */
@@ -72,12 +102,54 @@ public class Batch
 		ArrayList<Tuple<String, String>> queries = Batch.readQueries(this.pathToQueries);
 
 		// Run the model with each query
+		ArrayDeque<Tuple<String, Future<ArrayList<Tuple<Integer, Double>>>>> pending = new ArrayDeque<>();
 		for (Tuple<String, String> query : queries) {
 			String queryId = query.item1;
 			String queryText = query.item2;
 
-			ArrayList<Tuple<Integer, Double>> results = this.model.runQuery(queryText, this.index, this.docProcessor);
-			this.printResults(results, queryId);
+			if (this.workers == null) {
+				ArrayList<Tuple<Integer, Double>> results = this.runQuery(queryText);
+				this.printResults(results, queryId);
+			} else {
+				if (pending.size() == Batch.MAX_PENDING_QUERIES)
+					this.printPending(pending.poll());
+				pending.add(new Tuple<>(queryId, this.workers.submit(() -> this.runQuery(queryText))));
+			}
+		}
+		while (!pending.isEmpty())
+			this.printPending(pending.poll());
+
+		LatencyHistogram latency = Metrics.QUERY_LATENCY;
+		System.err.println("Queries: " + latency.getCount() + ", latency p50 " + latency.getPercentile(50) / 1e6
+				+ " ms, p95 " + latency.getPercentile(95) / 1e6 + " ms, p99 " + latency.getPercentile(99) / 1e6 + " ms.");
+	}
+
+	/**
+	 * Runs a query with the model and records its latency in the {@link Metrics#QUERY_LATENCY query metrics}.
+	 *
+	 * @param queryText the query text.
+	 * @return the results of the query, as given by {@link RetrievalModel#runQuery}.
+	 */
+	protected ArrayList<Tuple<Integer, Double>> runQuery(String queryText)
+	{
+		long startTime = System.nanoTime();
+		ArrayList<Tuple<Integer, Double>> results = this.model.runQuery(queryText, this.index, this.docProcessor, Batch.RESULTS_PER_QUERY);
+		Metrics.QUERY_LATENCY.record(System.nanoTime() - startTime);
+		return results;
+	}
+
+	/**
+	 * Waits for a query submitted to the workers and prints its results.
+	 *
+	 * @param query a {@link Tuple} with the {@code queryID} and the pending results.
+	 * @throws Exception if an error occurred while running the query.
+	 */
+	protected void printPending(Tuple<String, Future<ArrayList<Tuple<Integer, Double>>>> query) throws Exception
+	{
+		try {
+			this.printResults(query.item2.get(), query.item1);
+		} catch (ExecutionException ex) {
+			throw new Exception("Error running query " + query.item1 + ".", ex.getCause());
 		}
 	}
 
@@ -90,8 +162,8 @@ public class Batch
 	 */
 	protected void printResults(ArrayList<Tuple<Integer, Double>> results, String queryId)
 	{
-		for (int i = 0; i < results.size() && i < 500; i++) {
-			String docName = this.index.documents.get(results.get(i).item1).item1;
+		for (int i = 0; i < results.size() && i < Batch.RESULTS_PER_QUERY; i++) {
+			String docName = this.index.getDocumentName(results.get(i).item1);
 			System.out.println(queryId + "\tQ0\t" + docName + "\t" + (i + 1) + "\t" + results.get(i).item2 + "\tsys");
 		}
 	}
@@ -0,0 +1,273 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * This class contains the logic to measure the performance of the main stages of the search engine on a collection
+ * and a set of queries, such as the bundled 2011 collection or a generated one.
+ * <p>
+ * Each benchmark is run for a number of warmup iterations, whose times are discarded so that the code is compiled
+ * and the caches are warm, followed by a number of measured iterations. The results are printed to
+ * {@link System#out} as a table with the mean and the standard deviation over the measured iterations:
+ * <ul>
+ * <li>{@code parse}: throughput of {@link HtmlProcessor#parse}, in MB of HTML per second.</li>
+ * <li>{@code processText}: throughput of {@link HtmlProcessor#processText}, in MB of text per second.</li>
+ * <li>{@code stem}: throughput of the {@link Stemmer}, in thousands of words per second.</li>
+ * <li>{@code index}: end-to-end throughput of the {@link Indexer}, in MB of HTML per second.</li>
+ * <li>{@code load}: time to {@link Index#load load} an index and preload the components used by queries.</li>
+ * <li>{@code query}: latency of {@link RetrievalModel#runQuery} for each class of queries, by their number of terms,
+ * with the median and the 99th percentile over all measured queries.</li>
+ * </ul>
+ * The micro benchmarks use a sample of at most {@link #SAMPLE_DOCUMENTS} documents, read in memory beforehand so that
+ * they do not measure the disk. Every result computed is consumed, so that the compiler cannot discard the work.
+ */
+public class Benchmark
+{
+    protected static final int DEFAULT_ITERATIONS = 5;
+    protected static final int SAMPLE_DOCUMENTS = 1000;
+    protected static final String[] QUERY_COMPONENTS = {"vocabulary", "documents", "inverted"};
+
+    protected static volatile long sink;
+
+    protected File pathToCollection;
+    protected File pathToQueries;
+    protected File pathToStopWords;
+    protected RetrievalModel model;
+    protected int iterations;
+
+    /**
+     * Creates a new benchmark for the given collection and queries.
+     *
+     * @param pathToCollection the path to the original documents directory.
+     * @param pathToQueries    the path to the file with queries.
+     * @param pathToStopWords  the path to the file with stopwords, or {@code null} if stopwords are not filtered.
+     * @param model            the retrieval model to run queries.
+     * @param iterations       the number of warmup iterations, and also of measured iterations.
+     */
+    public Benchmark(File pathToCollection, File pathToQueries, File pathToStopWords, RetrievalModel model, int iterations)
+    {
+        this.pathToCollection = pathToCollection;
+        this.pathToQueries = pathToQueries;
+        this.pathToStopWords = pathToStopWords;
+        this.model = model;
+        this.iterations = iterations;
+    }
+
+    /**
+     * Runs all benchmarks and prints their results to {@link System#out}.
+     *
+     * @throws Exception if an error occurs during the process.
+     */
+    public void run() throws Exception
+    {
+        HtmlProcessor docProcessor = new HtmlProcessor(this.pathToStopWords);
+        Indexer indexer = new Indexer(null, this.pathToCollection, docProcessor);
+        ArrayList<File> docFiles = indexer.listDocuments();
+        long collectionBytes = 0;
+        for (File docFile : docFiles)
+            collectionBytes += docFile.length();
+
+        // Read the sample of documents and extract their text and words
+        ArrayList<String> htmls = new ArrayList<>();
+        ArrayList<String> texts = new ArrayList<>();
+        ArrayList<char[]> words = new ArrayList<>();
+        long htmlBytes = 0, textBytes = 0;
+        for (int i = 0; i < docFiles.size() && i < SAMPLE_DOCUMENTS; i++) {
+            String html = new String(Files.readAllBytes(docFiles.get(i).toPath()));
+            String text = docProcessor.parse(html).item2;
+            htmls.add(html);
+            texts.add(text);
+            htmlBytes += html.length();
+            textBytes += text.length();
+            for (String word : text.toLowerCase(Locale.ROOT).split("[^a-z]+"))
+                if (!word.isEmpty())
+                    words.add(word.toCharArray());
+        }
+        System.err.println("Benchmarking " + docFiles.size() + " documents (sample of " + htmls.size() + ") and "
+                + this.pathToQueries + ", " + this.iterations + "+" + this.iterations + " iterations.");
+
+        System.out.println(String.format("%-22s %6s %4s %12s    %10s  %s", "Benchmark", "Mode", "Cnt", "Score", "Error", "Units"));
+        this.measure("parse", "thrpt", htmlBytes / 1e6, "MB/s", () -> {
+            long length = 0;
+            for (String html : htmls)
+                length += docProcessor.parse(html).item2.length();
+            return length;
+        });
+        this.measure("processText", "thrpt", textBytes / 1e6, "MB/s", () -> {
+            long[] count = new long[1];
+            for (String text : texts)
+                docProcessor.processText(text, (buffer, length) -> count[0] += length);
+            return count[0];
+        });
+        Stemmer stemmer = new Stemmer();
+        this.measure("stem", "thrpt", words.size() / 1e3, "kwords/s", () -> {
+            long length = 0;
+            for (char[] word : words) {
+                stemmer.add(word, word.length);
+                stemmer.stem();
+                length += stemmer.getResultLength();
+            }
+            return length;
+        });
+
+        File pathToIndex = Files.createTempDirectory("ti-benchmark").toFile();
+        try {
+            this.measure("index", "thrpt", collectionBytes / 1e6, "MB/s", () -> {
+                // The indexer reports its progress per document, which would flood the output
+                PrintStream err = System.err;
+                System.setErr(new PrintStream(new OutputStream()
+                {
+                    @Override
+                    public void write(int b)
+                    {
+                    }
+                }));
+                try {
+                    new Indexer(pathToIndex, this.pathToCollection, docProcessor).run();
+                } finally {
+                    System.setErr(err);
+                }
+                return pathToIndex.length();
+            });
+            this.measure("load", "avgt", 1, "ms/op", () -> {
+                Index ind = SearchEngine.openIndex(pathToIndex);
+                ind.load();
+                ind.preload(QUERY_COMPONENTS);
+                ind.close();
+                return ind.getGeneration();
+            });
+            this.measureQueries(pathToIndex);
+        } finally {
+            try (Stream<Path> paths = Files.walk(pathToIndex.toPath())) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    /**
+     * Measures the latency of the queries, grouped by their number of distinct terms.
+     *
+     * @param pathToIndex the path to the index to search.
+     * @throws Exception if an error occurs during the process.
+     */
+    protected void measureQueries(File pathToIndex) throws Exception
+    {
+        Index ind = SearchEngine.openIndex(pathToIndex);
+        ind.load();
+        ind.preload(QUERY_COMPONENTS);
+        DocumentProcessor docProcessor = new SimpleProcessor();
+
+        TreeMap<String, ArrayList<String>> classes = new TreeMap<>();
+        for (Tuple<String, String> query : Batch.readQueries(this.pathToQueries)) {
+            int terms = docProcessor.countTerms(query.item2).size();
+            if (terms > 0)
+                classes.computeIfAbsent(terms >= 3 ? "3+" : String.valueOf(terms), key -> new ArrayList<>()).add(query.item2);
+        }
+        for (String queryClass : classes.keySet()) {
+            ArrayList<String> queries = classes.get(queryClass);
+            long[] latencies = new long[queries.size() * this.iterations];
+            int n = 0;
+            for (int iteration = 0; iteration < 2 * this.iterations; iteration++) {
+                for (String query : queries) {
+                    long startTime = System.nanoTime();
+                    sink += this.model.runQuery(query, ind, docProcessor, Batch.RESULTS_PER_QUERY).size();
+                    long latency = System.nanoTime() - startTime;
+                    if (iteration >= this.iterations)
+                        latencies[n++] = latency;
+                }
+            }
+            String name = "query[" + queryClass + "]";
+            double[] times = new double[latencies.length];
+            for (int i = 0; i < latencies.length; i++)
+                times[i] = latencies[i] / 1e6;
+            this.print(name, "avgt", times, "ms/op");
+            Arrays.sort(latencies);
+            this.print(name + ":p50", "sample", latencies.length, latencies[latencies.length / 2] / 1e6, "ms/op");
+            this.print(name + ":p99", "sample", latencies.length, latencies[(int) Math.ceil(latencies.length * 0.99) - 1] / 1e6, "ms/op");
+        }
+        ind.close();
+    }
+
+    /**
+     * Runs a benchmark and prints its score.
+     *
+     * @param name  the name of the benchmark.
+     * @param mode  {@code thrpt} to report the amount of work per second, or {@code avgt} the time per unit of work.
+     * @param work  the amount of work done by each iteration, in the units reported.
+     * @param units the units of the score.
+     * @param task  the task run by each iteration.
+     * @throws Exception if an error occurs while running the task.
+     */
+    protected void measure(String name, String mode, double work, String units, Task task) throws Exception
+    {
+        double[] scores = new double[this.iterations];
+        for (int iteration = 0; iteration < 2 * this.iterations; iteration++) {
+            long startTime = System.nanoTime();
+            sink += task.run();
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            if (iteration >= this.iterations)
+                scores[iteration - this.iterations] = mode.equals("thrpt") ? work / seconds : seconds * 1e3 / work;
+        }
+        this.print(name, mode, scores, units);
+    }
+
+    /**
+     * Prints the mean and the standard deviation of the measured scores of a benchmark.
+     *
+     * @param name   the name of the benchmark.
+     * @param mode   the benchmark mode.
+     * @param scores the score of each measurement.
+     * @param units  the units of the scores.
+     */
+    protected void print(String name, String mode, double[] scores, String units)
+    {
+        double mean = 0, variance = 0;
+        for (double score : scores)
+            mean += score / scores.length;
+        for (double score : scores)
+            variance += (score - mean) * (score - mean) / Math.max(1, scores.length - 1);
+        System.out.println(String.format(Locale.ROOT, "%-22s %6s %4d %12.3f +- %10.3f  %s", name, mode, scores.length,
+                mean, Math.sqrt(variance), units));
+    }
+
+    /**
+     * Prints a single score of a benchmark, without error.
+     *
+     * @param name  the name of the benchmark.
+     * @param mode  the benchmark mode.
+     * @param count the number of measurements the score is computed from.
+     * @param score the score.
+     * @param units the units of the score.
+     */
+    protected void print(String name, String mode, int count, double score, String units)
+    {
+        System.out.println(String.format(Locale.ROOT, "%-22s %6s %4d %12.3f    %10s  %s", name, mode, count, score, "", units));
+    }
+
+    /**
+     * The work measured by each iteration of a benchmark.
+     */
+    protected interface Task
+    {
+        /**
+         * Runs the work once.
+         *
+         * @return a value computed from the results, which is consumed so that the work cannot be discarded.
+         * @throws Exception if an error occurs while running the work.
+         */
+        long run() throws Exception;
+    }
+}
@@ -0,0 +1,147 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.util.ArrayList;
+
+/**
+ * Implements the same retrieval as {@link Cosine}, evaluating queries with the Block-Max WAND algorithm (Ding and
+ * Suel, 2011).
+ * <p>
+ * Like {@link WandCosine}, a pivot document is selected with the per-term bounds. Before scoring it, the bounds of
+ * the postings blocks that would contain the pivot are checked with {@link PostingsIterator#advanceShallow}, which
+ * reads the skip tables only. If they can not beat the threshold, all documents up to the end of the shortest of
+ * those blocks are skipped without decoding them. Scores are computed exactly as {@link Cosine} does, so the results
+ * are identical. Queries with too few postings per result are scored exhaustively, as in {@link WandCosine}.
+ */
+public class BlockMaxWandCosine extends WandCosine
+{
+	public BlockMaxWandCosine()
+	{
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected ArrayList<Tuple<Integer, Double>> computeScores(ArrayList<Tuple<Integer, Double>> queryVector, Index index, int k)
+	{
+		if (!WandCosine.isPruningWorthwhile(queryVector, index, k))
+			return this.computeExhaustiveScores(queryVector, index, k);
+
+		int numTerms = queryVector.size();
+		double queryNorm = 0;
+		for (Tuple<Integer, Double> qTerm : queryVector)
+			queryNorm += qTerm.item2 * qTerm.item2;
+		queryNorm = Math.sqrt(queryNorm);
+
+		// Open a cursor per query term, and keep the active ones sorted by current docID
+		PostingsIterator[] cursors = new PostingsIterator[numTerms];
+		double[] qWeights = new double[numTerms];
+		double[] bounds = new double[numTerms];
+		double[] blockFactors = new double[numTerms];
+		boolean[] exhausted = new boolean[numTerms];
+		int[] order = new int[numTerms];
+		int active = 0;
+		long scanned = 0, scored = 0;
+		for (int t = 0; t < numTerms; t++) {
+			int termId = queryVector.get(t).item1;
+			qWeights[t] = queryVector.get(t).item2;
+			if (termId < 0) {
+				exhausted[t] = true; // only weighs in the norm of the query
+				continue;
+			}
+			blockFactors[t] = qWeights[t] / queryNorm * (1 + BOUND_TOLERANCE);
+			bounds[t] = index.getMaxWeight(termId) * blockFactors[t];
+			cursors[t] = index.getPostings(termId);
+			scanned++;
+			if (cursors[t].next())
+				order[active++] = t;
+			else
+				exhausted[t] = true;
+		}
+
+		TopKHeap topK = new TopKHeap(k);
+		while (active > 0) {
+			WandCosine.sortByDocID(order, active, cursors);
+
+			// Find the pivot with the per-term bounds
+			double threshold = topK.getThreshold();
+			double bound = 0;
+			int pivot = -1;
+			for (int i = 0; i < active; i++) {
+				bound += bounds[order[i]];
+				if (bound > threshold) {
+					pivot = i;
+					break;
+				}
+			}
+			if (pivot < 0)
+				break; // no remaining document can enter the top k
+			int pivotDoc = cursors[order[pivot]].getID();
+			while (pivot + 1 < active && cursors[order[pivot + 1]].getID() == pivotDoc)
+				pivot++;
+
+			// Refine the bound with the blocks that would contain the pivot document
+			double blockBound = 0;
+			long nextCandidate = pivot + 1 < active ? cursors[order[pivot + 1]].getID() : Integer.MAX_VALUE;
+			for (int i = 0; i <= pivot; i++) {
+				PostingsIterator cursor = cursors[order[i]];
+				if (cursor.advanceShallow(pivotDoc)) { // otherwise, the list has nothing from the pivot on
+					blockBound += cursor.getBlockMaxWeight() * blockFactors[order[i]];
+					nextCandidate = Math.min(nextCandidate, (long) cursor.getBlockLastID() + 1);
+				}
+			}
+
+			if (blockBound > threshold) {
+				if (cursors[order[0]].getID() == pivotDoc) {
+					// All lists up to the pivot are on the pivot document: score it, adding terms in query order
+					float sim = 0;
+					for (int t = 0; t < numTerms; t++)
+						if (!exhausted[t] && cursors[t].getID() == pivotDoc)
+							sim += (float) (cursors[t].getWeight() * qWeights[t]);
+					topK.offer(pivotDoc, sim / queryNorm / index.getDocumentNorm(pivotDoc));
+					scored++;
+
+					for (int i = 0; i <= pivot; i++) {
+						int t = order[i];
+						scanned++;
+						if (!cursors[t].next())
+							exhausted[t] = true;
+					}
+				} else {
+					// Documents before the pivot can not beat the threshold
+					for (int i = 0; i < pivot; i++) {
+						int t = order[i];
+						if (cursors[t].getID() < pivotDoc) {
+							scanned++;
+							if (!cursors[t].advance(pivotDoc))
+								exhausted[t] = true;
+						}
+					}
+				}
+			} else {
+				// No document up to the end of the current blocks can beat the threshold: skip them all
+				if (nextCandidate > Integer.MAX_VALUE)
+					break;
+				for (int i = 0; i <= pivot; i++) {
+					int t = order[i];
+					scanned++;
+					if (!cursors[t].advance((int) nextCandidate))
+						exhausted[t] = true;
+				}
+			}
+
+			// Drop exhausted lists
+			int remaining = 0;
+			for (int i = 0; i < active; i++)
+				if (!exhausted[order[i]])
+					order[remaining++] = order[i];
+			active = remaining;
+		}
+		Metrics.POSTINGS_SCANNED.add(scanned);
+		Metrics.CANDIDATES_SCORED.add(scored);
+		return topK.toList();
+	}
+}
@@ -0,0 +1,224 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link PostingsIterator} that decodes postings on the fly from a mapped postings file, in the block-based format
+ * written by {@link PostingsCodec}.
+ * <p>
+ * Blocks are only decoded when the cursor enters them: {@link #advance} and {@link #advanceShallow} use the skip
+ * table to jump over the blocks in between. Lists of a single block have no skip table, so their only block ends at
+ * {@link Integer#MAX_VALUE} and is bounded by the maximum weight of the list, given by the caller. The weight of a posting is rebuilt from its number of occurrences and the
+ * IDF of the term or, if no IDF is given, it is the number of occurrences itself.
+ */
+public class BlockPostingsIterator implements PostingsIterator
+{
+    protected final ByteBuffer buffer;
+    protected final int size;
+    protected final int numBlocks;
+    protected final int skipOffset;
+    protected final int dataOffset;
+    protected final double idf;
+    protected final double maxWeight;
+
+    protected int block; // block of the current posting
+    protected int shallowBlock; // block found by advanceShallow, never before the current one
+    protected int remainingInBlock;
+    protected int position;
+    protected int id;
+    protected double weight;
+
+    /**
+     * Creates a new iterator over the postings list that starts at the specified position of the buffer, with the
+     * number of occurrences as weight and no known bound for lists of a single block.
+     *
+     * @param buffer the buffer with the postings file.
+     * @param offset the position of the postings list.
+     */
+    public BlockPostingsIterator(ByteBuffer buffer, int offset)
+    {
+        this(buffer, offset, Double.NaN, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Creates a new iterator over the postings list of a term that starts at the specified position of the buffer,
+     * with {@code tf * idf} as weight.
+     *
+     * @param buffer the buffer with the postings file.
+     * @param offset the position of the postings list.
+     * @param idf       the IDF of the term, or {@code NaN} to return the number of occurrences as weight.
+     * @param maxWeight the maximum bound of all blocks, like {@link Index#getMaxWeight}.
+     */
+    public BlockPostingsIterator(ByteBuffer buffer, int offset, double idf, double maxWeight)
+    {
+        int[] position = {offset};
+        this.buffer = buffer;
+        this.idf = idf;
+        this.maxWeight = maxWeight;
+        this.size = PostingsCodec.readVByte(buffer, position);
+        this.numBlocks = (this.size + PostingsCodec.BLOCK_SIZE - 1) / PostingsCodec.BLOCK_SIZE;
+        this.skipOffset = position[0];
+        this.dataOffset = this.numBlocks > 1 ? this.skipOffset + this.numBlocks * PostingsCodec.SKIP_ENTRY_SIZE
+                : this.skipOffset;
+        this.block = -1;
+        this.shallowBlock = 0;
+        this.remainingInBlock = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next()
+    {
+        if (this.remainingInBlock == 0) {
+            if (this.block + 1 >= this.numBlocks)
+                return false;
+            this.loadBlock(this.block + 1);
+        }
+
+        // Inlined variable-byte decoding of the gap and the occurrences
+        int pos = this.position;
+        int gap = 0;
+        int shift = 0;
+        byte b;
+        while (((b = this.buffer.get(pos++)) & 0x80) == 0) {
+            gap |= b << shift;
+            shift += 7;
+        }
+        gap |= (b & 0x7F) << shift;
+        int count = 0;
+        shift = 0;
+        while (((b = this.buffer.get(pos++)) & 0x80) == 0) {
+            count |= b << shift;
+            shift += 7;
+        }
+        count |= (b & 0x7F) << shift;
+
+        this.id += gap;
+        this.weight = Double.isNaN(this.idf) ? count : Index.computeTermFrequency(count) * this.idf;
+        this.position = pos;
+        this.remainingInBlock--;
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Blocks whose last {@code ID} is below {@code target} are skipped without decoding them.
+     */
+    @Override
+    public boolean advance(int target)
+    {
+        if (this.id >= target)
+            return true;
+        int targetBlock = Math.max(this.block, this.shallowBlock);
+        while (targetBlock < this.numBlocks && this.getLastID(targetBlock) < target)
+            targetBlock++;
+        if (targetBlock == this.numBlocks) {
+            this.block = this.numBlocks;
+            this.remainingInBlock = 0;
+            return false;
+        }
+        if (targetBlock != this.block)
+            this.loadBlock(targetBlock);
+        while (this.id < target) {
+            if (!this.next()) { // only in a list without skip table, whose last ID is not known
+                this.block = this.numBlocks;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean advanceShallow(int target)
+    {
+        this.shallowBlock = Math.max(this.shallowBlock, this.block);
+        while (this.shallowBlock < this.numBlocks && this.getLastID(this.shallowBlock) < target)
+            this.shallowBlock++;
+        return this.shallowBlock < this.numBlocks;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getBlockLastID()
+    {
+        if (this.shallowBlock >= this.numBlocks)
+            return Integer.MAX_VALUE;
+        return this.getLastID(this.shallowBlock);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getBlockMaxWeight()
+    {
+        if (this.shallowBlock >= this.numBlocks)
+            return 0;
+        if (this.numBlocks == 1)
+            return this.maxWeight;
+        return this.buffer.getFloat(this.skipOffset + this.shallowBlock * PostingsCodec.SKIP_ENTRY_SIZE + 4);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getID()
+    {
+        return this.id;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getWeight()
+    {
+        return this.weight;
+    }
+
+    /**
+     * Positions the cursor right before the first posting of the specified block.
+     */
+    protected void loadBlock(int block)
+    {
+        int start = block == 0 ? 0 : this.getEnd(block - 1);
+        this.block = block;
+        this.shallowBlock = Math.max(this.shallowBlock, block);
+        this.position = this.dataOffset + start;
+        this.id = block == 0 ? 0 : this.getLastID(block - 1);
+        this.remainingInBlock = Math.min(PostingsCodec.BLOCK_SIZE, this.size - block * PostingsCodec.BLOCK_SIZE);
+    }
+
+    protected int getLastID(int block)
+    {
+        if (this.numBlocks == 1)
+            return Integer.MAX_VALUE;
+        return this.buffer.getInt(this.skipOffset + block * PostingsCodec.SKIP_ENTRY_SIZE);
+    }
+
+    protected int getEnd(int block)
+    {
+        return this.buffer.getInt(this.skipOffset + block * PostingsCodec.SKIP_ENTRY_SIZE + 8);
+    }
+}
@@ -0,0 +1,185 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.util.HashMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * This class represents a thread-safe cache whose total size in bytes is bounded.
+ * <p>
+ * The size of each value is estimated by a weigher function. When adding a value makes the cache exceed its
+ * capacity, entries chosen by the {@link EvictionPolicy} are evicted until it fits again. Values larger than the whole
+ * capacity are not cached at all. The cache counts hits and misses, so its effectiveness can be monitored.
+ *
+ * @param <K> the type of the keys.
+ * @param <V> the type of the values.
+ */
+public class BoundedCache<K, V>
+{
+    protected final long capacity;
+    protected final ToLongFunction<V> weigher;
+    protected final EvictionPolicy<K> policy;
+    protected final HashMap<K, V> entries;
+    protected long weight;
+    protected long hits;
+    protected long misses;
+    protected long evictions;
+
+    /**
+     * Creates a new empty cache with the least recently used entries evicted first.
+     *
+     * @param capacity the maximum total size of the values, in bytes.
+     * @param weigher  the function to estimate the size of a value, in bytes.
+     */
+    public BoundedCache(long capacity, ToLongFunction<V> weigher)
+    {
+        this(capacity, weigher, new LruEvictionPolicy<>());
+    }
+
+    /**
+     * Creates a new empty cache.
+     *
+     * @param capacity the maximum total size of the values, in bytes.
+     * @param weigher  the function to estimate the size of a value, in bytes.
+     * @param policy   the policy to choose which entries to evict.
+     */
+    public BoundedCache(long capacity, ToLongFunction<V> weigher, EvictionPolicy<K> policy)
+    {
+        this.capacity = capacity;
+        this.weigher = weigher;
+        this.policy = policy;
+        this.entries = new HashMap<>();
+        this.weight = 0;
+        this.hits = 0;
+        this.misses = 0;
+        this.evictions = 0;
+    }
+
+    /**
+     * Returns the value cached for the specified key, counting a hit or a miss.
+     *
+     * @param key the key to look up.
+     * @return the cached value, or {@code null} if it is not in the cache.
+     */
+    public synchronized V get(K key)
+    {
+        V value = this.entries.get(key);
+        if (value == null) {
+            this.misses++;
+        } else {
+            this.hits++;
+            this.policy.onAccess(key);
+        }
+        return value;
+    }
+
+    /**
+     * Adds a value to the cache, replacing the previous value for the same key, and evicts entries if the cache
+     * exceeds its capacity.
+     *
+     * @param key   the key of the value.
+     * @param value the value to cache.
+     */
+    public synchronized void put(K key, V value)
+    {
+        this.remove(key);
+        long w = this.weigher.applyAsLong(value);
+        if (w > this.capacity)
+            return;
+
+        while (this.weight + w > this.capacity) {
+            this.remove(this.policy.victim());
+            this.evictions++;
+        }
+        this.entries.put(key, value);
+        this.policy.onInsert(key);
+        this.weight += w;
+    }
+
+    /**
+     * Removes the value cached for the specified key, if any.
+     *
+     * @param key the key of the value.
+     */
+    public synchronized void remove(K key)
+    {
+        V value = this.entries.remove(key);
+        if (value != null) {
+            this.policy.onRemove(key);
+            this.weight -= this.weigher.applyAsLong(value);
+        }
+    }
+
+    /**
+     * Removes all values from the cache. The counters are not reset.
+     */
+    public synchronized void clear()
+    {
+        for (K key : this.entries.keySet())
+            this.policy.onRemove(key);
+        this.entries.clear();
+        this.weight = 0;
+    }
+
+    /**
+     * Returns the number of values in the cache.
+     *
+     * @return the number of values.
+     */
+    public synchronized int size()
+    {
+        return this.entries.size();
+    }
+
+    /**
+     * Returns the estimated total size of the values in the cache.
+     *
+     * @return the size in bytes.
+     */
+    public synchronized long getWeight()
+    {
+        return this.weight;
+    }
+
+    /**
+     * Returns the maximum total size of the values in the cache.
+     *
+     * @return the capacity in bytes.
+     */
+    public long getCapacity()
+    {
+        return this.capacity;
+    }
+
+    /**
+     * Returns the number of lookups that found a value.
+     *
+     * @return the number of hits.
+     */
+    public synchronized long getHitCount()
+    {
+        return this.hits;
+    }
+
+    /**
+     * Returns the number of lookups that did not find a value.
+     *
+     * @return the number of misses.
+     */
+    public synchronized long getMissCount()
+    {
+        return this.misses;
+    }
+
+    /**
+     * Returns the number of values evicted to make room for others.
+     *
+     * @return the number of evictions.
+     */
+    public synchronized long getEvictionCount()
+    {
+        return this.evictions;
+    }
+}
@@ -0,0 +1,172 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A {@link RetrievalModel} that caches the results of another model.
+ * <p>
+ * Results are keyed by the query term vector, that is, the distinct terms extracted by the {@link DocumentProcessor}
+ * with their frequencies, in sorted order. Queries that differ only in case, punctuation or term order thus share an
+ * entry. Each entry stores the top {@code k} results in two primitive arrays, and serves any later query for the same
+ * terms with the same or a smaller {@code k}, since the best documents do not depend on {@code k}.
+ * <p>
+ * Entries are kept in a {@link BoundedCache}, so their memory is bounded. Keys also include the
+ * {@link Index#getGeneration generation} of the index, so results are never served for a different index or one
+ * since reloaded. Generations only grow, so the cache is emptied when a newer one is first seen; queries still running
+ * on an older index, as while a reload drains, neither empty it nor add to it. All queries must use the same
+ * {@link DocumentProcessor}.
+ */
+public class CachingRetrievalModel implements RetrievalModel
+{
+	protected static final long DEFAULT_CAPACITY = 16L * 1024 * 1024;
+
+	protected RetrievalModel model;
+	protected BoundedCache<String, CachedResults> cache;
+	protected long generation; // the newest generation seen
+
+	/**
+	 * Creates a new caching model with the default capacity.
+	 *
+	 * @param model the model to run queries not found in the cache.
+	 */
+	public CachingRetrievalModel(RetrievalModel model)
+	{
+		this(model, new BoundedCache<>(DEFAULT_CAPACITY, CachingRetrievalModel::estimateSize));
+	}
+
+	/**
+	 * Creates a new caching model with the given cache, for instance to change its capacity or eviction policy.
+	 *
+	 * @param model the model to run queries not found in the cache.
+	 * @param cache the cache of results.
+	 */
+	public CachingRetrievalModel(RetrievalModel model, BoundedCache<String, CachedResults> cache)
+	{
+		this.model = model;
+		this.cache = cache;
+		this.generation = -1;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ArrayList<Tuple<Integer, Double>> runQuery(String queryText, Index index, DocumentProcessor docProcessor, int k)
+	{
+		long generation = index.getGeneration();
+		synchronized (this) {
+			if (generation > this.generation) {
+				this.cache.clear();
+				this.generation = generation;
+			}
+		}
+
+		String key = generation + "\n" + CachingRetrievalModel.computeKey(docProcessor.countTerms(queryText));
+		CachedResults cached = this.cache.get(key);
+		if (cached == null || !cached.covers(k)) {
+			ArrayList<Tuple<Integer, Double>> results = this.model.runQuery(queryText, index, docProcessor, k);
+			cached = new CachedResults(results, k);
+			synchronized (this) {
+				if (generation == this.generation) // do not cache results of an index since replaced
+					this.cache.put(key, cached);
+			}
+		}
+		return cached.toList(k);
+	}
+
+	/**
+	 * Returns the cache of results, for instance to monitor its hits and misses.
+	 *
+	 * @return the cache of results.
+	 */
+	public BoundedCache<String, CachedResults> getCache()
+	{
+		return this.cache;
+	}
+
+	/**
+	 * Computes the part of the cache key of a query that depends on the query: its distinct terms in sorted order,
+	 * each followed by its frequency.
+	 *
+	 * @param terms the frequency of each query term.
+	 * @return the key of the query.
+	 */
+	protected static String computeKey(TermCounts terms)
+	{
+		String[] entries = new String[terms.size()];
+		for (int i = 0; i < terms.size(); i++)
+			entries[i] = terms.getTerm(i) + ' ' + terms.getCount(i);
+		Arrays.sort(entries);
+		return String.join("\n", entries);
+	}
+
+	/**
+	 * Estimates the memory used by a cache entry: twelve bytes per result, plus an allowance for the objects and the
+	 * key, since queries are short.
+	 *
+	 * @param results the cached results.
+	 * @return the estimated size in bytes.
+	 */
+	protected static long estimateSize(CachedResults results)
+	{
+		return 12L * results.docIDs.length + 128;
+	}
+
+	/**
+	 * The top results of a query, stored compactly.
+	 */
+	public static class CachedResults
+	{
+		protected final int[] docIDs;
+		protected final double[] scores;
+		protected final int k;
+
+		/**
+		 * Creates a new entry with the given results.
+		 *
+		 * @param results the results of the query, best first.
+		 * @param k       the number of results that were requested.
+		 */
+		public CachedResults(ArrayList<Tuple<Integer, Double>> results, int k)
+		{
+			this.docIDs = new int[results.size()];
+			this.scores = new double[results.size()];
+			for (int i = 0; i < results.size(); i++) {
+				this.docIDs[i] = results.get(i).item1;
+				this.scores[i] = results.get(i).item2;
+			}
+			this.k = k;
+		}
+
+		/**
+		 * Checks whether these results contain the top {@code k} results of the query, that is, whether at least
+		 * {@code k} were requested or there are fewer matching documents than were requested.
+		 *
+		 * @param k the number of results.
+		 * @return {@code true} if the top {@code k} results are available and {@code false} otherwise.
+		 */
+		public boolean covers(int k)
+		{
+			return k <= this.k || this.docIDs.length < this.k;
+		}
+
+		/**
+		 * Returns the top {@code k} results, in the format of {@link RetrievalModel#runQuery}.
+		 *
+		 * @param k the number of results.
+		 * @return a list of at most {@code k} {@link Tuple}s with the {@code docID} and the score.
+		 */
+		public ArrayList<Tuple<Integer, Double>> toList(int k)
+		{
+			int n = Math.min(k, this.docIDs.length);
+			ArrayList<Tuple<Integer, Double>> results = new ArrayList<>(n);
+			for (int i = 0; i < n; i++)
+				results.add(new Tuple<>(this.docIDs[i], this.scores[i]));
+			return results;
+		}
+	}
+}
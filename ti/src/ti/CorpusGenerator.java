@@ -0,0 +1,334 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * This class generates a synthetic collection of HTML documents and a matching file of queries, to test the search
+ * engine at scale.
+ * <p>
+ * Documents are written in the layout read by the {@link Indexer}: directories of at most
+ * {@link #DOCUMENTS_PER_DIRECTORY} {@code .html} files each, named so that sorting them by name keeps the order in
+ * which they were generated. Their words follow a Zipfian distribution over the vocabulary, where the word of rank
+ * {@code r} has a probability proportional to {@code 1/r^s}, and their lengths follow a log-normal distribution, as
+ * observed in real collections. Words are made of syllables so that they look like text to the processors, and are
+ * never shorter than the minimum length of an index term.
+ * <p>
+ * Queries are written in the format of {@code 2011-topics.xml}. Each one has from one to five terms, drawn from the
+ * same distribution as the documents but skipping the most frequent words, which would be stopwords in a real
+ * collection. As in a real query log, some queries are far more popular than others: topics are drawn from a pool of
+ * distinct queries, again following a Zipfian distribution, so the same query text appears in several topics.
+ * <p>
+ * The output depends only on the parameters and the seed, not on the number of workers, since each directory is
+ * generated with its own random generator. Documents are streamed to disk, so the memory used does not depend on the
+ * size of the collection.
+ */
+public class CorpusGenerator
+{
+    protected static final int DOCUMENTS_PER_DIRECTORY = 1000;
+    protected static final int DEFAULT_QUERIES = 1000;
+    protected static final long DEFAULT_SEED = 2011;
+    protected static final int DEFAULT_VOCABULARY_SIZE = 200_000;
+    protected static final double DEFAULT_ZIPF_EXPONENT = 1.0;
+    protected static final double DEFAULT_MEDIAN_LENGTH = 300;
+    protected static final double LENGTH_SIGMA = 0.8;
+    protected static final int WORDS_PER_PARAGRAPH = 80;
+    protected static final int QUERY_SKIPPED_WORDS = 100;
+    protected static final double[] QUERY_LENGTH_PROBABILITIES = {0.25, 0.35, 0.25, 0.10, 0.05};
+
+    protected static final String[] ONSETS = {"b", "c", "d", "f", "g", "h", "j", "k", "l", "m", "n", "p", "r", "s", "t",
+            "v", "w", "z", "br", "ch", "cl", "dr", "fl", "gr", "pl", "pr", "sh", "st", "th", "tr"};
+    protected static final String[] VOWELS = {"a", "i", "o", "u", "ai", "ou"};
+    protected static final long WORD_SCRAMBLER = 7919; // prime, so coprime with the number of syllables
+
+    protected File pathToCollection;
+    protected File pathToQueries;
+    protected int numDocuments;
+    protected int numQueries;
+    protected long seed;
+    protected ExecutorService workers;
+
+    protected String[] words;
+    protected double[] wordCdf;
+    protected double zipfExponent;
+    protected double medianLength;
+
+    /**
+     * Creates a new generator with the default vocabulary and document lengths.
+     *
+     * @param pathToCollection the path to the directory where documents are written.
+     * @param pathToQueries    the path to the file where queries are written.
+     * @param numDocuments     the number of documents.
+     * @param numQueries       the number of queries.
+     * @param seed             the seed of the random generators.
+     * @param workers          the workers to write directories of documents, or {@code null} to write them in the
+     *                         calling thread.
+     */
+    public CorpusGenerator(File pathToCollection, File pathToQueries, int numDocuments, int numQueries, long seed,
+                           ExecutorService workers)
+    {
+        this(pathToCollection, pathToQueries, numDocuments, numQueries, seed, workers, DEFAULT_VOCABULARY_SIZE,
+                DEFAULT_ZIPF_EXPONENT, DEFAULT_MEDIAN_LENGTH);
+    }
+
+    /**
+     * Creates a new generator.
+     *
+     * @param pathToCollection the path to the directory where documents are written.
+     * @param pathToQueries    the path to the file where queries are written.
+     * @param numDocuments     the number of documents.
+     * @param numQueries       the number of queries.
+     * @param seed             the seed of the random generators.
+     * @param workers          the workers to write directories of documents, or {@code null} to write them in the
+     *                         calling thread.
+     * @param vocabularySize   the number of distinct words.
+     * @param zipfExponent     the exponent {@code s} of the Zipfian distribution of words.
+     * @param medianLength     the median number of words in the body of a document.
+     */
+    public CorpusGenerator(File pathToCollection, File pathToQueries, int numDocuments, int numQueries, long seed,
+                           ExecutorService workers, int vocabularySize, double zipfExponent, double medianLength)
+    {
+        this.pathToCollection = pathToCollection;
+        this.pathToQueries = pathToQueries;
+        this.numDocuments = numDocuments;
+        this.numQueries = numQueries;
+        this.seed = seed;
+        this.workers = workers;
+        this.zipfExponent = zipfExponent;
+        this.medianLength = medianLength;
+
+        this.words = new String[vocabularySize];
+        for (int rank = 0; rank < vocabularySize; rank++)
+            this.words[rank] = CorpusGenerator.makeWord(rank);
+        this.wordCdf = CorpusGenerator.zipfCdf(vocabularySize, zipfExponent);
+    }
+
+    /**
+     * Generates the documents and the queries.
+     *
+     * @throws IOException if an error occurs while writing the files.
+     */
+    public void run() throws IOException
+    {
+        long startTime = System.currentTimeMillis();
+        System.err.println("Generating " + this.numDocuments + " documents...");
+        int numDirectories = (this.numDocuments + DOCUMENTS_PER_DIRECTORY - 1) / DOCUMENTS_PER_DIRECTORY;
+        ArrayList<Future<Long>> pending = new ArrayList<>();
+        long totalBytes = 0;
+        for (int dir = 0; dir < numDirectories; dir++) {
+            int d = dir;
+            if (this.workers == null)
+                totalBytes += this.writeDirectory(d);
+            else
+                pending.add(this.workers.submit(() -> this.writeDirectory(d)));
+        }
+        for (Future<Long> bytes : pending) {
+            try {
+                totalBytes += bytes.get();
+            } catch (InterruptedException | ExecutionException ex) {
+                throw new IOException("Error generating documents.", ex.getCause() != null ? ex.getCause() : ex);
+            }
+        }
+        System.err.println("...done:");
+        System.err.println("  - Directories: " + numDirectories + " (" + (totalBytes / 1024 / 1024) + " MB).");
+        System.err.println("  - Time: " + (System.currentTimeMillis() - startTime) / 1000d + " seconds.");
+
+        System.err.print("Generating " + this.numQueries + " queries...");
+        this.writeQueries();
+        System.err.println("done.");
+    }
+
+    /**
+     * Writes one directory of documents.
+     *
+     * @param dir the index of the directory.
+     * @return the number of bytes written.
+     * @throws IOException if an error occurs while writing the files.
+     */
+    protected long writeDirectory(int dir) throws IOException
+    {
+        SplittableRandom random = new SplittableRandom(this.seed * 31 + dir);
+        File dirFile = new File(this.pathToCollection, String.format("%05d", dir));
+        Files.createDirectories(dirFile.toPath());
+
+        long bytes = 0;
+        StringBuilder html = new StringBuilder();
+        int first = dir * DOCUMENTS_PER_DIRECTORY;
+        int last = Math.min(first + DOCUMENTS_PER_DIRECTORY, this.numDocuments);
+        for (int docID = first; docID < last; docID++) {
+            html.setLength(0);
+            this.makeDocument(random, html);
+            File docFile = new File(dirFile, String.format("%09d.html", docID));
+            try (Writer out = Files.newBufferedWriter(docFile.toPath(), StandardCharsets.UTF_8)) {
+                out.append(html);
+            }
+            bytes += html.length();
+        }
+        return bytes;
+    }
+
+    /**
+     * Generates the HTML of a document, with a short title and a body of paragraphs.
+     *
+     * @param random the random generator.
+     * @param html   the builder to append the document to.
+     */
+    protected void makeDocument(SplittableRandom random, StringBuilder html)
+    {
+        html.append("<!DOCTYPE html>\n<html>\n<head>\n\t<title>");
+        this.appendWords(random, html, 3 + random.nextInt(6));
+        html.append("</title>\n</head>\n<body>\n");
+
+        double gaussian = CorpusGenerator.nextGaussian(random);
+        int length = Math.max(1, (int) Math.round(this.medianLength * Math.exp(LENGTH_SIGMA * gaussian)));
+        for (int written = 0; written < length; written += WORDS_PER_PARAGRAPH) {
+            html.append("\t<p>");
+            this.appendWords(random, html, Math.min(WORDS_PER_PARAGRAPH, length - written));
+            html.append("</p>\n");
+        }
+        html.append("</body>\n</html>\n");
+    }
+
+    /**
+     * Appends words drawn from the Zipfian distribution, separated by spaces.
+     *
+     * @param random the random generator.
+     * @param out    the builder to append the words to.
+     * @param count  the number of words.
+     */
+    protected void appendWords(SplittableRandom random, StringBuilder out, int count)
+    {
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                out.append(' ');
+            out.append(this.words[CorpusGenerator.sample(this.wordCdf, random)]);
+        }
+    }
+
+    /**
+     * Writes the queries in the format of {@code 2011-topics.xml}.
+     *
+     * @throws IOException if an error occurs while writing the file.
+     */
+    protected void writeQueries() throws IOException
+    {
+        SplittableRandom random = new SplittableRandom(this.seed * 31 - 1);
+
+        // Pool of distinct queries, avoiding the most frequent words
+        String[] pool = new String[Math.max(1, this.numQueries)];
+        double[] lengthCdf = new double[QUERY_LENGTH_PROBABILITIES.length];
+        for (int i = 0; i < lengthCdf.length; i++)
+            lengthCdf[i] = (i > 0 ? lengthCdf[i - 1] : 0) + QUERY_LENGTH_PROBABILITIES[i];
+        for (int q = 0; q < pool.length; q++) {
+            int length = 1 + CorpusGenerator.sample(lengthCdf, random);
+            StringBuilder query = new StringBuilder();
+            for (int i = 0; i < length; i++) {
+                int rank;
+                do {
+                    rank = CorpusGenerator.sample(this.wordCdf, random);
+                } while (rank < QUERY_SKIPPED_WORDS && rank < this.words.length - 1);
+                if (i > 0)
+                    query.append(' ');
+                query.append(this.words[rank]);
+            }
+            pool[q] = query.toString();
+        }
+
+        // Topics drawn from the pool, so that popular queries repeat
+        double[] poolCdf = CorpusGenerator.zipfCdf(pool.length, this.zipfExponent);
+        Files.createDirectories(this.pathToQueries.getAbsoluteFile().getParentFile().toPath());
+        try (BufferedWriter out = Files.newBufferedWriter(this.pathToQueries.toPath(), StandardCharsets.UTF_8)) {
+            out.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<topiclist>\n");
+            for (int q = 0; q < this.numQueries; q++) {
+                out.write("\t<topic id=\"gen-" + String.format("%06d", q + 1) + "\">\n");
+                out.write("\t\t<title>" + pool[CorpusGenerator.sample(poolCdf, random)] + "</title>\n");
+                out.write("\t</topic>\n");
+            }
+            out.write("</topiclist>\n");
+        }
+    }
+
+    /**
+     * Makes the word of the given rank, spelling the rank in base {@code ONSETS.length * VOWELS.length} with one
+     * syllable per digit. Words have at least three syllables, and thus at least six letters, so different ranks
+     * always give different words. The lowest three digits are scrambled by a bijection, so that frequent words do not
+     * all start with the same syllables.
+     *
+     * @param rank the rank of the word.
+     * @return the word.
+     */
+    protected static String makeWord(int rank)
+    {
+        long base = ONSETS.length * VOWELS.length;
+        long cube = base * base * base;
+        long n = rank / cube * cube + rank % cube * WORD_SCRAMBLER % cube;
+        StringBuilder word = new StringBuilder();
+        int digits = 0;
+        do {
+            int digit = (int) (n % base);
+            word.insert(0, ONSETS[digit / VOWELS.length] + VOWELS[digit % VOWELS.length]);
+            n /= base;
+            digits++;
+        } while (n > 0 || digits < 3);
+        return word.toString();
+    }
+
+    /**
+     * Computes the cumulative distribution of a Zipfian distribution.
+     *
+     * @param n the number of ranks.
+     * @param s the exponent.
+     * @return the cumulative probability of each rank, from the most probable.
+     */
+    protected static double[] zipfCdf(int n, double s)
+    {
+        double[] cdf = new double[n];
+        double total = 0;
+        for (int rank = 0; rank < n; rank++) {
+            total += 1 / Math.pow(rank + 1, s);
+            cdf[rank] = total;
+        }
+        for (int rank = 0; rank < n; rank++)
+            cdf[rank] /= total;
+        return cdf;
+    }
+
+    /**
+     * Draws a value from a discrete distribution by binary search in its cumulative distribution.
+     *
+     * @param cdf    the cumulative probability of each value.
+     * @param random the random generator.
+     * @return the value drawn.
+     */
+    protected static int sample(double[] cdf, SplittableRandom random)
+    {
+        double u = random.nextDouble() * cdf[cdf.length - 1];
+        int i = Arrays.binarySearch(cdf, u);
+        return Math.min(i >= 0 ? i : -i - 1, cdf.length - 1);
+    }
+
+    /**
+     * Draws a value from the standard normal distribution with the Box-Muller transform.
+     *
+     * @param random the random generator.
+     * @return the value drawn.
+     */
+    protected static double nextGaussian(SplittableRandom random)
+    {
+        double u = 1 - random.nextDouble(); // in (0, 1], so the logarithm is finite
+        return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * random.nextDouble());
+    }
+}
@@ -10,6 +10,11 @@ import java.util.*;
  */
 public class Cosine implements RetrievalModel
 {
+	/**
+	 * Score accumulators, reused by all queries run in the same thread.
+	 */
+	protected static final ThreadLocal<ScoreAccumulator> ACCUMULATORS = ThreadLocal.withInitial(ScoreAccumulator::new);
+
 	public Cosine()
 	{
 	}
@@ -18,79 +23,86 @@ public class Cosine implements RetrievalModel
 	 * {@inheritDoc}
 	 */
 	@Override
-	public ArrayList<Tuple<Integer, Double>> runQuery(String queryText, Index index, DocumentProcessor docProcessor)
+	public ArrayList<Tuple<Integer, Double>> runQuery(String queryText, Index index, DocumentProcessor docProcessor, int k)
 	{
-		ArrayList<String> queryTerms = docProcessor.processText(queryText);
+		TermCounts queryTerms = docProcessor.countTerms(queryText);
 		ArrayList<Tuple<Integer, Double>> queryVector = this.computeVector(queryTerms, index);
-		return this.computeScores(queryVector, index);
+		return this.computeScores(queryVector, index, k);
 	}
 
 	/**
-	 * Returns the list of documents in the specified index sorted by similarity with the specified query vector.
+	 * Returns the {@code k} documents in the specified index most similar to the specified query vector, sorted by
+	 * similarity.
+	 * <p>
+	 * Scores are accumulated term at a time in this thread's {@link ScoreAccumulator}, and documents are then selected
+	 * with a {@link TopKHeap}, so the cost of ranking is {@code O(n log k)} rather than sorting all {@code n} matching
+	 * documents.
 	 *
 	 * @param queryVector the vector with query term weights.
 	 * @param index       the index to search in.
+	 * @param k           the number of documents to return.
 	 * @return a list of {@link Tuple}s where the first item is the {@code docID} and the second one the similarity score.
 	 */
-	protected ArrayList<Tuple<Integer, Double>> computeScores(ArrayList<Tuple<Integer, Double>> queryVector, Index index)
+	protected ArrayList<Tuple<Integer, Double>> computeScores(ArrayList<Tuple<Integer, Double>> queryVector, Index index, int k)
 	{
-		HashMap<Integer, Double> sims = new HashMap<>(); // [docID] -> [sim]
+		ScoreAccumulator sims = Cosine.ACCUMULATORS.get(); // [docID] -> [sim]
+		sims.reset(index.getDocumentCount());
 		double queryNorm = 0;
+		long scanned = 0;
 		for (Tuple<Integer, Double> qTerm : queryVector) { // Foreach query term
 			int termId = qTerm.item1;
 			double qW = qTerm.item2;
 
-			for (Tuple<Integer, Double> posting : index.invertedIndex.get(termId)) { // Foreach posting
-				int docID = posting.item1;
-				double dW = posting.item2;
-				Double docScore = sims.get(docID);
-				if (docScore == null) // New document?
-					docScore = 0d;
-				sims.put(docID, docScore + dW * qW);
+			if (termId >= 0) {
+				PostingsIterator postings = index.getPostings(termId);
+				while (postings.next()) { // Foreach posting
+					sims.add(postings.getID(), (float) (postings.getWeight() * qW));
+					scanned++;
+				}
 			}
 			queryNorm += qW * qW;
 		}
 		queryNorm = Math.sqrt(queryNorm);
 
-		ArrayList<Tuple<Integer, Double>> results = new ArrayList<>(sims.size());
-		for (Map.Entry<Integer, Double> sim : sims.entrySet()) {
-			int docID = sim.getKey();
-			double simScore = sim.getValue();
-			double docNorm = index.documents.get(docID).item2;
-			results.add(new Tuple<>(docID, simScore / queryNorm / docNorm));
+		TopKHeap topK = new TopKHeap(k);
+		for (int i = 0; i < sims.getTouchedCount(); i++) {
+			int docID = sims.getTouched(i);
+			double simScore = sims.get(docID);
+			double docNorm = index.getDocumentNorm(docID);
+			topK.offer(docID, simScore / queryNorm / docNorm);
 		}
-
-		Collections.sort(results, new Comparator<Tuple<Integer, Double>>()
-		{
-			@Override
-			public int compare(Tuple<Integer, Double> o1, Tuple<Integer, Double> o2)
-			{
-				return o2.item2.compareTo(o1.item2);
-			}
-		});
-		return results;
+		Metrics.POSTINGS_SCANNED.add(scanned);
+		Metrics.CANDIDATES_SCORED.add(sims.getTouchedCount());
+		return topK.toList();
 	}
 
 	/**
-	 * Compute the vector of weights for the specified list of terms.
+	 * Compute the vector of weights for the specified term frequencies.
+	 * <p>
+	 * If the index holds only part of the collection, such as a shard, terms that only appear in other parts get
+	 * {@code termID} {@code -1}: they have no postings here, but weigh in the norm of the query as in the whole
+	 * collection, so that scores are the same in all parts.
 	 *
-	 * @param terms the list of terms.
+	 * @param terms the frequency of each term.
 	 * @param index the index
 	 * @return a list of {@code Tuple}s with the {@code termID} as first item and the weight as second one.
 	 */
-	protected ArrayList<Tuple<Integer, Double>> computeVector(ArrayList<String> terms, Index index)
+	protected ArrayList<Tuple<Integer, Double>> computeVector(TermCounts terms, Index index)
 	{
 		ArrayList<Tuple<Integer, Double>> vector = new ArrayList<>();
 
-		HashSet<String> uniqTerms = new HashSet<>(terms);
-		for (String term : uniqTerms) {
-			Tuple<Integer, Double> termInfo = index.vocabulary.get(term);
+		for (int i = 0; i < terms.size(); i++) {
+			Tuple<Integer, Double> termInfo = index.getTerm(terms.getTerm(i));
 			if (termInfo != null) { // If it is in the index...
 				int termId = termInfo.item1;
 				double idf = termInfo.item2;
-				double tf = 1.0 + Math.log(Collections.frequency(terms, term));
+				double tf = 1.0 + Math.log(terms.getCount(i));
 
 				vector.add(new Tuple<>(termId, tf * idf));
+			} else {
+				double idf = index.getCollectionIDF(terms.getTerm(i));
+				if (idf > 0) // ...or in another part of the collection
+					vector.add(new Tuple<>(-1, (1.0 + Math.log(terms.getCount(i))) * idf));
 			}
 		}
 
@@ -19,11 +19,39 @@ public interface DocumentProcessor
 	 */
 	Tuple<String, String> parse(String docText);
 
+	/**
+	 * Process the given text (tokenize, normalize, etc.) and pass each term to index to the given consumer, in a
+	 * single pass over the text.
+	 *
+	 * @param text     the text to process.
+	 * @param consumer the consumer of the index terms.
+	 */
+	void processText(String text, TermConsumer consumer);
+
 	/**
 	 * Process the given text (tokenize, normalize, etc.) and return the list of terms to index.
 	 *
 	 * @param text the text to process.
 	 * @return the list of index terms.
 	 */
-	ArrayList<String> processText(String text);
+	default ArrayList<String> processText(String text)
+	{
+		ArrayList<String> terms = new ArrayList<>();
+		this.processText(text, (buffer, length) -> terms.add(new String(buffer, 0, length)));
+		return terms;
+	}
+
+	/**
+	 * Process the given text (tokenize, normalize, etc.) and count the frequency of each term to index, in a single
+	 * pass over the text.
+	 *
+	 * @param text the text to process.
+	 * @return the histogram of term frequencies.
+	 */
+	default TermCounts countTerms(String text)
+	{
+		TermCounts counts = new TermCounts();
+		this.processText(text, counts);
+		return counts;
+	}
 }
@@ -0,0 +1,192 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * This class gives read access to the cached version of the documents, packed in a single memory-mapped
+ * {@link RecordFile} written by {@link DocumentStoreWriter}.
+ * <p>
+ * Documents are grouped in blocks of {@link #DOCS_PER_BLOCK}, and each block is compressed with Deflate using a
+ * dictionary shared by all blocks. Record {@code 0} is the dictionary, and record {@code b+1} is block {@code b}:
+ * <p>
+ * {@code rawLength:int} {@code deflated(title body)+}
+ * <p>
+ * where each string is {@code length:int} followed by its UTF-8 bytes. Reading a document inflates its block only.
+ */
+public class DocumentStore implements Closeable
+{
+    protected static final int MAGIC = 0x54495354; // "TIST"
+    protected static final int DOCS_PER_BLOCK = 16;
+    protected static final int DICTIONARY_SIZE = 32 * 1024;
+
+    /**
+     * Inflaters, reused by all reads in the same thread.
+     */
+    protected static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+    protected final RecordFile file;
+    protected final byte[] dictionary;
+
+    /**
+     * Maps the specified store file.
+     *
+     * @param file the file to open.
+     * @throws IOException if an error occurs while mapping the file or it does not have the expected format.
+     */
+    public DocumentStore(File file) throws IOException
+    {
+        this.file = new RecordFile(file, MAGIC);
+        this.dictionary = new byte[this.file.getLength(0)];
+        this.file.getBuffer().duplicate().position(this.file.getOffset(0)).get(this.dictionary);
+    }
+
+    /**
+     * Returns the format version the store was written with.
+     *
+     * @return the format version.
+     */
+    public int getVersion()
+    {
+        return this.file.getVersion();
+    }
+
+    /**
+     * Unmaps the store file. No document can be read afterwards.
+     *
+     * @see RecordFile#close
+     */
+    @Override
+    public void close()
+    {
+        this.file.close();
+    }
+
+    /**
+     * Returns the number of blocks in the store.
+     *
+     * @return the number of blocks.
+     */
+    public int getBlockCount()
+    {
+        return this.file.getCount() - 1;
+    }
+
+    /**
+     * Returns the size of the store in bytes.
+     *
+     * @return the size of the file.
+     */
+    public long getSize()
+    {
+        return this.file.getSize();
+    }
+
+    /**
+     * Returns the cached version of the specified document.
+     *
+     * @param docID the ID of the document.
+     * @return a {@link Tuple} containing the document title and its body.
+     * @throws IOException if the document is not in the store or its block is corrupt.
+     */
+    public Tuple<String, String> getDocument(int docID) throws IOException
+    {
+        int block = docID / DOCS_PER_BLOCK;
+        if (docID < 0 || block >= this.getBlockCount())
+            throw new IOException("Document " + docID + " is not in the store.");
+
+        ByteBuffer raw = ByteBuffer.wrap(this.readBlock(block));
+        for (int i = docID % DOCS_PER_BLOCK; i > 0; i--) { // skip previous documents in the block
+            if (!raw.hasRemaining())
+                throw new IOException("Document " + docID + " is not in the store.");
+            DocumentStore.skipString(raw); // title
+            DocumentStore.skipString(raw); // body
+        }
+        if (!raw.hasRemaining())
+            throw new IOException("Document " + docID + " is not in the store.");
+        String title = DocumentStore.readString(raw);
+        String body = DocumentStore.readString(raw);
+        return new Tuple<>(title, body);
+    }
+
+    /**
+     * Inflates the specified block.
+     *
+     * @param block the number of the block.
+     * @return the uncompressed contents of the block.
+     * @throws IOException if the block is corrupt.
+     */
+    protected byte[] readBlock(int block) throws IOException
+    {
+        int offset = this.file.getOffset(block + 1);
+        int length = this.file.getLength(block + 1);
+        ByteBuffer buffer = this.file.getBuffer();
+        byte[] raw = new byte[buffer.getInt(offset)];
+        byte[] deflated = new byte[length - 4];
+        buffer.duplicate().position(offset + 4).get(deflated);
+
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(deflated);
+        try {
+            int n = inflater.inflate(raw);
+            if (n == 0 && inflater.needsDictionary()) {
+                inflater.setDictionary(this.dictionary);
+                n = inflater.inflate(raw);
+            }
+            if (n != raw.length)
+                throw new IOException("Block " + block + " of file " + this.file.file + " is corrupt.");
+        } catch (DataFormatException ex) {
+            throw new IOException("Block " + block + " of file " + this.file.file + " is corrupt.", ex);
+        }
+        return raw;
+    }
+
+    /**
+     * Writes a string as its length followed by its UTF-8 bytes.
+     *
+     * @param out the stream to write to.
+     * @param s   the string to write.
+     * @throws IOException if an error occurs while writing.
+     */
+    protected static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Moves the buffer past a string written by {@link #writeString}.
+     *
+     * @param buffer the buffer to read from.
+     */
+    protected static void skipString(ByteBuffer buffer)
+    {
+        int length = buffer.getInt();
+        buffer.position(buffer.position() + length);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString}, moving the buffer past it.
+     *
+     * @param buffer the buffer to read from.
+     * @return the string.
+     */
+    protected static String readString(ByteBuffer buffer)
+    {
+        int length = buffer.getInt();
+        String s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return s;
+    }
+}
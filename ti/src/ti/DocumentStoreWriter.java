@@ -0,0 +1,124 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * This class writes a document store to be read with {@link DocumentStore}.
+ * <p>
+ * Documents must be appended in {@code docID} order. They are buffered until a block of
+ * {@link DocumentStore#DOCS_PER_BLOCK} documents is complete, and then the block is compressed and streamed to disk.
+ * The shared dictionary is taken from the first block, so it is written just before that block.
+ */
+public class DocumentStoreWriter implements Closeable
+{
+    protected final RecordFileWriter writer;
+    protected final ByteArrayOutputStream block;
+    protected final DataOutputStream blockOut;
+    protected final Deflater deflater;
+    protected byte[] dictionary;
+    protected byte[] compressed;
+    protected int count;
+
+    /**
+     * Creates a new writer for the specified file, overwriting it if it already exists.
+     *
+     * @param file    the file to write.
+     * @param version the format version of the store.
+     * @throws IOException if an error occurs while creating the file.
+     */
+    public DocumentStoreWriter(File file, int version) throws IOException
+    {
+        this.writer = new RecordFileWriter(file, DocumentStore.MAGIC, version);
+        this.block = new ByteArrayOutputStream();
+        this.blockOut = new DataOutputStream(this.block);
+        this.deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        this.dictionary = null;
+        this.compressed = new byte[1 << 16];
+        this.count = 0;
+    }
+
+    /**
+     * Appends the next document to the store.
+     *
+     * @param docID   the ID of the document, which must be the number of documents already appended.
+     * @param docText a {@link Tuple} containing the document title and its body.
+     * @throws IOException if an error occurs while writing the store.
+     */
+    public void add(int docID, Tuple<String, String> docText) throws IOException
+    {
+        if (docID != this.count)
+            throw new IOException("Document " + docID + " added out of order; expected document " + this.count + ".");
+
+        DocumentStore.writeString(this.blockOut, docText.item1);
+        DocumentStore.writeString(this.blockOut, docText.item2);
+        this.count++;
+        if (this.count % DocumentStore.DOCS_PER_BLOCK == 0)
+            this.flushBlock();
+    }
+
+    /**
+     * Returns the number of documents appended so far.
+     *
+     * @return the number of documents.
+     */
+    public int getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * Compresses the buffered documents as the next block.
+     *
+     * @throws IOException if an error occurs while writing the store.
+     */
+    protected void flushBlock() throws IOException
+    {
+        byte[] raw = this.block.toByteArray();
+        this.block.reset();
+
+        if (this.dictionary == null) {
+            // Deflate only looks back 32 KB, so the dictionary is the tail of the first block
+            this.dictionary = Arrays.copyOfRange(raw, Math.max(0, raw.length - DocumentStore.DICTIONARY_SIZE), raw.length);
+            this.writer.nextRecord();
+            this.writer.getOutput().write(this.dictionary);
+        }
+
+        this.deflater.reset();
+        this.deflater.setDictionary(this.dictionary);
+        this.deflater.setInput(raw);
+        this.deflater.finish();
+        this.writer.nextRecord();
+        DataOutputStream out = this.writer.getOutput();
+        out.writeInt(raw.length);
+        while (!this.deflater.finished()) {
+            int n = this.deflater.deflate(this.compressed);
+            out.write(this.compressed, 0, n);
+        }
+    }
+
+    /**
+     * Compresses the last, possibly incomplete, block and closes the file.
+     *
+     * @throws IOException if an error occurs while writing the store.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            if (this.count % DocumentStore.DOCS_PER_BLOCK != 0 || this.dictionary == null)
+                this.flushBlock();
+            this.writer.close();
+        } finally {
+            this.deflater.end();
+        }
+    }
+}
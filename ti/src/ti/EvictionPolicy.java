@@ -0,0 +1,43 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+/**
+ * This interface defines the policy a {@link BoundedCache} follows to choose which entry to evict when it is full.
+ * <p>
+ * The cache notifies the policy of every access, insertion and removal while holding its lock, so implementations
+ * need not be thread-safe.
+ *
+ * @param <K> the type of the keys.
+ */
+public interface EvictionPolicy<K>
+{
+	/**
+	 * Records that an entry in the cache was read.
+	 *
+	 * @param key the key of the entry.
+	 */
+	void onAccess(K key);
+
+	/**
+	 * Records that an entry was added to the cache.
+	 *
+	 * @param key the key of the entry.
+	 */
+	void onInsert(K key);
+
+	/**
+	 * Records that an entry was removed from the cache.
+	 *
+	 * @param key the key of the entry.
+	 */
+	void onRemove(K key);
+
+	/**
+	 * Chooses the entry to evict next. It is only called when the cache is not empty.
+	 *
+	 * @return the key of the entry to evict.
+	 */
+	K victim();
+}
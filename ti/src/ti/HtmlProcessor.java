@@ -4,12 +4,7 @@
 package ti;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Scanner;
 
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
@@ -17,10 +12,17 @@ import org.jsoup.nodes.Document;
 
 /**
  * A processor to extract terms from HTML documents.
+ * <p>
+ * Tokens are the sequences of letters, digits and apostrophes longer than 4 characters. Each token is indexed as is
+ * and, unless it is a stopword, also lowercased and stemmed.
  */
 public class HtmlProcessor implements DocumentProcessor
 {
+	protected static final int MIN_TOKEN_LENGTH = 5;
+	protected static final ThreadLocal<Stemmer> STEMMERS = ThreadLocal.withInitial(Stemmer::new);
+
 	protected File pathToStopWords;
+	protected StopWords stopWords;
 
 	/**
 	 * Creates a new HTML processor.
@@ -32,6 +34,7 @@ public class HtmlProcessor implements DocumentProcessor
 	{
 		// Load stopwords
 		this.pathToStopWords = pathToStopWords;
+		this.stopWords = new StopWords(pathToStopWords);
 	}
 
 	/**
@@ -40,8 +43,6 @@ public class HtmlProcessor implements DocumentProcessor
 	public Tuple<String, String> parse(String html)
 	{
 		// Parse document
-		//TODO: Implement jsoup split into title and body
-		
 		Document doc = Jsoup.parse(html);
 
 		String title = doc.title();
@@ -52,110 +53,48 @@ public class HtmlProcessor implements DocumentProcessor
 	}
 
 	/**
-	 * Process the given text (tokenize, normalize, filter stopwords and stemize) and return the list of terms to index.
+	 * Process the given text (tokenize, normalize, filter stopwords and stemize) and pass each term to index to the
+	 * given consumer.
+	 * <p>
+	 * The text is scanned once, building each token in this thread's {@link TermBuffer}. Stopwords are checked
+	 * against the preloaded {@link StopWords} set, and stems are computed with this thread's {@link Stemmer}, so no
+	 * object is created per token.
 	 *
-	 * @param text the text to process.
-	 * @return the list of index terms.
+	 * @param text     the text to process.
+	 * @param consumer the consumer of the index terms.
 	 */
-	public ArrayList<String> processText(String text)
+	public void processText(String text, TermConsumer consumer)
 	{
-		ArrayList<String> tokens = this.tokenize(text);
-		ArrayList<String> processedTokens = this.tokenize(text);
-		
-		for (String token : tokens) {
-			if(!this.isStopWord(token)) {
-				String normToken = this.normalize(token);
-				//System.out.println(normToken);
-				String stemmedToken = this.stem(normToken);
-				//System.out.println(normToken + " -- stemmed --> " + stemmedToken);
-				processedTokens.add(stemmedToken);
+		TermBuffer token = TermBuffer.get();
+		Stemmer stemmer = STEMMERS.get();
+		int length = text.length();
+		for (int i = 0; i <= length; i++) {
+			char c = i < length ? text.charAt(i) : ' ';
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '\'') {
+				token.append(c);
+			} else if (token.length > 0) {
+				if (token.length >= MIN_TOKEN_LENGTH)
+					this.processToken(token, stemmer, consumer);
+				token.clear();
 			}
 		}
-		//System.err.println(tokens.get(0));
-		//System.err.println("------------------------------------------------------------");
-		
-		return processedTokens;
-	}
-
-	/**
-	 * Tokenize the given text.
-	 *
-	 * @param text the text to tokenize.
-	 * @return the list of tokens.
-	 */
-	protected ArrayList<String> tokenize(String text)
-	{
-		List<String> tokens = Arrays.asList(text.replaceAll("[^a-zA-Z0-9']", " ").split("\\s+"));
-		ArrayList<String> terms = new ArrayList<>();
-		
-        for (String token : tokens)
-            if (token.length() > 4)
-                terms.add(token);
-
-		return terms;
-	}
-
-	/**
-	 * Normalize the given term.
-	 *
-	 * @param text the term to normalize.
-	 * @return the normalized term.
-	 */
-	protected String normalize(String text)
-	{
-		String normalized = text.toLowerCase();
-
-		return normalized;
 	}
 
 	/**
-	 * Checks whether the given term is a stopword.
+	 * Passes a token to the consumer as is and, unless it is a stopword, normalized and stemmed.
 	 *
-	 * @param term the term to check.
-	 * @return {@code true} if the term is a stopword and {@code false} otherwise.
+	 * @param token    the token.
+	 * @param stemmer  the stemmer to use.
+	 * @param consumer the consumer of the index terms.
 	 */
-	protected boolean isStopWord(String term)
+	protected void processToken(TermBuffer token, Stemmer stemmer, TermConsumer consumer)
 	{
-		boolean isStopWord = false;
-
-		try {
-		    Scanner scanner = new Scanner(this.pathToStopWords);
-
-		    //now read the file line by line...
-		    int lineNum = 0;
-		    while (scanner.hasNextLine()) {
-		        String line = scanner.nextLine();
-		        lineNum++;
-		        if(line.equals(term)) { 
-		            //System.out.println("stop word in line #" + lineNum + " --> " + term);
-		            scanner.close();
-		            return true;
-		        }
-		    }
-		    scanner.close();
-		} catch(FileNotFoundException e) { 
-		    //throw e;
-			System.err.println(e.getStackTrace());
-		} finally {
-			
+		consumer.accept(token.chars, token.length);
+		if (!this.stopWords.contains(token.chars, token.length)) {
+			for (int i = 0; i < token.length; i++)
+				stemmer.add(Character.toLowerCase(token.chars[i])); // normalize
+			stemmer.stem();
+			consumer.accept(stemmer.getResultBuffer(), stemmer.getResultLength());
 		}
-
-		return isStopWord;
-	}
-
-	/**
-	 * Stem the given term.
-	 *
-	 * @param term the term to stem.
-	 * @return the stem of the term.
-	 */
-	protected String stem(String term)
-	{
-		Stemmer stemmer = new Stemmer();
-		char[] termChars = term.toCharArray();
-		stemmer.add(termChars, termChars.length);
-		stemmer.stem();
-		String stem = stemmer.toString();
-		return stem;
 	}
 }
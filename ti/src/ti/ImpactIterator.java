@@ -0,0 +1,115 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class decodes on the fly the quantized impacts of a term, as written by {@link Index#writeImpacts}.
+ * <p>
+ * {@code count:vbyte maxScore:float (gap:vbyte impact:u8)x(count)}
+ * <p>
+ * {@code docID}s are stored as the gap from the previous one in the variable-byte code of {@link PostingsCodec}, and
+ * each impact is a score quantized to 8 bits relative to the maximum score of the term, so an impact {@code i} stands
+ * for a score of {@code i * maxScore / 255}.
+ */
+public class ImpactIterator
+{
+    public static final int IMPACT_LEVELS = 0xFF;
+
+    protected final ByteBuffer buffer;
+    protected final int size;
+    protected final float maxScore;
+    protected final int[] position;
+    protected int remaining;
+    protected int id;
+    protected int impact;
+
+    /**
+     * Creates a new iterator over the impacts that start at the specified position of the buffer.
+     *
+     * @param buffer the buffer with the impacts file.
+     * @param offset the position of the impacts of the term.
+     */
+    public ImpactIterator(ByteBuffer buffer, int offset)
+    {
+        this.buffer = buffer;
+        this.position = new int[]{offset};
+        this.size = PostingsCodec.readVByte(buffer, this.position);
+        this.maxScore = buffer.getFloat(this.position[0]);
+        this.position[0] += 4;
+        this.remaining = this.size;
+        this.id = 0;
+    }
+
+    /**
+     * Returns the number of postings of the term.
+     *
+     * @return the number of postings.
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Returns the maximum score of the term, that is, the score of an impact of {@link #IMPACT_LEVELS}.
+     *
+     * @return the maximum score.
+     */
+    public float getMaxScore()
+    {
+        return this.maxScore;
+    }
+
+    /**
+     * Moves to the next posting.
+     *
+     * @return {@code true} if there was a next posting, or {@code false} if all postings were read.
+     */
+    public boolean next()
+    {
+        if (this.remaining == 0)
+            return false;
+        this.remaining--;
+        this.id += PostingsCodec.readVByte(this.buffer, this.position);
+        this.impact = this.buffer.get(this.position[0]++) & 0xFF;
+        return true;
+    }
+
+    /**
+     * Returns the {@code docID} of the current posting.
+     *
+     * @return the ID of the document.
+     */
+    public int getID()
+    {
+        return this.id;
+    }
+
+    /**
+     * Returns the quantized impact of the current posting.
+     *
+     * @return the impact, between {@code 1} and {@link #IMPACT_LEVELS}.
+     */
+    public int getImpact()
+    {
+        return this.impact;
+    }
+
+    /**
+     * Quantizes a score to 8 bits. Positive scores are never quantized to zero, so that every matching document
+     * gets some impact.
+     *
+     * @param score    the score to quantize.
+     * @param maxScore the maximum score of the term.
+     * @return the impact, between {@code 1} and {@link #IMPACT_LEVELS}.
+     */
+    public static int quantize(double score, double maxScore)
+    {
+        if (maxScore <= 0)
+            return 1;
+        return (int) Math.max(1, Math.min(IMPACT_LEVELS, Math.round(score / maxScore * IMPACT_LEVELS)));
+    }
+}
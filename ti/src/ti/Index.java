@@ -4,24 +4,51 @@
 package ti;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * This class represents the index of the search engine.
  * <p>
  * The structures it holds are: the term and document information, an inverse index, a direct index, and a cached version of the documents.
  * <p>
- * The index can be loaded from and saved to some specified directory.
+ * Cached documents are appended to a {@link DocumentStore} as they are set while indexing, and read back from it once
+ * the index is loaded.
+ * <p>
+ * The index can be loaded from and saved to some specified directory. The public structures hold the index while it
+ * is being built; once saved, a loaded index is read in place from the memory-mapped files.
  */
 public class Index
 {
-    protected final int DOCS_PER_CACHE_BLOCK = 20;
+    protected static final int LEGACY_DOCS_PER_CACHE_BLOCK = 20;
+    protected static final long DOCUMENT_CACHE_BYTES = 64L * 1024 * 1024;
+    protected static final AtomicLong GENERATIONS = new AtomicLong();
+
+    protected static final int FORMAT_VERSION = 11;
+    protected static final int DOCUMENTS_MAGIC = 0x54494443; // "TIDC"
+    protected static final int INVERTED_MAGIC = 0x54494956; // "TIIV"
+    protected static final int DIRECT_MAGIC = 0x54494452; // "TIDR"
+    protected static final int IMPACTS_MAGIC = 0x54494950; // "TIIP"
+    /**
+     * The {@link #computeTermFrequency term frequency} of small numbers of occurrences, which are most postings.
+     */
+    protected static final double[] TERM_FREQUENCIES = new double[256];
+
+    static {
+        for (int count = 1; count < TERM_FREQUENCIES.length; count++)
+            TERM_FREQUENCIES[count] = 1.0 + Math.log(count);
+    }
 
     protected String path;
     /**
@@ -29,7 +56,8 @@ public class Index
      * <p>
      * {@code [term] -> (termID, IDF)}
      * <p>
-     * It maps a term {@link String} onto a {@link Tuple} containing the {@code termID} and its IDF score.
+     * It maps a term {@link String} onto a {@link Tuple} containing the {@code termID} and its IDF score. It is only
+     * used while the index is being built; once saved, terms are looked up in the {@link TermDictionary}.
      */
     public HashMap<String, Tuple<Integer, Double>> vocabulary; // [term] -> (termID, IDF)
     /**
@@ -41,24 +69,77 @@ public class Index
      * The {@link Tuple} contains the {@code name} of the document and its vector {@code norm}.
      */
     public ArrayList<Tuple<String, Double>> documents; // [docID] -> (docName, norm)
+    /**
+     * The length of each document in the index, that is, its number of terms.
+     * <p>
+     * {@code [docID] -> length}
+     */
+    public ArrayList<Integer> documentLengths; // [docID] -> length
     /**
      * The inverted index.
      * <p>
-     * {@code [termID] -> (docID, weight)+}
+     * {@code [termID] -> (docID, count)+}
      * </p>
      * The {@code i}-th element corresponds to the postings list of the term with {@code termID=i}.
-     * Each posting is a {@link Tuple} containing a {@code docID} and the {@code weight} of the term in that document.
+     * Each posting in the {@link PostingsList} is made of a {@code docID} and the number of occurrences of the term in
+     * that document, from which its weight is computed.
      */
-    public ArrayList<ArrayList<Tuple<Integer, Double>>> invertedIndex; // [termID] -> (docID, weight)+
+    public ArrayList<PostingsList> invertedIndex; // [termID] -> (docID, count)+
     /**
      * The direct index.
      * <p>
-     * {@code [docID] -> (termID, weight)+}
+     * {@code [docID] -> (termID, count)+}
      * <p>
      * The {@code i}-th element corresponds to the postings list of the document with {@code docID=i}.
-     * Each posting is a {@link Tuple} containing a {@code termID} and the {@code weight} of that term in the document.
+     * Each posting in the {@link PostingsList} is made of a {@code termID} and the number of occurrences of that term
+     * in the document.
      */
-    public ArrayList<ArrayList<Tuple<Integer, Double>>> directIndex; // [docID] -> (termID, weight)+
+    public ArrayList<PostingsList> directIndex; // [docID] -> (termID, count)+
+
+    /**
+     * The mapped files of a {@link #load loaded} index, each mapped the first time it is needed. They are
+     * {@code null} while the index is being built.
+     */
+    protected LazyComponent<RecordFile> documentsFile, invertedFile, directFile, impactsFile;
+    /**
+     * The sorted dictionary of terms of a {@link #load loaded} index, mapped the first time it is needed.
+     */
+    protected LazyComponent<TermDictionary> dictionary;
+    /**
+     * The store of cached documents, being written while indexing or mapped once the index is loaded.
+     */
+    protected DocumentStoreWriter storeWriter;
+    protected LazyComponent<DocumentStore> store;
+    /**
+     * The statistics of a {@link #load loaded} index, read from its statistics file, or {@code null} if the index
+     * has none.
+     */
+    protected Properties statistics;
+    /**
+     * The average document length, computed the first time it is needed, or {@code NaN} before that.
+     */
+    protected volatile double averageDocumentLength;
+    /**
+     * The number of documents, the total length and the document frequency of each term in the whole collection while
+     * an index that holds only part of it, such as a shard, is being built, or {@code -1} and {@code null} if the index
+     * holds the whole collection.
+     */
+    protected int collectionDocumentCount;
+    protected long collectionLength;
+    protected Map<String, Integer> collectionDocumentFrequencies; // [term] -> df
+    /**
+     * The index of the whole collection, if this {@link #load loaded} index holds only part of it, such as a shard,
+     * or {@code null} otherwise.
+     */
+    protected Index collection;
+    /**
+     * The documents decoded from the {@link #store}, so that frequently shown documents are not read again.
+     */
+    protected BoundedCache<Integer, Tuple<String, String>> documentCache;
+    /**
+     * A number that changes whenever the contents of the index may change, unique across all indexes.
+     */
+    protected volatile long generation;
 
     /**
      * Creates a new index to be loaded from or stored in the specified directory.
@@ -69,19 +150,103 @@ public class Index
         this.path = path;
         this.vocabulary = new HashMap<>();
         this.documents = new ArrayList<>();
+        this.documentLengths = new ArrayList<>();
         this.invertedIndex = new ArrayList<>();
         this.directIndex = new ArrayList<>();
+        this.averageDocumentLength = Double.NaN;
+        this.collectionDocumentCount = -1;
+        this.collectionLength = -1;
+        this.collectionDocumentFrequencies = null;
+        this.documentCache = new BoundedCache<>(DOCUMENT_CACHE_BYTES, Index::estimateSize);
+        this.generation = GENERATIONS.incrementAndGet();
+    }
+
+    /**
+     * Returns the generation of the index, a number that changes whenever the index is loaded or saved. No two
+     * indexes share a generation, so it identifies the current contents of this index among all others, for
+     * instance to invalidate cached query results.
+     *
+     * @return the generation of the index.
+     */
+    public long getGeneration()
+    {
+        return this.generation;
     }
 
     /**
      * Returns the cached version of the specified document.
+     * <p>
+     * Decoded documents are kept in the {@link #getDocumentCache document cache}, so only the first access to a
+     * document reads the store.
      * @param docID the ID of the document.
      * @return a {@link Tuple} containing the document title and its body.
      * @throws Exception if an error occurs while accessing the cache.
      */
     public Tuple<String,String> getCachedDocument(int docID) throws Exception
     {
-        int block = docID % this.DOCS_PER_CACHE_BLOCK;
+        if (this.store == null)
+            throw new IllegalStateException("The document store is only available once the index is loaded.");
+        Tuple<String, String> doc = this.documentCache.get(docID);
+        if (doc == null) {
+            doc = this.store.get().getDocument(docID);
+            this.documentCache.put(docID, doc);
+        }
+        return doc;
+    }
+    /**
+     * Returns the cache of decoded documents, for instance to monitor its hits and misses.
+     * @return the document cache.
+     */
+    public BoundedCache<Integer, Tuple<String, String>> getDocumentCache()
+    {
+        return this.documentCache;
+    }
+    /**
+     * Replaces the cache of decoded documents, for instance to change its capacity or eviction policy.
+     * @param documentCache the new document cache.
+     */
+    public void setDocumentCache(BoundedCache<Integer, Tuple<String, String>> documentCache)
+    {
+        this.documentCache = documentCache;
+    }
+    /**
+     * Estimates the memory used by a decoded document: two bytes per character plus the overhead of the objects.
+     * @param doc the document.
+     * @return the estimated size in bytes.
+     */
+    protected static long estimateSize(Tuple<String, String> doc)
+    {
+        return 2L * (doc.item1.length() + doc.item2.length()) + 128;
+    }
+    /**
+     * Sets the cached version of the specified document.
+     * <p>
+     * Documents are appended to the store, so they must be set in {@code docID} order. The store is completed when the
+     * index is {@link #save saved}.
+     * @param docID the ID of the document.
+     * @param docText a {@link Tuple} containing the document title and its body.
+     *                @throws IOException  if an error occurs while accessing the cache.
+     */
+    public void setCachedDocument(int docID, Tuple<String,String> docText) throws IOException
+    {
+        if (this.storeWriter == null) {
+            File di = new File(this.path);
+            if (!di.exists())
+                di.mkdirs();
+            this.storeWriter = new DocumentStoreWriter(Paths.get(this.path, "store").toFile(), FORMAT_VERSION);
+        }
+        this.storeWriter.add(docID, docText);
+    }
+    /**
+     * Returns the cached version of the specified document from an index in the legacy format, where each document
+     * is a gzipped serialized file in one of the {@code cache} directories.
+     * @param docID the ID of the document.
+     * @return a {@link Tuple} containing the document title and its body.
+     * @throws Exception if an error occurs while accessing the cache.
+     */
+    protected Tuple<String,String> getLegacyCachedDocument(int docID) throws Exception
+    {
+        int block = docID % LEGACY_DOCS_PER_CACHE_BLOCK;
         File blockPath = Paths.get(this.path, "cache"+block).toFile();
         File filePath = new File(blockPath, docID+"");
 
@@ -92,34 +257,620 @@ public class Index
 
         return new Tuple<>(title, body);
     }
+
     /**
-     * Sets the cached version of the specified document.
+     * Returns the number of terms in the vocabulary.
+     *
+     * @return the number of terms.
+     */
+    public int getTermCount()
+    {
+        if (this.statistics != null)
+            return Integer.parseInt(this.statistics.getProperty("terms"));
+        return this.dictionary != null ? this.dictionary.get().getTermCount() : this.vocabulary.size();
+    }
+
+    /**
+     * Returns the number of documents in the index.
+     *
+     * @return the number of documents.
+     */
+    public int getDocumentCount()
+    {
+        if (this.statistics != null)
+            return Integer.parseInt(this.statistics.getProperty("documents"));
+        return this.documentsFile != null ? this.documentsFile.get().getCount() : this.documents.size();
+    }
+
+    /**
+     * Looks up a term in the vocabulary of a {@link #load loaded} index.
+     * <p>
+     * Terms are sorted in the {@link TermDictionary}, so this is a binary search over its mapped blocks.
+     *
+     * @param term the term to look up.
+     * @return a {@link Tuple} with the {@code termID} and the IDF of the term, or {@code null} if it is not in the
+     * vocabulary.
+     */
+    public Tuple<Integer, Double> getTerm(String term)
+    {
+        TermDictionary dictionary = this.dictionary.get();
+        int termID = dictionary.search(term.getBytes(StandardCharsets.UTF_8));
+        return termID >= 0 ? new Tuple<>(termID, this.getIDF(termID)) : null;
+    }
+
+    /**
+     * Looks up the terms that start with a prefix in the vocabulary of a {@link #load loaded} index. Terms are
+     * sorted, so they have consecutive {@code termID}s.
+     *
+     * @param prefix the prefix of the terms.
+     * @return a {@link Tuple} with the {@code termID} of the first term with the prefix and the {@code termID} after
+     * the last one; both are equal if no term has the prefix.
+     */
+    public Tuple<Integer, Integer> getTermRange(String prefix)
+    {
+        return this.dictionary.get().getPrefixRange(prefix.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns a term of a {@link #load loaded} index.
+     *
+     * @param termID the ID of the term.
+     * @return the term.
+     */
+    public String getTermName(int termID)
+    {
+        return new String(this.getTermBytes(termID), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the UTF-8 bytes of a term of a {@link #load loaded} index, in the order used to sort the vocabulary.
+     *
+     * @param termID the ID of the term.
+     * @return the bytes of the term.
+     */
+    protected byte[] getTermBytes(int termID)
+    {
+        return this.dictionary.get().getTerm(termID);
+    }
+
+    /**
+     * Returns the IDF of a term of a {@link #load loaded} index, computed from its document frequency and the number
+     * of documents in the collection.
+     *
+     * @param termID the ID of the term.
+     * @return the IDF of the term.
+     */
+    public double getIDF(int termID)
+    {
+        return Index.computeIDF(this.getCollectionDocumentCount(), this.getDocumentFrequency(termID));
+    }
+
+    /**
+     * Returns the IDF of a term in the whole collection of a {@link #load loaded} index. It is the IDF of the term in
+     * the vocabulary, but an index that holds only part of the collection, such as a shard, only has the terms of its
+     * own documents.
+     *
+     * @param term the term.
+     * @return the IDF of the term, or {@code 0} if no document in the collection contains it.
+     */
+    public double getCollectionIDF(String term)
+    {
+        if (this.collection != null)
+            return this.collection.getCollectionIDF(term);
+        Tuple<Integer, Double> termInfo = this.getTerm(term);
+        return termInfo != null ? termInfo.item2 : 0;
+    }
+
+    /**
+     * Computes the IDF of a term.
+     *
+     * @param numDocs the number of documents in the collection.
+     * @param df      the number of documents that contain the term.
+     * @return the IDF of the term.
+     */
+    public static double computeIDF(int numDocs, int df)
+    {
+        return Math.log(1.0 + (double) numDocs / df);
+    }
+
+    /**
+     * Returns the upper bound of the contribution of a term to the similarity of any document in a {@link #load loaded}
+     * index. It is the maximum over the term's postings of the weight divided by the document norm.
+     *
+     * @param termID the ID of the term.
+     * @return the maximum normalized weight of the term.
+     */
+    public double getMaxWeight(int termID)
+    {
+        return this.dictionary.get().getMaxWeight(termID);
+    }
+
+    /**
+     * Returns the name of a document in a {@link #load loaded} index.
+     *
      * @param docID the ID of the document.
-     * @param docText a {@link Tuple} containing the document title and its body.
-     *                @throws IOException  if an error occurs while accessing the cache.
+     * @return the name of the document.
      */
-    public void setCachedDocument(int docID, Tuple<String,String> docText) throws IOException
+    public String getDocumentName(int docID)
     {
-        int block = docID % this.DOCS_PER_CACHE_BLOCK;
-        File blockPath = Paths.get(this.path, "cache"+block).toFile();
-        if(!blockPath.exists())
-            blockPath.mkdirs();
+        RecordFile documentsFile = this.documentsFile.get();
+        int offset = documentsFile.getOffset(docID);
+        int length = documentsFile.getLength(docID);
+        byte[] name = new byte[length - 12];
+        ByteBuffer buffer = documentsFile.getBuffer().duplicate();
+        buffer.position(offset + 12);
+        buffer.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
 
-        File filePath = new File(blockPath, docID+"");
-        ObjectOutputStream oos = new ObjectOutputStream(new GZIPOutputStream(new FileOutputStream(filePath)));
-        oos.writeObject(docText.item1);
-        oos.writeObject(docText.item2);
-        oos.close();
+    /**
+     * Returns the vector norm of a document in a {@link #load loaded} index.
+     *
+     * @param docID the ID of the document.
+     * @return the norm of the document.
+     */
+    public double getDocumentNorm(int docID)
+    {
+        RecordFile documentsFile = this.documentsFile.get();
+        return documentsFile.getBuffer().getDouble(documentsFile.getOffset(docID));
+    }
+
+    /**
+     * Returns the length of a document in a {@link #load loaded} index, that is, its number of terms.
+     *
+     * @param docID the ID of the document.
+     * @return the length of the document.
+     */
+    public int getDocumentLength(int docID)
+    {
+        RecordFile documentsFile = this.documentsFile.get();
+        return documentsFile.getBuffer().getInt(documentsFile.getOffset(docID) + 8);
+    }
+
+    /**
+     * Returns the average length of the documents in the collection of a {@link #load loaded} index. It is read from
+     * the statistics file or, if the index has none or it lacks the total length, computed from all the document
+     * lengths the first time it is requested.
+     *
+     * @return the average document length.
+     */
+    public double getAverageDocumentLength()
+    {
+        double average = this.averageDocumentLength;
+        if (Double.isNaN(average)) {
+            int numDocs = this.getCollectionDocumentCount();
+            String length = null;
+            if (this.statistics != null)
+                length = this.statistics.getProperty("collection.length", this.statistics.getProperty("length"));
+            long total = 0;
+            if (length != null)
+                total = Long.parseLong(length);
+            else
+                for (int docID = 0; docID < numDocs; docID++)
+                    total += this.getDocumentLength(docID);
+            average = numDocs == 0 ? 0 : (double) total / numDocs;
+            this.averageDocumentLength = average; // concurrent computations store the same value
+        }
+        return average;
+    }
+
+    /**
+     * Returns the number of documents in the collection of a {@link #load loaded} index. It is the number of
+     * documents in the index, unless the index holds only part of the collection, such as a shard.
+     *
+     * @return the number of documents in the collection.
+     */
+    public int getCollectionDocumentCount()
+    {
+        if (this.statistics != null && this.statistics.getProperty("collection.documents") != null)
+            return Integer.parseInt(this.statistics.getProperty("collection.documents"));
+        return this.getDocumentCount();
+    }
+
+    /**
+     * Returns the number of documents in the collection that contain a term of a {@link #load loaded} index, as
+     * stored in the vocabulary.
+     *
+     * @param termID the ID of the term.
+     * @return the document frequency of the term.
+     */
+    public int getDocumentFrequency(int termID)
+    {
+        return this.dictionary.get().getDocumentFrequency(termID);
+    }
+
+    /**
+     * Returns the inverted postings list of a term in a {@link #load loaded} index.
+     *
+     * @param termID the ID of the term.
+     * @return an iterator over the {@code (docID, weight)} postings of the term.
+     */
+    public PostingsIterator getPostings(int termID)
+    {
+        RecordFile invertedFile = this.invertedFile.get();
+        return new BlockPostingsIterator(invertedFile.getBuffer(), invertedFile.getOffset(termID),
+                this.getIDF(termID), this.getMaxWeight(termID));
+    }
+
+    /**
+     * Returns the direct postings list of a document in a {@link #load loaded} index.
+     * <p>
+     * The weight of each posting is the number of occurrences of the term in the document.
+     *
+     * @param docID the ID of the document.
+     * @return an iterator over the {@code (termID, count)} postings of the document, sorted by {@code termID}.
+     */
+    public PostingsIterator getDirectPostings(int docID)
+    {
+        RecordFile directFile = this.directFile.get();
+        return new BlockPostingsIterator(directFile.getBuffer(), directFile.getOffset(docID));
+    }
+
+    /**
+     * Returns the term frequencies of a term in a {@link #load loaded} index.
+     * <p>
+     * The weight of each posting is the number of occurrences of the term in the document, read from the same
+     * postings as {@link #getPostings}.
+     *
+     * @param termID the ID of the term.
+     * @return an iterator over the {@code (docID, count)} postings of the term.
+     */
+    public PostingsIterator getFrequencies(int termID)
+    {
+        RecordFile invertedFile = this.invertedFile.get();
+        return new BlockPostingsIterator(invertedFile.getBuffer(), invertedFile.getOffset(termID));
+    }
+
+    /**
+     * Computes the term frequency component of the weight of a term in a document.
+     *
+     * @param count the number of occurrences of the term in the document.
+     * @return the term frequency.
+     */
+    public static double computeTermFrequency(int count)
+    {
+        return count < TERM_FREQUENCIES.length ? TERM_FREQUENCIES[count] : 1.0 + Math.log(count);
+    }
+
+    /**
+     * Returns whether a {@link #load loaded} index has precomputed impacts, written with {@link #writeImpacts}.
+     *
+     * @return {@code true} if the index has impacts, or {@code false} otherwise.
+     */
+    public boolean hasImpacts()
+    {
+        return this.getFileSize("impacts") >= 0;
+    }
+
+    /**
+     * Returns the quantized impacts of a term in a {@link #load loaded} index with {@link #hasImpacts impacts}.
+     *
+     * @param termID the ID of the term.
+     * @return an iterator over the {@code (docID, impact)} postings of the term.
+     */
+    public ImpactIterator getImpacts(int termID)
+    {
+        RecordFile impactsFile = this.impactsFile.get();
+        return new ImpactIterator(impactsFile.getBuffer(), impactsFile.getOffset(termID + 1));
+    }
+
+    /**
+     * Returns the parameters the impacts of a {@link #load loaded} index were computed with.
+     *
+     * @return an array with {@code k1} and {@code b}.
+     */
+    public double[] getImpactParameters()
+    {
+        RecordFile impactsFile = this.impactsFile.get();
+        ByteBuffer buffer = impactsFile.getBuffer();
+        int offset = impactsFile.getOffset(0);
+        return new double[]{buffer.getDouble(offset), buffer.getDouble(offset + 8)};
     }
 
     /**
      * Loads the index from the path specified in the {@link Index#Index constructor}.
+     * <p>
+     * Only the statistics file is read here. Each of the other index files is memory-mapped the first time it is
+     * needed, so a process that only runs queries never maps the direct index, and one that does not show documents
+     * never maps the store; use {@link #preload} to map several of them in parallel upfront. Mapped files are read in
+     * place, so only the pages of the postings lists that queries actually touch are ever read from disk.
+     * <p>
+     * Once loaded, the index is accessed through {@link #getTerm}, {@link #getPostings} and the other accessors,
+     * instead of the in-memory structures used while indexing.
+     *
      * @throws Exception if an error occurs while loading the index.
      */
     public void load() throws Exception
+    {
+        this.dictionary = new LazyComponent<>(this::openDictionary);
+        this.documentsFile = new LazyComponent<>(() -> this.openFile("documents", DOCUMENTS_MAGIC));
+        this.invertedFile = new LazyComponent<>(() -> this.openFile("inverted", INVERTED_MAGIC));
+        this.directFile = new LazyComponent<>(() -> this.openFile("direct", DIRECT_MAGIC));
+        this.impactsFile = new LazyComponent<>(() -> this.openFile("impacts", IMPACTS_MAGIC));
+        this.store = new LazyComponent<>(this::openStore);
+
+        this.statistics = this.readStatistics();
+        if (this.statistics == null) {
+            // Without statistics, check the format of the index with the vocabulary, which every query needs anyway
+            try {
+                this.dictionary.get();
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+        }
+        this.averageDocumentLength = Double.NaN;
+        this.documentCache.clear();
+        this.generation = GENERATIONS.incrementAndGet();
+    }
+
+    /**
+     * Maps the given components of a {@link #load loaded} index in parallel, instead of one at a time as they are
+     * first needed. The components are named after their files: {@code vocabulary}, {@code documents},
+     * {@code inverted}, {@code direct}, {@code impacts} and {@code store}.
+     *
+     * @param components the names of the components to map.
+     * @throws IOException if an error occurs while mapping a component.
+     */
+    public void preload(String... components) throws IOException
+    {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[components.length];
+        for (int i = 0; i < components.length; i++)
+            futures[i] = CompletableFuture.runAsync(this.getComponent(components[i])::get);
+        try {
+            CompletableFuture.allOf(futures).join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException)
+                throw ((UncheckedIOException) ex.getCause()).getCause();
+            throw ex;
+        }
+    }
+
+    /**
+     * Unmaps the files of a {@link #load loaded} index right away, instead of when they are garbage collected, and
+     * empties the document cache. The index must not be used afterwards; an {@link IndexSnapshot} closes it once no
+     * query uses it anymore.
+     */
+    public void close()
+    {
+        for (LazyComponent<RecordFile> file : Arrays.asList(this.documentsFile, this.invertedFile, this.directFile,
+                this.impactsFile)) // not List.of, as components are null before loading
+            if (file != null && file.isLoaded())
+                file.get().close();
+        if (this.dictionary != null && this.dictionary.isLoaded())
+            this.dictionary.get().close();
+        if (this.store != null && this.store.isLoaded())
+            this.store.get().close();
+        this.documentCache.clear();
+    }
+
+    /**
+     * Returns one of the components of a {@link #load loaded} index by the name of its file.
+     *
+     * @param name the name of the component.
+     * @return the component.
+     */
+    protected LazyComponent<?> getComponent(String name)
+    {
+        switch (name) {
+            case "vocabulary": return this.dictionary;
+            case "documents": return this.documentsFile;
+            case "inverted": return this.invertedFile;
+            case "direct": return this.directFile;
+            case "impacts": return this.impactsFile;
+            case "store": return this.store;
+            default: throw new IllegalArgumentException("Unknown index component: " + name + ".");
+        }
+    }
+
+    /**
+     * Maps one of the index files and checks that it was written with the current format version.
+     *
+     * @param name  the name of the file.
+     * @param magic the magic number of the file.
+     * @return the mapped file.
+     * @throws IOException if an error occurs while mapping the file or its format is not supported.
+     */
+    protected RecordFile openFile(String name, int magic) throws IOException
+    {
+        RecordFile file = new RecordFile(Paths.get(this.path, name).toFile(), magic);
+        if (file.getVersion() != FORMAT_VERSION)
+            throw new IOException("File " + name + " has format version " + file.getVersion() + " but version "
+                    + FORMAT_VERSION + " is required; rebuild the index.");
+        return file;
+    }
+
+    /**
+     * Maps the term dictionary and checks that it was written with the current format version.
+     *
+     * @return the mapped dictionary.
+     * @throws IOException if an error occurs while mapping the dictionary or its format is not supported.
+     */
+    protected TermDictionary openDictionary() throws IOException
+    {
+        TermDictionary dictionary = new TermDictionary(Paths.get(this.path, "vocabulary").toFile());
+        if (dictionary.getVersion() != FORMAT_VERSION)
+            throw new IOException("File vocabulary has format version " + dictionary.getVersion() + " but version "
+                    + FORMAT_VERSION + " is required; rebuild the index.");
+        return dictionary;
+    }
+
+    /**
+     * Maps the document store and checks that it was written with the current format version.
+     *
+     * @return the mapped store.
+     * @throws IOException if an error occurs while mapping the store or its format is not supported.
+     */
+    protected DocumentStore openStore() throws IOException
+    {
+        DocumentStore store = new DocumentStore(Paths.get(this.path, "store").toFile());
+        if (store.getVersion() != FORMAT_VERSION)
+            throw new IOException("File store has format version " + store.getVersion() + " but version "
+                    + FORMAT_VERSION + " is required; rebuild the index.");
+        return store;
+    }
+
+    /**
+     * Reads the statistics file of the index, and checks that it was written with the current format version.
+     *
+     * @return the statistics, or {@code null} if the index has no statistics file.
+     * @throws IOException if an error occurs while reading the file or the format of the index is not supported.
+     */
+    protected Properties readStatistics() throws IOException
+    {
+        File file = Paths.get(this.path, "statistics").toFile();
+        if (!file.exists())
+            return null;
+        Properties statistics = new Properties();
+        try (Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            statistics.load(in);
+        }
+        int version = Integer.parseInt(statistics.getProperty("version", "0"));
+        if (version != FORMAT_VERSION)
+            throw new IOException("File statistics has format version " + version + " but version "
+                    + FORMAT_VERSION + " is required; rebuild the index.");
+        return statistics;
+    }
+
+    /**
+     * Sets the statistics of the whole collection, for an index being built that holds only part of it, such as a
+     * shard. They are saved in the statistics file, so that retrieval models score documents as in the whole
+     * collection.
+     *
+     * @param documentCount      the number of documents in the collection.
+     * @param length             the total length of the documents in the collection.
+     * @param documentFrequencies the document frequency of each term in the collection.
+     */
+    public void setCollectionStatistics(int documentCount, long length, Map<String, Integer> documentFrequencies)
+    {
+        this.collectionDocumentCount = documentCount;
+        this.collectionLength = length;
+        this.collectionDocumentFrequencies = documentFrequencies;
+    }
+
+    /**
+     * Writes the statistics file of the index, once all the other files are written. It records the number of terms,
+     * documents and postings, the total document length, and the size of each file, so that they are known without
+     * mapping the files.
+     *
+     * @param termCount     the number of terms.
+     * @param documentCount the number of documents.
+     * @param postingCount  the number of postings in the inverted index.
+     * @throws IOException if an error occurs while writing the file.
+     */
+    protected void writeStatistics(int termCount, int documentCount, long postingCount) throws IOException
+    {
+        long length = 0;
+        for (int documentLength : this.documentLengths)
+            length += documentLength;
+
+        Properties statistics = new Properties();
+        statistics.setProperty("version", Integer.toString(FORMAT_VERSION));
+        statistics.setProperty("terms", Integer.toString(termCount));
+        statistics.setProperty("documents", Integer.toString(documentCount));
+        statistics.setProperty("postings", Long.toString(postingCount));
+        statistics.setProperty("length", Long.toString(length));
+        if (this.collectionDocumentCount >= 0) {
+            statistics.setProperty("collection.documents", Integer.toString(this.collectionDocumentCount));
+            statistics.setProperty("collection.length", Long.toString(this.collectionLength));
+        }
+        for (String name : new String[]{"vocabulary", "documents", "inverted", "direct", "impacts", "store"}) {
+            File file = Paths.get(this.path, name).toFile();
+            if (file.exists())
+                statistics.setProperty(name + ".bytes", Long.toString(file.length()));
+        }
+        this.storeStatistics(statistics);
+    }
+
+    /**
+     * Stores the given statistics in the statistics file of the index.
+     *
+     * @param statistics the statistics.
+     * @throws IOException if an error occurs while writing the file.
+     */
+    protected void storeStatistics(Properties statistics) throws IOException
+    {
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(Paths.get(this.path, "statistics").toFile()), StandardCharsets.UTF_8)) {
+            statistics.store(out, "Index statistics");
+        }
+    }
+
+    /**
+     * Precomputes the {@link BM25} score of every posting of a {@link #load loaded} index, quantized to 8 bits, and
+     * writes them to the impacts file, so that {@link QuantizedBM25} can score documents with integer additions.
+     * <p>
+     * Impacts are quantized linearly between zero and the maximum score of the term, which is stored with them, so
+     * that the quantization error of a term is relative to its own scores rather than to those of the whole index. A
+     * matching posting always gets an impact of at least {@code 1}.
+     * <p>
+     * The first record holds {@code k1:double b:double}, and record {@code termID+1} holds the impacts of the term in
+     * the format read by {@link ImpactIterator}.
+     *
+     * @param k1 the BM25 term frequency saturation parameter.
+     * @param b  the BM25 length normalization parameter.
+     * @throws IOException if an error occurs while writing the impacts.
+     */
+    public void writeImpacts(double k1, double b) throws IOException
+    {
+        int numTerms = this.getTermCount();
+        int numDocs = this.getCollectionDocumentCount();
+        double averageLength = this.getAverageDocumentLength();
+
+        RecordFileWriter writer = new RecordFileWriter(Paths.get(this.path, "impacts").toFile(), IMPACTS_MAGIC, FORMAT_VERSION);
+        DataOutputStream out = writer.getOutput();
+        writer.nextRecord();
+        out.writeDouble(k1);
+        out.writeDouble(b);
+        int[] docIDs = new int[0];
+        double[] scores = new double[0];
+        for (int termID = 0; termID < numTerms; termID++) {
+            PostingsIterator postings = this.getFrequencies(termID);
+            double idf = BM25.computeIDF(numDocs, this.getDocumentFrequency(termID));
+            int size = postings.size();
+            if (docIDs.length < size) {
+                docIDs = new int[size];
+                scores = new double[size];
+            }
+            float maxScore = 0;
+            for (int i = 0; postings.next(); i++) {
+                docIDs[i] = postings.getID();
+                scores[i] = BM25.computeScore((int) postings.getWeight(), this.getDocumentLength(docIDs[i]),
+                        averageLength, idf, k1, b);
+                maxScore = Math.max(maxScore, (float) scores[i]);
+            }
+
+            writer.nextRecord();
+            PostingsCodec.writeVByte(size, out);
+            out.writeFloat(maxScore);
+            int lastID = 0;
+            for (int i = 0; i < size; i++) {
+                PostingsCodec.writeVByte(docIDs[i] - lastID, out);
+                out.writeByte(ImpactIterator.quantize(scores[i], maxScore));
+                lastID = docIDs[i];
+            }
+        }
+        writer.close();
+
+        this.impactsFile = new LazyComponent<>(() -> this.openFile("impacts", IMPACTS_MAGIC));
+        if (this.statistics != null) {
+            this.statistics.setProperty("impacts.bytes", Long.toString(Paths.get(this.path, "impacts").toFile().length()));
+            this.storeStatistics(this.statistics);
+        }
+        this.generation = GENERATIONS.incrementAndGet();
+    }
+
+    /**
+     * Loads the in-memory structures of an index saved in the legacy serialized format, and copies its cached
+     * documents to the document store in the path specified in the {@link Index#Index constructor}.
+     * <p>
+     * Calling {@link #save} afterwards converts the index to the current format.
+     *
+     * @param legacyPath the directory with the legacy index.
+     * @throws Exception if an error occurs while loading the index.
+     */
+    public void loadLegacy(String legacyPath) throws Exception
     {
         // Vocabulary
-        ObjectInputStream ois = new ObjectInputStream(new FileInputStream(Paths.get(this.path, "vocabulary").toFile()));
+        ObjectInputStream ois = new ObjectInputStream(new FileInputStream(Paths.get(legacyPath, "vocabulary").toFile()));
         int count = ois.readInt();
         this.vocabulary = new HashMap<>(count);
         for (int i = 0; i < count; i++) {
@@ -130,7 +881,7 @@ public class Index
         }
         ois.close();
         // Documents
-        ois = new ObjectInputStream(new FileInputStream(Paths.get(this.path, "documents").toFile()));
+        ois = new ObjectInputStream(new FileInputStream(Paths.get(legacyPath, "documents").toFile()));
         count = ois.readInt();
         this.documents = new ArrayList<>(count);
         for (int i = 0; i < count; i++) {
@@ -140,38 +891,69 @@ public class Index
         }
         ois.close();
         // Inverted
-        ois = new ObjectInputStream(new FileInputStream(Paths.get(this.path, "inverted").toFile()));
+        ois = new ObjectInputStream(new FileInputStream(Paths.get(legacyPath, "inverted").toFile()));
         count = ois.readInt();
         this.invertedIndex = new ArrayList<>(count);
         for (int i = 0; i < count; i++) {
             int count2 = ois.readInt();
-            ArrayList<Tuple<Integer, Double>> entry = new ArrayList<>(count2);
+            PostingsList entry = new PostingsList(count2);
             for (int i2 = 0; i2 < count2; i2++) {
                 int item1 = ois.readInt();
                 double item2 = ois.readDouble();
-                entry.add(i2, new Tuple<>(item1, item2));
+                entry.add(item1, item2);
             }
             this.invertedIndex.add(i, entry);
         }
         ois.close();
         // Direct
-        ois = new ObjectInputStream(new FileInputStream(Paths.get(this.path, "direct").toFile()));
+        ois = new ObjectInputStream(new FileInputStream(Paths.get(legacyPath, "direct").toFile()));
         count = ois.readInt();
         this.directIndex = new ArrayList<>(count);
         for (int i = 0; i < count; i++) {
             int count2 = ois.readInt();
-            ArrayList<Tuple<Integer, Double>> entry = new ArrayList<>(count2);
+            PostingsList entry = new PostingsList(count2);
             for (int i2 = 0; i2 < count2; i2++) {
                 int item1 = ois.readInt();
                 double item2 = ois.readDouble();
-                entry.add(i2, new Tuple<>(item1, item2));
+                entry.add(item1, item2);
             }
             this.directIndex.add(i, entry);
         }
         ois.close();
+
+        // Counts and lengths, recovered from the legacy weights (1+ln(count))*IDF, which are stored exactly
+        double[] idfs = new double[this.vocabulary.size()];
+        for (Tuple<Integer, Double> termInfo : this.vocabulary.values())
+            idfs[termInfo.item1] = termInfo.item2;
+        for (int termID = 0; termID < this.invertedIndex.size(); termID++) {
+            PostingsList postings = this.invertedIndex.get(termID);
+            for (int i = 0; i < postings.size(); i++)
+                postings.setWeight(i, Math.round(Math.exp(postings.getWeight(i) / idfs[termID] - 1.0)));
+        }
+        this.documentLengths = new ArrayList<>(this.directIndex.size());
+        for (PostingsList postings : this.directIndex) {
+            int length = 0;
+            for (int i = 0; i < postings.size(); i++) {
+                long occurrences = Math.round(Math.exp(postings.getWeight(i) / idfs[postings.getID(i)] - 1.0));
+                postings.setWeight(i, occurrences);
+                length += occurrences;
+            }
+            this.documentLengths.add(length);
+        }
+
+        // Cached documents
+        Index legacy = new Index(legacyPath);
+        for (int docID = 0; docID < this.documents.size(); docID++)
+            this.setCachedDocument(docID, legacy.getLegacyCachedDocument(docID));
+        this.generation = GENERATIONS.incrementAndGet();
     }
+
     /**
      * Saves the index to the path specified in the {@link Index#Index constructor}.
+     * <p>
+     * Terms are first renumbered so that {@code termID}s follow the sorted order of the vocabulary, which is what
+     * allows {@link #getTerm} to binary search the {@link TermDictionary}.
+     *
      * @throws IOException if an error occurs while saving the index.
      */
     public void save() throws IOException
@@ -180,82 +962,254 @@ public class Index
         if (!di.exists())
             di.mkdir();
 
-        // Vocabulary
-        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(Paths.get(this.path, "vocabulary").toFile()));
-        oos.writeInt(this.vocabulary.size());
+        this.sortTerms();
+
+        // Cached documents and documents
+        this.closeDocumentStore();
+        double[] norms = this.writeDocuments();
+        String[] terms = new String[this.vocabulary.size()];
+        double[] idfs = new double[this.vocabulary.size()];
         for (Map.Entry<String, Tuple<Integer, Double>> entry : this.vocabulary.entrySet()) {
-            oos.writeUTF(entry.getKey());
-            oos.writeInt(entry.getValue().item1);
-            oos.writeDouble(entry.getValue().item2);
+            terms[entry.getValue().item1] = entry.getKey();
+            idfs[entry.getValue().item1] = entry.getValue().item2;
         }
-        oos.close();
-        // Documents
-        oos = new ObjectOutputStream(new FileOutputStream(Paths.get(this.path, "documents").toFile()));
-        oos.writeInt(this.documents.size());
-        for (Tuple<String, Double> entry : this.documents) {
-            oos.writeUTF(entry.item1);
-            oos.writeDouble(entry.item2);
+        // Inverted, with block bounds computed from the IDFs and normalized by the document norms
+        RecordFileWriter writer = new RecordFileWriter(Paths.get(this.path, "inverted").toFile(), INVERTED_MAGIC, FORMAT_VERSION);
+        float[] maxWeights = new float[terms.length];
+        for (int termID = 0; termID < terms.length; termID++) {
+            writer.nextRecord();
+            maxWeights[termID] = PostingsCodec.write(this.invertedIndex.get(termID), idfs[termID], norms, writer.getOutput());
         }
-        oos.close();
-        // Inverted
-        oos = new ObjectOutputStream(new FileOutputStream(Paths.get(this.path, "inverted").toFile()));
-        oos.writeInt(this.invertedIndex.size());
-        for (ArrayList<Tuple<Integer, Double>> entry : this.invertedIndex) {
-            oos.writeInt(entry.size());
-            for (Tuple<Integer, Double> entry2 : entry) {
-                oos.writeInt(entry2.item1);
-                oos.writeDouble(entry2.item2);
-            }
-        }
-        oos.close();
+        writer.close();
         // Direct
-        oos = new ObjectOutputStream(new FileOutputStream(Paths.get(this.path, "direct").toFile()));
-        oos.writeInt(this.directIndex.size());
-        for (ArrayList<Tuple<Integer, Double>> entry : this.directIndex) {
-            oos.writeInt(entry.size());
-            for (Tuple<Integer, Double> entry2 : entry) {
-                oos.writeInt(entry2.item1);
-                oos.writeDouble(entry2.item2);
-            }
+        writer = new RecordFileWriter(Paths.get(this.path, "direct").toFile(), DIRECT_MAGIC, FORMAT_VERSION);
+        for (PostingsList postings : this.directIndex) {
+            writer.nextRecord();
+            PostingsCodec.write(postings, writer.getOutput());
         }
-        oos.close();
+        writer.close();
+        // Vocabulary
+        TermDictionaryWriter dictionaryWriter = new TermDictionaryWriter(Paths.get(this.path, "vocabulary").toFile(), FORMAT_VERSION);
+        for (int termID = 0; termID < terms.length; termID++) {
+            int df = this.collectionDocumentFrequencies != null ? this.collectionDocumentFrequencies.get(terms[termID])
+                    : this.invertedIndex.get(termID).size();
+            dictionaryWriter.add(terms[termID].getBytes(StandardCharsets.UTF_8), df, maxWeights[termID]);
+        }
+        dictionaryWriter.close();
+        // Statistics
+        long postingCount = 0;
+        for (PostingsList postings : this.invertedIndex)
+            postingCount += postings.size();
+        this.writeStatistics(terms.length, this.documents.size(), postingCount);
+        this.generation = GENERATIONS.incrementAndGet();
     }
+
+    /**
+     * Completes the document store with the documents set so far, which must be all the documents in the index.
+     *
+     * @throws IOException if an error occurs while writing the store or it does not have all the documents.
+     */
+    protected void closeDocumentStore() throws IOException
+    {
+        if (this.storeWriter == null)
+            this.storeWriter = new DocumentStoreWriter(Paths.get(this.path, "store").toFile(), FORMAT_VERSION);
+        if (this.storeWriter.getCount() != this.documents.size())
+            throw new IOException("The document store has " + this.storeWriter.getCount() + " documents but the index has "
+                    + this.documents.size() + ".");
+        this.storeWriter.close();
+        this.storeWriter = null;
+    }
+
+    /**
+     * Writes the documents file with the norm, length and name of each document.
+     *
+     * @return the norm of each document.
+     * @throws IOException if an error occurs while writing or the length of some document is missing.
+     */
+    protected double[] writeDocuments() throws IOException
+    {
+        if (this.documentLengths.size() != this.documents.size())
+            throw new IOException("The index has " + this.documentLengths.size() + " document lengths but "
+                    + this.documents.size() + " documents.");
+        RecordFileWriter writer = new RecordFileWriter(Paths.get(this.path, "documents").toFile(), DOCUMENTS_MAGIC, FORMAT_VERSION);
+        DataOutputStream out = writer.getOutput();
+        double[] norms = new double[this.documents.size()];
+        for (int docID = 0; docID < this.documents.size(); docID++) {
+            Tuple<String, Double> entry = this.documents.get(docID);
+            writer.nextRecord();
+            out.writeDouble(entry.item2);
+            out.writeInt(this.documentLengths.get(docID));
+            out.write(entry.item1.getBytes(StandardCharsets.UTF_8));
+            norms[docID] = entry.item2;
+        }
+        writer.close();
+        return norms;
+    }
+
+    /**
+     * Renumbers the terms in the in-memory structures so that {@code termID}s follow the order of the terms' UTF-8
+     * bytes, and sorts the direct postings by the new {@code termID}s.
+     */
+    protected void sortTerms()
+    {
+        ArrayList<Tuple<byte[], Tuple<Integer, Double>>> terms = new ArrayList<>(this.vocabulary.size());
+        for (Map.Entry<String, Tuple<Integer, Double>> entry : this.vocabulary.entrySet())
+            terms.add(new Tuple<>(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue()));
+        terms.sort((t1, t2) -> Index.compareBytes(t1.item1, t2.item1));
+
+        int[] newIDs = new int[terms.size()]; // [old termID] -> new termID
+        ArrayList<PostingsList> sortedInverted = new ArrayList<>(terms.size());
+        for (int termID = 0; termID < terms.size(); termID++) {
+            Tuple<Integer, Double> termInfo = terms.get(termID).item2;
+            newIDs[termInfo.item1] = termID;
+            sortedInverted.add(this.invertedIndex.get(termInfo.item1));
+            termInfo.item1 = termID;
+        }
+        this.invertedIndex = sortedInverted;
+
+        for (PostingsList postings : this.directIndex) {
+            for (int i = 0; i < postings.size(); i++)
+                postings.setID(i, newIDs[postings.getID(i)]);
+            postings.sortByID();
+        }
+    }
+
+    /**
+     * Compares two byte sequences lexicographically, treating bytes as unsigned.
+     *
+     * @param b1 the first sequence.
+     * @param b2 the second sequence.
+     * @return a negative number, zero or a positive number if {@code b1} is less than, equal to or greater than
+     * {@code b2}.
+     */
+    protected static int compareBytes(byte[] b1, byte[] b2)
+    {
+        int n = Math.min(b1.length, b2.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (b1[i] & 0xFF) - (b2[i] & 0xFF);
+            if (cmp != 0)
+                return cmp;
+        }
+        return b1.length - b2.length;
+    }
+
+    /**
+     * Compares the first bytes of an array with another sequence lexicographically, treating bytes as unsigned.
+     *
+     * @param b      the array with the first sequence.
+     * @param length the length of the first sequence.
+     * @param key    the second sequence.
+     * @return a negative number, zero or a positive number if the first sequence is less than, equal to or greater
+     * than {@code key}.
+     */
+    protected static int compareBytes(byte[] b, int length, byte[] key)
+    {
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (b[i] & 0xFF) - (key[i] & 0xFF);
+            if (cmp != 0)
+                return cmp;
+        }
+        return length - key.length;
+    }
+
+    /**
+     * Compares a byte sequence in a buffer with another one lexicographically, treating bytes as unsigned.
+     *
+     * @param buffer the buffer with the first sequence.
+     * @param offset the position of the first sequence in the buffer.
+     * @param length the length of the first sequence.
+     * @param key    the second sequence.
+     * @return a negative number, zero or a positive number if the first sequence is less than, equal to or greater
+     * than {@code key}.
+     */
+    protected static int compareBytes(ByteBuffer buffer, int offset, int length, byte[] key)
+    {
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (buffer.get(offset + i) & 0xFF) - (key[i] & 0xFF);
+            if (cmp != 0)
+                return cmp;
+        }
+        return length - key.length;
+    }
+
     /**
      * Prints statistics about the index to {@link System#err}.
      * The statistics include the number of terms in the vocabulary and its size, the number of documents and the size
      * of the cache, and the size of the direct and inverted indexes.
+     * <p>
+     * They are taken from the statistics file when the index has one, so no other file is read.
      */
     public void printStatistics()
     {
         DecimalFormat df = new DecimalFormat("#.##");
 
-        System.err.print("  - Vocabulary: " + this.vocabulary.size() + " terms");
-        File file = Paths.get(this.path, "vocabulary").toFile();
-        if (file.exists())
-            System.err.print(" (" + df.format(file.length() / 1024d / 1024d) + " MB)");
+        System.err.print("  - Vocabulary: " + this.getTermCount() + " terms");
+        long size = this.getFileSize("vocabulary");
+        if (size >= 0)
+            System.err.print(" (" + df.format(size / 1024d / 1024d) + " MB)");
         System.err.println(".");
 
-        System.err.print("  - Documents: " + this.documents.size() + " documents");
-        file = Paths.get(this.path, "documents").toFile();
-        if (file.exists())
-            System.err.print(" (" + df.format(file.length() / 1024d) + " KB)");
+        System.err.print("  - Documents: " + this.getDocumentCount() + " documents");
+        size = this.getFileSize("documents");
+        if (size >= 0)
+            System.err.print(" (" + df.format(size / 1024d) + " KB)");
         System.err.println(".");
 
-        file = Paths.get(this.path, "inverted").toFile();
-        if (file.exists())
-            System.err.println("  - Inverted: " + df.format(file.length() / 1024d / 1024d) + " MB.");
+        size = this.getFileSize("inverted");
+        if (size >= 0) {
+            System.err.print("  - Inverted: " + df.format(size / 1024d / 1024d) + " MB");
+            if (this.statistics != null)
+                System.err.print(", " + this.statistics.getProperty("postings") + " postings");
+            System.err.println(".");
+        }
 
-        file = Paths.get(this.path, "direct").toFile();
-        if (file.exists())
-            System.err.println("  - Direct: " + df.format(file.length() / 1024d / 1024d) + " MB.");
+        size = this.getFileSize("direct");
+        if (size >= 0)
+            System.err.println("  - Direct: " + df.format(size / 1024d / 1024d) + " MB.");
 
-        long cacheSize = 0;
-        for(int block = 0; block < this.DOCS_PER_CACHE_BLOCK; block++){
-            File blockPath = Paths.get(this.path, "cache"+block).toFile();
-            if(blockPath.exists())
-                for(File docFile : blockPath.listFiles())
-                    cacheSize += docFile.length();
-        }
-        System.err.println("  - Cache: " + df.format(cacheSize / 1024d / 1024d) + " MB.");
+        size = this.getFileSize("impacts");
+        if (size >= 0)
+            System.err.println("  - Impacts: " + df.format(size / 1024d / 1024d) + " MB.");
+
+        size = this.getFileSize("store");
+        if (size >= 0)
+            System.err.println("  - Cache: " + df.format(size / 1024d / 1024d) + " MB.");
+    }
+
+    /**
+     * Registers gauges with the size of the index in the given metrics: the number of terms and documents, the size
+     * of each component file, which is what the index maps in memory, and the size of the document cache. Registering
+     * another index, such as one reloaded, replaces them.
+     *
+     * @param metrics the metrics to register the gauges in.
+     */
+    public void registerMetrics(Metrics metrics)
+    {
+        metrics.gauge("ti_index_terms", "Terms in the vocabulary of the index.", this::getTermCount);
+        metrics.gauge("ti_index_documents", "Documents in the index.", this::getDocumentCount);
+        metrics.remove("ti_index_component_bytes");
+        for (String component : new String[]{"vocabulary", "documents", "inverted", "direct", "impacts", "store"})
+            if (this.getFileSize(component) >= 0)
+                metrics.gauge("ti_index_component_bytes", "Size of each component of the index, as mapped in memory.",
+                        () -> this.getFileSize(component), "component", component);
+        metrics.gauge("ti_document_cache_bytes", "Estimated size of the documents in the cache.",
+                () -> this.getDocumentCache().getWeight());
+        metrics.gauge("ti_document_cache_entries", "Documents in the cache.", () -> this.getDocumentCache().size());
+    }
+
+    /**
+     * Returns the size of one of the index files, from the statistics file if the index has one.
+     *
+     * @param name the name of the file.
+     * @return the size of the file in bytes, or -1 if it does not exist.
+     */
+    protected long getFileSize(String name)
+    {
+        if (this.statistics != null)
+            return Long.parseLong(this.statistics.getProperty(name + ".bytes", "-1"));
+        File file = Paths.get(this.path, name).toFile();
+        return file.exists() ? file.length() : -1;
     }
-}
\ No newline at end of file
+}
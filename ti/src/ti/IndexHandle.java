@@ -0,0 +1,100 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class gives readers access to the current {@link IndexSnapshot} of an index, which can be replaced by a newly
+ * built index without stopping them.
+ * <p>
+ * Each query {@link #acquire acquires} the current snapshot and releases it when done. A {@link #reload} loads the new
+ * index and then swaps it in atomically: queries that start afterwards use the new snapshot, while those in flight
+ * finish on the old one, whose files are unmapped once the last of them releases it.
+ * <p>
+ * An index can be rebuilt in the same directory, since index files are replaced only once they are complete, or in a
+ * new one. The reload must wait until the new index is completely saved.
+ */
+public class IndexHandle implements AutoCloseable
+{
+    protected final AtomicReference<IndexSnapshot> current;
+    protected final String[] components;
+
+    /**
+     * Creates a new handle serving a loaded index.
+     *
+     * @param index      the loaded index.
+     * @param components the components to {@link Index#preload preload} when reloading, so that the first queries on
+     *                   the new index do not have to wait for them.
+     */
+    public IndexHandle(Index index, String... components)
+    {
+        this.current = new AtomicReference<>(new IndexSnapshot(index));
+        this.components = components;
+    }
+
+    /**
+     * Acquires the current snapshot. It must be {@link IndexSnapshot#release released} when no longer used.
+     *
+     * @return the current snapshot.
+     * @throws IllegalStateException if the handle is closed.
+     */
+    public IndexSnapshot acquire()
+    {
+        while (true) {
+            IndexSnapshot snapshot = this.current.get();
+            if (snapshot == null)
+                throw new IllegalStateException("The index handle is closed.");
+            if (snapshot.retain())
+                return snapshot;
+            // Swapped and closed in the meantime, so the next one is already current
+        }
+    }
+
+    /**
+     * Loads the index in the given directory and swaps it in as the current snapshot. Loading takes place before the
+     * swap, so queries keep running on the previous snapshot meanwhile, and if it fails the previous snapshot remains
+     * current.
+     *
+     * @param pathToIndex the directory of the new index.
+     * @return the new index.
+     * @throws Exception if an error occurs while loading the new index.
+     */
+    public synchronized Index reload(File pathToIndex) throws Exception
+    {
+        Index index = SearchEngine.openIndex(pathToIndex);
+        index.load();
+        index.preload(this.components);
+        this.swap(index);
+        return index;
+    }
+
+    /**
+     * Swaps a loaded index in as the current snapshot, and releases the handle's reference to the previous one.
+     *
+     * @param index the loaded index, which must not be modified anymore.
+     * @throws IllegalStateException if the handle is closed.
+     */
+    public void swap(Index index)
+    {
+        IndexSnapshot previous = this.current.getAndUpdate(snapshot -> snapshot == null ? null : new IndexSnapshot(index));
+        if (previous == null) {
+            index.close();
+            throw new IllegalStateException("The index handle is closed.");
+        }
+        previous.release();
+    }
+
+    /**
+     * Closes the handle. The current snapshot is released, so its index is closed once no query uses it anymore.
+     */
+    @Override
+    public void close()
+    {
+        IndexSnapshot previous = this.current.getAndSet(null);
+        if (previous != null)
+            previous.release();
+    }
+}
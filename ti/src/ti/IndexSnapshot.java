@@ -0,0 +1,104 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class represents a loaded index that is no longer modified, as served by an {@link IndexHandle}.
+ * <p>
+ * A snapshot counts its references: one held by the handle while it is the current snapshot, plus one for each reader
+ * that {@link IndexHandle#acquire acquired} it and did not {@link #release} it yet. When the count drops to zero, the
+ * index is {@link Index#close closed}, so its mapped files are released as soon as the last query on it finishes,
+ * rather than when the garbage collector gets to them.
+ * <p>
+ * Unmapped files can not be read anymore, so no work on the index may outlive the reference it runs under, including
+ * work handed to other threads, such as the shards searched by a {@link ShardedRetrievalModel}, which waits for them
+ * even if the query fails. Mapped files {@link RecordFile#close refuse} new reads once closed, but readers already
+ * positioned on their buffers are not checked.
+ * <p>
+ * Snapshots are meant to be used with {@code try}-with-resources:
+ * <pre>{@code
+ * try (IndexSnapshot snapshot = handle.acquire()) {
+ *     Index index = snapshot.getIndex();
+ *     ...
+ * }
+ * }</pre>
+ */
+public class IndexSnapshot implements AutoCloseable
+{
+    protected final Index index;
+    protected final AtomicInteger references;
+
+    /**
+     * Creates a new snapshot of a loaded index, with a single reference held by its creator.
+     *
+     * @param index the loaded index, which must not be modified anymore.
+     */
+    public IndexSnapshot(Index index)
+    {
+        this.index = index;
+        this.references = new AtomicInteger(1);
+    }
+
+    /**
+     * Returns the index of the snapshot. It may only be used until the snapshot is {@link #release released}.
+     *
+     * @return the index.
+     * @throws IllegalStateException if the snapshot is closed.
+     */
+    public Index getIndex()
+    {
+        if (this.references.get() == 0)
+            throw new IllegalStateException("The snapshot is closed.");
+        return this.index;
+    }
+
+    /**
+     * Adds a reference to the snapshot, unless it has already been closed.
+     *
+     * @return {@code true} if the reference was added, or {@code false} if the snapshot is closed.
+     */
+    protected boolean retain()
+    {
+        int count;
+        do {
+            count = this.references.get();
+            if (count == 0)
+                return false;
+        } while (!this.references.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /**
+     * Releases a reference to the snapshot, and closes its index if it was the last one.
+     */
+    public void release()
+    {
+        int count = this.references.decrementAndGet();
+        if (count == 0)
+            this.index.close();
+        else if (count < 0)
+            throw new IllegalStateException("The snapshot was released more times than it was acquired.");
+    }
+
+    /**
+     * Releases a reference to the snapshot, as in {@link #release}.
+     */
+    @Override
+    public void close()
+    {
+        this.release();
+    }
+
+    /**
+     * Returns the number of references to the snapshot.
+     *
+     * @return the number of references, or {@code 0} if the snapshot is closed.
+     */
+    public int getReferenceCount()
+    {
+        return this.references.get();
+    }
+}
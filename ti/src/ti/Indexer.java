@@ -7,31 +7,62 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.text.DecimalFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * This class contains the logic to run the indexing process of the search engine.
  */
 public class Indexer
 {
+    protected static final int MAX_PENDING_DOCUMENTS = 256;
+    protected static final String PHASE_HELP = "Time spent in each phase of indexing, summed over threads.";
+    protected static final Metrics.Timer READ_TIME = Metrics.GLOBAL.timer("ti_indexing", PHASE_HELP, "phase", "read");
+    protected static final Metrics.Timer PARSE_TIME = Metrics.GLOBAL.timer("ti_indexing", PHASE_HELP, "phase", "parse");
+    protected static final Metrics.Timer ANALYZE_TIME = Metrics.GLOBAL.timer("ti_indexing", PHASE_HELP, "phase", "analyze");
+    protected static final Metrics.Timer STORE_TIME = Metrics.GLOBAL.timer("ti_indexing", PHASE_HELP, "phase", "store");
+    protected static final Metrics.Timer POSTINGS_TIME = Metrics.GLOBAL.timer("ti_indexing", PHASE_HELP, "phase", "postings");
+    protected static final Metrics.Timer WEIGHTS_TIME = Metrics.GLOBAL.timer("ti_indexing", PHASE_HELP, "phase", "weights");
+    protected static final Metrics.Timer SAVE_TIME = Metrics.GLOBAL.timer("ti_indexing", PHASE_HELP, "phase", "save");
+
     protected File pathToIndex;
     protected File pathToCollection;
     protected DocumentProcessor docProcessor;
+    protected ExecutorService workers;
 
 	/**
      * Creates a new indexer with the given paths and document processor.
+     * Documents are analyzed one after the other in the calling thread.
      * @param pathToIndex path to the index directory.
      * @param pathToCollection path to the original documents directory.
      * @param docProcessor document processor to extract terms.
      */
     public Indexer(File pathToIndex, File pathToCollection, DocumentProcessor docProcessor)
+    {
+        this(pathToIndex, pathToCollection, docProcessor, null);
+    }
+
+	/**
+     * Creates a new indexer with the given paths and document processor, analyzing documents concurrently with the
+     * given workers. The document processor must be thread-safe.
+     * @param pathToIndex path to the index directory.
+     * @param pathToCollection path to the original documents directory.
+     * @param docProcessor document processor to extract terms.
+     * @param workers the workers to analyze documents, or {@code null} to analyze them in the calling thread.
+     */
+    public Indexer(File pathToIndex, File pathToCollection, DocumentProcessor docProcessor, ExecutorService workers)
     {
         this.pathToIndex = pathToIndex;
         this.pathToCollection = pathToCollection;
         this.docProcessor = docProcessor;
+        this.workers = workers;
     }
 
 	/**
@@ -46,7 +77,9 @@ public class Indexer
 
         // Save index
         System.err.print("Saving index...");
+        long saveTime = System.nanoTime();
         ind.save();
+        Indexer.SAVE_TIME.stop(saveTime);
         System.err.println("done.");
         System.err.println("Index statistics:");
         //System.err.println(docProcessor);
@@ -54,7 +87,12 @@ public class Indexer
     }
     /**
      * Runs the first pass of the indexer.
-     * It builds the inverted index by iterating all original document files and calling {@link #processDocument}.
+     * It builds the inverted index by iterating all original document files, analyzing each with
+     * {@link #analyzeDocument} and adding it to the index with {@link #addDocument}.
+     * <p>
+     * If the indexer has workers, documents are analyzed concurrently by them, while this thread merges the results
+     * in the same order the files are listed, so that {@code docID}s are deterministic. At most
+     * {@link #MAX_PENDING_DOCUMENTS} documents are pending at any time.
      * @param ind the index.
      * @throws IOException if an error occurs while processing a document.
      */
@@ -66,25 +104,23 @@ public class Indexer
         long totalBytesDocuments = 0;
 
         System.err.println("Running first pass...");
-        for (File subDir : this.pathToCollection.listFiles()) {
-            if (!subDir.getName().startsWith(".")) {
-                for (File docFile : subDir.listFiles()) {
-                    if (docFile.getPath().endsWith(".html")) {
-                        try {
-                            System.err.print("  Indexing file " + docFile.getName() + "...");
-                            this.processDocument(docFile, ind);
-                            System.err.print("done.");
-                        } catch (IOException ex) {
-                            System.err.println("exception!");
-                            System.err.print(ex.getMessage());
-                        } finally {
-                            System.err.println();
-                        }
-                        totalDocuments++;
-                        totalBytesDocuments += docFile.length();
-                    }
+        ArrayDeque<Tuple<File, Future<AnalyzedDocument>>> pending = new ArrayDeque<>();
+        for (File docFile : this.listDocuments()) {
+            if (this.workers == null) {
+                this.mergeDocument(docFile, () -> this.analyzeDocument(docFile), ind);
+            } else {
+                if (pending.size() == Indexer.MAX_PENDING_DOCUMENTS) {
+                    Tuple<File, Future<AnalyzedDocument>> next = pending.poll();
+                    this.mergeDocument(next.item1, next.item2::get, ind);
                 }
+                pending.add(new Tuple<>(docFile, this.workers.submit(() -> this.analyzeDocument(docFile))));
             }
+            totalDocuments++;
+            totalBytesDocuments += docFile.length();
+        }
+        while (!pending.isEmpty()) {
+            Tuple<File, Future<AnalyzedDocument>> next = pending.poll();
+            this.mergeDocument(next.item1, next.item2::get, ind);
         }
 
         long endTime = System.currentTimeMillis();
@@ -95,6 +131,56 @@ public class Indexer
         System.err.println("  - Time: " + df.format(totalTime) + " seconds.");
         System.err.println("  - Throughput: " + df.format(totalMegabytes / totalTime) + " MB/s.");
     }
+    /**
+     * Lists the original document files in the collection, sorted by path.
+     * @return the list of document files.
+     */
+    protected ArrayList<File> listDocuments()
+    {
+        ArrayList<File> docFiles = new ArrayList<>();
+        File[] subDirs = this.pathToCollection.listFiles();
+        Arrays.sort(subDirs);
+        for (File subDir : subDirs) {
+            if (!subDir.getName().startsWith(".") && subDir.isDirectory()) {
+                File[] files = subDir.listFiles();
+                Arrays.sort(files);
+                for (File docFile : files)
+                    if (docFile.getPath().endsWith(".html"))
+                        docFiles.add(docFile);
+            }
+        }
+        return docFiles;
+    }
+    /**
+     * Waits for the analysis of a document and adds it to the index, reporting progress to {@link System#err}.
+     * @param docFile the path to the original document file.
+     * @param analysis the analysis of the document, run inline or pending in a worker.
+     * @param ind the index to add the document to.
+     * @throws IOException if an error occurs while adding the document to the index.
+     */
+    protected void mergeDocument(File docFile, Callable<AnalyzedDocument> analysis, Index ind) throws IOException
+    {
+        System.err.print("  Indexing file " + docFile.getName() + "...");
+        try {
+            AnalyzedDocument doc;
+            try {
+                doc = analysis.call();
+            } catch (ExecutionException ex) {
+                throw ex.getCause();
+            }
+            this.addDocument(doc, ind);
+            System.err.print("done.");
+        } catch (IOException ex) {
+            System.err.println("exception!");
+            System.err.print(ex.getMessage());
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IOException("Error analyzing document " + docFile + ".", ex);
+        } finally {
+            System.err.println();
+        }
+    }
     /**
      * Runs the second pass of the indexer.
      * Here it traverses the inverted index to compute and store IDF, update weights in the postings,
@@ -105,28 +191,33 @@ public class Indexer
     {
         DecimalFormat df = new DecimalFormat("#.##");
         long startTime = System.currentTimeMillis();
+        long weightsTime = System.nanoTime();
 
         System.err.println("Running second pass...");
-        System.err.print("  Updating term weights and direct index...");
-        // Traverse all terms to compute IDF, direct postings, and norm summations
-        for (Map.Entry<String, Tuple<Integer, Double>> term : ind.vocabulary.entrySet()) {
+        System.err.print("  Computing IDF, document norms and direct index...");
+        // Traverse all terms to compute IDF, direct postings, and norm summations. Terms are sorted first, so that norms
+        // are summed in the same order whatever other terms the index has, as in a shard
+        ind.sortTerms();
+        ArrayList<Map.Entry<String, Tuple<Integer, Double>>> terms = new ArrayList<>(ind.vocabulary.entrySet());
+        terms.sort(Comparator.comparingInt(term -> term.getValue().item1));
+        for (Map.Entry<String, Tuple<Integer, Double>> term : terms) {
             int termID = term.getValue().item1;
 
             // Lookup inverse postings list and compute IDF
-            ArrayList<Tuple<Integer, Double>> postingsList = ind.invertedIndex.get(termID);
-            double idf = Math.log(1.0 + (double) ind.documents.size() / postingsList.size());
+            PostingsList postingsList = ind.invertedIndex.get(termID);
+            postingsList.trim();
+            double idf = this.computeIDF(term.getKey(), postingsList.size(), ind);
             term.getValue().item2 = idf;
 
             // Traverse postings
-            for (Tuple<Integer, Double> posting : postingsList) {
-                int docID = posting.item1;
-                double tf = posting.item2;
-                // update weight
-                posting.item2 = tf * idf;
+            for (int i = 0; i < postingsList.size(); i++) {
+                int docID = postingsList.getID(i);
+                int count = (int) postingsList.getWeight(i);
+                double tf = Index.computeTermFrequency(count);
                 // add to doc norm
                 ind.documents.get(docID).item2 += Math.pow(tf * idf, 2.0);
                 // and add direct posting
-                ind.directIndex.get(docID).add(new Tuple<>(termID, tf * idf));
+                ind.directIndex.get(docID).add(termID, count);
             }
         }
         System.err.println("done.");
@@ -137,6 +228,7 @@ public class Indexer
             Tuple<String, Double> docInfo = ind.documents.get(docID);
             docInfo.item2 = Math.sqrt(docInfo.item2);
         }
+        Indexer.WEIGHTS_TIME.stop(weightsTime);
 
         long endTime = System.currentTimeMillis();
         double totalTime = (endTime - startTime) / 1000d;
@@ -144,50 +236,102 @@ public class Indexer
         System.err.println("...done");
         System.err.println("  - Time: " + df.format(totalTime) + " seconds.");
     }
-	/**
-     * Process the original document in the specified path and add it to the given index.
+    /**
+     * Reads and analyzes the original document in the specified path: it extracts the title and body, and counts
+     * the frequency of each term.
      * <p>
-     * After extracting the document terms, it populates the vocabulary and document structures,
-     * and adds the corresponding postings to the inverted index.
+     * It does not modify any shared state, so it may run concurrently in a worker thread. The time spent reading,
+     * parsing and analyzing the document is added to the indexing metrics; terms are tokenized and stemmed in a single
+     * pass, so both are timed together as the analysis.
      * @param docFile the path to the original document file.
-     * @param ind the index to add the document to.
-     * @throws IOException if an error occurs while processing this document.
+     * @return the analyzed document.
+     * @throws IOException if an error occurs while reading this document.
      */
-    protected void processDocument(File docFile, Index ind) throws IOException
+    protected AnalyzedDocument analyzeDocument(File docFile) throws IOException
     {
+        long time = System.nanoTime();
         String html = new String(Files.readAllBytes(docFile.toPath()));
-       
+        time = Indexer.READ_TIME.stop(time);
+
         Tuple<String, String> parsed = this.docProcessor.parse(html);
-        
-        System.out.println(parsed.item1);
-        
-        ArrayList<String> titleTerms = this.docProcessor.processText(parsed.item1);
-        
-
-        ArrayList<String> allTerms = this.docProcessor.processText(parsed.item2);
-        
+        AnalyzedDocument doc = new AnalyzedDocument();
+        doc.name = docFile.getName().replace(".html", "");
+        doc.title = parsed.item1.replaceAll("\\s+", " ");
+        doc.body = parsed.item2.replaceAll("\\s+", " ");
+        time = Indexer.PARSE_TIME.stop(time);
+
+        doc.termCounts = this.docProcessor.countTerms(parsed.item2);
+        Indexer.ANALYZE_TIME.stop(time);
+        return doc;
+    }
+    /**
+     * Adds an analyzed document to the given index.
+     * <p>
+     * It populates the vocabulary and document structures, and adds the corresponding postings to the inverted index.
+     * @param doc the analyzed document.
+     * @param ind the index to add the document to.
+     * @throws IOException if an error occurs while caching this document.
+     */
+    protected void addDocument(AnalyzedDocument doc, Index ind) throws IOException
+    {
         // Add document entries
-        String docName = docFile.getName().replace(".html", "");
+        long time = System.nanoTime();
         int docID = ind.documents.size();
-        ind.documents.add(new Tuple<>(docName, 0d));
-        ind.setCachedDocument(docID, new Tuple<>(parsed.item1.replaceAll("\\s+", " "), parsed.item2.replaceAll("\\s+", " ")));
+        ind.documents.add(new Tuple<>(doc.name, 0d));
+        ind.documentLengths.add(doc.termCounts.getTotal());
+        ind.setCachedDocument(docID, new Tuple<>(doc.title, doc.body));
+        time = Indexer.STORE_TIME.stop(time);
 
-        HashSet<String> uniqTerms = new HashSet<>(allTerms);
-        ind.directIndex.add(new ArrayList<Tuple<Integer, Double>>(uniqTerms.size()));
-        for (String term : uniqTerms) {
+        ind.directIndex.add(new PostingsList(doc.termCounts.size()));
+        for (int i = 0; i < doc.termCounts.size(); i++) {
             // Lookup term info
+            String term = doc.termCounts.getTerm(i);
             Tuple<Integer, Double> termInfo = ind.vocabulary.get(term);
             if (termInfo == null) {
                 // New term: add entry to vocabulary and inverted index
                 termInfo = new Tuple<>(ind.vocabulary.size(), 0d);
                 ind.vocabulary.put(term, termInfo);
-                ind.invertedIndex.add(new ArrayList<Tuple<Integer, Double>>());
+                ind.invertedIndex.add(new PostingsList());
             }
             int termID = termInfo.item1;
 
-            // Compute weight and add posting
-            double tf = 1.0 + Math.log(Collections.frequency(allTerms, term));
-            ind.invertedIndex.get(termID).add(new Tuple<>(docID, tf));
+            // Add posting with the number of occurrences, from which the weight is computed
+            ind.invertedIndex.get(termID).add(docID, doc.termCounts.getCount(i));
         }
+        Indexer.POSTINGS_TIME.stop(time);
+    }
+    /**
+     * Computes the IDF of a term.
+     * @param term the term.
+     * @param df the number of documents in the index that contain the term.
+     * @param ind the index.
+     * @return the IDF of the term.
+     */
+    protected double computeIDF(String term, int df, Index ind)
+    {
+        return Index.computeIDF(ind.documents.size(), df);
+    }
+
+    /**
+     * The result of analyzing a document, before it is added to the index.
+     */
+    protected static class AnalyzedDocument
+    {
+        /**
+         * The name of the document.
+         */
+        public String name;
+        /**
+         * The title of the document, with whitespace collapsed.
+         */
+        public String title;
+        /**
+         * The body of the document, with whitespace collapsed.
+         */
+        public String body;
+        /**
+         * The frequency of each term in the document.
+         */
+        public TermCounts termCounts;
     }
 }
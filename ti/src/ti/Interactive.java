@@ -4,6 +4,8 @@
 package ti;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Scanner;
 
 /**
@@ -11,6 +13,11 @@ import java.util.Scanner;
  */
 public class Interactive
 {
+	protected static final int RESULTS_PER_PAGE = 10;
+	protected static final int SNIPPET_LENGTH = 300;
+	protected static final int MAX_SNIPPET_TERMS = 32;
+	protected static final int MAX_SNIPPET_MATCHES = 1000;
+
 	protected RetrievalModel model;
 	protected Index index;
 	protected DocumentProcessor docProcessor;
@@ -47,8 +54,10 @@ public class Interactive
 			input = scan.nextLine();
 
 			if (!input.isEmpty()) {
-				ArrayList<Tuple<Integer, Double>> results = this.model.runQuery(input, this.index, this.docProcessor);
-				this.printResults(input, results, 0, 10);
+				long startTime = System.nanoTime();
+				ArrayList<Tuple<Integer, Double>> results = this.model.runQuery(input, this.index, this.docProcessor, Interactive.RESULTS_PER_PAGE);
+				Metrics.QUERY_LATENCY.record(System.nanoTime() - startTime);
+				this.printResults(input, results, 0, Interactive.RESULTS_PER_PAGE);
 			}
 		} while (!input.isEmpty());
 	}
@@ -66,48 +75,111 @@ public class Interactive
 	{
 		for (int i = from; i < results.size() && i < from + count; i++) {
 			int docId = results.get(i).item1;
-			String docName = this.index.documents.get(docId).item1;
-			String title = this.index.getCachedDocument(docId).item1;
-			String body = this.index.getCachedDocument(docId).item2;
+			String docName = this.index.getDocumentName(docId);
+			Tuple<String, String> doc = this.index.getCachedDocument(docId);
+			String title = doc.item1;
+			String body = doc.item2;
 
 			if (title.length() > 60)
 				title = title.substring(0, 60) + "...";
 
-			// Highlight query terms
-			ArrayList<Integer> queryTermsAt = new ArrayList<>();
-			String bodyLow = body.toLowerCase();
-			String[] queryTerms = query.split("[^a-zA-Z0-9']+");
-			for (String queryTerm : queryTerms) {
-				String queryTermLow = queryTerm.toLowerCase();
-				int s = bodyLow.indexOf(queryTermLow, 0);
-				while (s >= 0) {
-					queryTermsAt.add(s);
-					bodyLow = bodyLow.substring(0, s) + "*" + queryTermLow + "*" + bodyLow.substring(s + queryTermLow.length(), bodyLow.length());
-					body = body.substring(0, s) + "*" + body.substring(s, s + queryTerm.length()) + "*" + body.substring(s + queryTerm.length(), body.length());
-
-					s = bodyLow.indexOf(queryTermLow, s + queryTermLow.length());
-				}
-			}
-
-			// Snippet with most query terms
-			int bestFrom = 0, bestCount = 0;
-			for (int j = 0; j < queryTermsAt.size(); j++) {
-				int qFrom = queryTermsAt.get(j);
-				int qTo = qFrom + 300;
-				int qCount = (int) queryTermsAt.stream().filter(q -> q >= qFrom && q < qTo).count();
-
-				if (qCount > bestCount) {
-					bestFrom = qFrom;
-					bestCount = qCount;
-				}
-			}
-
-			body = body.substring(bestFrom, Math.min(body.length(), bestFrom + 300)).trim();
-			body = "..." + body + "...";
+			body = Interactive.makeSnippet(query, body);
 
 			System.out.println();
 			System.out.println((i + 1) + " (" + docName + "): " + title);
 			System.out.println(body);
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Makes the snippet of a document for a query, as in {@link #makeSnippet(Iterable, String)}, with the terms
+	 * typed in the query.
+	 *
+	 * @param query the input query.
+	 * @param body  the body of the document.
+	 * @return the snippet.
+	 */
+	public static String makeSnippet(String query, String body)
+	{
+		return Interactive.makeSnippet(Arrays.asList(query.split("[^a-zA-Z0-9']+")), body);
+	}
+
+	/**
+	 * Makes the snippet of a document for some query terms: the {@value #SNIPPET_LENGTH} characters of its body with
+	 * most occurrences of the terms, which are highlighted between asterisks.
+	 * <p>
+	 * Terms are matched anywhere in the body, ignoring case. Empty and repeated terms are skipped, and at most
+	 * {@value #MAX_SNIPPET_TERMS} terms and {@value #MAX_SNIPPET_MATCHES} occurrences are considered, so the cost is
+	 * linear in the length of the body whatever the query.
+	 *
+	 * @param queryTerms the terms to highlight.
+	 * @param body       the body of the document.
+	 * @return the snippet.
+	 */
+	public static String makeSnippet(Iterable<String> queryTerms, String body)
+	{
+		// Find query terms in a lowercase copy of the body, with the same positions
+		String bodyLow = Interactive.toLowerCase(body);
+		long[] matches = new long[16]; // (start << 32) | end
+		int numMatches = 0;
+		HashSet<String> seen = new HashSet<>();
+		for (String queryTerm : queryTerms) {
+			String queryTermLow = Interactive.toLowerCase(queryTerm);
+			if (queryTermLow.isEmpty() || !seen.add(queryTermLow))
+				continue;
+			if (seen.size() > Interactive.MAX_SNIPPET_TERMS)
+				break;
+			int s = bodyLow.indexOf(queryTermLow);
+			while (s >= 0 && numMatches < Interactive.MAX_SNIPPET_MATCHES) {
+				if (numMatches == matches.length)
+					matches = Arrays.copyOf(matches, 2 * numMatches);
+				matches[numMatches++] = (long) s << 32 | (s + queryTermLow.length());
+				s = bodyLow.indexOf(queryTermLow, s + queryTermLow.length());
+			}
+		}
+		Arrays.sort(matches, 0, numMatches);
+
+		// Snippet with most query terms, starting at one of them
+		int bestFrom = 0, bestCount = 0;
+		for (int i = 0, j = 0; i < numMatches; i++) {
+			int from = (int) (matches[i] >>> 32);
+			while (j < numMatches && (int) (matches[j] >>> 32) < from + Interactive.SNIPPET_LENGTH)
+				j++;
+			if (j - i > bestCount) {
+				bestFrom = from;
+				bestCount = j - i;
+			}
+		}
+
+		// Highlight the query terms within the snippet, merging overlapping ones
+		int bestTo = Math.min(body.length(), bestFrom + Interactive.SNIPPET_LENGTH);
+		StringBuilder snippet = new StringBuilder(bestTo - bestFrom + 2 * bestCount);
+		int pos = bestFrom, i = 0;
+		while (i < numMatches && (int) (matches[i] >>> 32) < bestFrom)
+			i++;
+		while (i < numMatches && (int) (matches[i] >>> 32) < bestTo) {
+			int start = (int) (matches[i] >>> 32), end = (int) matches[i];
+			for (i++; i < numMatches && (int) (matches[i] >>> 32) <= end; i++)
+				end = Math.max(end, (int) matches[i]);
+			end = Math.min(end, bestTo);
+			snippet.append(body, pos, start).append('*').append(body, start, end).append('*');
+			pos = end;
+		}
+		snippet.append(body, pos, bestTo);
+		return "..." + snippet.toString().trim() + "...";
+	}
+
+	/**
+	 * Converts a string to lower case character by character, so that positions are the same as in the original.
+	 *
+	 * @param s the string.
+	 * @return the string in lower case.
+	 */
+	protected static String toLowerCase(String s)
+	{
+		char[] chars = s.toCharArray();
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = Character.toLowerCase(chars[i]);
+		return new String(chars);
+	}
+}
@@ -0,0 +1,123 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class records a distribution of latencies in nanoseconds, to report its percentiles.
+ * <p>
+ * As in HdrHistogram, values are counted in log-linear buckets: values below {@code 2^PRECISION_BITS} have a bucket
+ * each, and larger values share a bucket with those that have the same {@code PRECISION_BITS} most significant bits.
+ * The relative error of a percentile is thus below {@code 2^-(PRECISION_BITS-1)}, under 2%, for any value up to
+ * {@link Long#MAX_VALUE}, while the histogram takes a fixed 30 KB regardless of the number of values. Values are
+ * recorded without locking, so a histogram can be shared by all the threads running queries.
+ */
+public class LatencyHistogram
+{
+    protected static final int PRECISION_BITS = 7;
+    protected static final int HALF_BUCKET = 1 << (PRECISION_BITS - 1);
+    protected static final int NUM_BUCKETS = (64 - PRECISION_BITS + 2) * HALF_BUCKET;
+
+    protected final AtomicLongArray counts;
+    protected final LongAdder total;
+    protected final LongAdder sum;
+
+    /**
+     * Creates a new empty histogram.
+     */
+    public LatencyHistogram()
+    {
+        this.counts = new AtomicLongArray(NUM_BUCKETS);
+        this.total = new LongAdder();
+        this.sum = new LongAdder();
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds. Negative values are recorded as {@code 0}.
+     */
+    public void record(long nanos)
+    {
+        nanos = Math.max(0, nanos);
+        this.counts.incrementAndGet(LatencyHistogram.bucketOf(nanos));
+        this.total.increment();
+        this.sum.add(nanos);
+    }
+
+    /**
+     * Returns the number of latencies recorded.
+     *
+     * @return the number of latencies.
+     */
+    public long getCount()
+    {
+        return this.total.sum();
+    }
+
+    /**
+     * Returns the sum of the latencies recorded.
+     *
+     * @return the sum in nanoseconds.
+     */
+    public long getSum()
+    {
+        return this.sum.sum();
+    }
+
+    /**
+     * Returns a percentile of the latencies recorded: the largest value in the bucket where it falls.
+     *
+     * @param percentile the percentile, between {@code 0} and {@code 100}.
+     * @return the latency in nanoseconds, or {@code 0} if none was recorded.
+     */
+    public long getPercentile(double percentile)
+    {
+        long[] snapshot = new long[NUM_BUCKETS];
+        long count = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            snapshot[i] = this.counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return LatencyHistogram.highestInBucket(i);
+        }
+        return LatencyHistogram.highestInBucket(NUM_BUCKETS - 1);
+    }
+
+    /**
+     * Returns the bucket that counts a value.
+     *
+     * @param value the non-negative value.
+     * @return the index of the bucket.
+     */
+    protected static int bucketOf(long value)
+    {
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - PRECISION_BITS);
+        return shift * HALF_BUCKET + (int) (value >>> shift);
+    }
+
+    /**
+     * Returns the largest value counted by a bucket.
+     *
+     * @param bucket the index of the bucket.
+     * @return the largest value.
+     */
+    protected static long highestInBucket(int bucket)
+    {
+        if (bucket < 2 * HALF_BUCKET)
+            return bucket;
+        int shift = bucket / HALF_BUCKET - 1;
+        long first = (long) (bucket % HALF_BUCKET + HALF_BUCKET) << shift;
+        return first + (1L << shift) - 1;
+    }
+}
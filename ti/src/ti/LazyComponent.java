@@ -0,0 +1,81 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * A component of an index that is only loaded the first time it is needed.
+ * <p>
+ * Loading is thread-safe, so concurrent queries may ask for the same component and it is loaded exactly once.
+ *
+ * @param <T> the type of the component.
+ */
+public class LazyComponent<T>
+{
+    /**
+     * Loads a component.
+     *
+     * @param <T> the type of the component.
+     */
+    public interface Loader<T>
+    {
+        /**
+         * Loads the component.
+         *
+         * @return the loaded component.
+         * @throws IOException if an error occurs while loading the component.
+         */
+        T load() throws IOException;
+    }
+
+    protected final Loader<T> loader;
+    protected volatile T value;
+
+    /**
+     * Creates a new component that is loaded with the given loader when first needed.
+     *
+     * @param loader the loader of the component.
+     */
+    public LazyComponent(Loader<T> loader)
+    {
+        this.loader = loader;
+    }
+
+    /**
+     * Returns the component, loading it if this is the first time it is needed.
+     *
+     * @return the component.
+     * @throws UncheckedIOException if an error occurs while loading the component.
+     */
+    public T get()
+    {
+        T value = this.value;
+        if (value == null) {
+            synchronized (this) {
+                value = this.value;
+                if (value == null) {
+                    try {
+                        value = this.loader.load();
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                    this.value = value;
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Returns whether the component has already been loaded.
+     *
+     * @return {@code true} if the component is loaded, or {@code false} otherwise.
+     */
+    public boolean isLoaded()
+    {
+        return this.value != null;
+    }
+}
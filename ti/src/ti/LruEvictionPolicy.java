@@ -0,0 +1,61 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.util.LinkedHashSet;
+
+/**
+ * An {@link EvictionPolicy} that evicts the least recently used entry.
+ * <p>
+ * Keys are kept in a {@link LinkedHashSet} in order of last use, so every operation takes constant time.
+ *
+ * @param <K> the type of the keys.
+ */
+public class LruEvictionPolicy<K> implements EvictionPolicy<K>
+{
+    protected final LinkedHashSet<K> order;
+
+    public LruEvictionPolicy()
+    {
+        this.order = new LinkedHashSet<>();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onAccess(K key)
+    {
+        // Move to the most recently used end
+        if (this.order.remove(key))
+            this.order.add(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onInsert(K key)
+    {
+        this.order.add(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onRemove(K key)
+    {
+        this.order.remove(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public K victim()
+    {
+        return this.order.iterator().next();
+    }
+}
@@ -0,0 +1,20 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.util.List;
+
+/**
+ * This interface defines the policy a {@link SegmentedIndexWriter} follows to choose which segments to merge.
+ */
+public interface MergePolicy
+{
+	/**
+	 * Chooses segments to merge into one.
+	 *
+	 * @param segments the segments that are not being merged already, in {@code docID} order.
+	 * @return the segments to merge, or {@code null} if no merge is needed.
+	 */
+	List<SegmentManifest.SegmentInfo> findMerge(List<SegmentManifest.SegmentInfo> segments);
+}
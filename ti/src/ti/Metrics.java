@@ -0,0 +1,428 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * This class keeps the metrics of the search engine, and exports them in the Prometheus text format or as JSON.
+ * <p>
+ * A metric is identified by its name and its labels, such as {@code phase="parse"}. There are four kinds:
+ * <ul>
+ * <li>{@link Counter}s, incremented as events happen, such as postings scanned.</li>
+ * <li>{@link Timer}s, which accumulate the time spent in a stage and how many times it ran. Exported as a counter of
+ * seconds plus a counter of runs.</li>
+ * <li>{@link LatencyHistogram}s, exported as a summary with the 50th, 95th and 99th percentiles.</li>
+ * <li>Gauges, read from a supplier when exported, such as the size of a component of the index.</li>
+ * </ul>
+ * All of them can be updated concurrently without locking. The metrics of the engine are registered in
+ * {@link #GLOBAL}, and those updated on every query or document are kept in constants so that they are not looked up.
+ */
+public class Metrics
+{
+    /**
+     * The metrics of this process.
+     */
+    public static final Metrics GLOBAL = new Metrics();
+
+    public static final Counter POSTINGS_SCANNED = GLOBAL.counter("ti_query_postings_scanned_total",
+            "Postings read or skipped to by retrieval models.");
+    public static final Counter CANDIDATES_SCORED = GLOBAL.counter("ti_query_candidates_scored_total",
+            "Documents fully scored and offered to the top k by retrieval models.");
+    public static final LatencyHistogram QUERY_LATENCY = GLOBAL.histogram("ti_query_latency_seconds",
+            "Latency of queries, including the time to find their terms.");
+
+    protected static final String[] QUANTILES = {"0.5", "0.95", "0.99"};
+
+    protected final LinkedHashMap<String, Metric> metrics;
+
+    /**
+     * Creates a new empty set of metrics.
+     */
+    public Metrics()
+    {
+        this.metrics = new LinkedHashMap<>();
+    }
+
+    /**
+     * Returns the counter with the given name and labels, registering it if it does not exist yet.
+     *
+     * @param name   the name of the metric.
+     * @param help   the description of the metric.
+     * @param labels the labels, as {@code name, value} pairs.
+     * @return the counter.
+     */
+    public Counter counter(String name, String help, String... labels)
+    {
+        return (Counter) this.register(name, help, labels, "counter", Counter::new).value;
+    }
+
+    /**
+     * Returns the timer with the given name and labels, registering it if it does not exist yet.
+     *
+     * @param name   the name of the metric, without the {@code _seconds_total} suffix.
+     * @param help   the description of the metric.
+     * @param labels the labels, as {@code name, value} pairs.
+     * @return the timer.
+     */
+    public Timer timer(String name, String help, String... labels)
+    {
+        return (Timer) this.register(name, help, labels, "timer", Timer::new).value;
+    }
+
+    /**
+     * Returns the histogram with the given name and labels, registering it if it does not exist yet.
+     *
+     * @param name   the name of the metric.
+     * @param help   the description of the metric.
+     * @param labels the labels, as {@code name, value} pairs.
+     * @return the histogram.
+     */
+    public LatencyHistogram histogram(String name, String help, String... labels)
+    {
+        return (LatencyHistogram) this.register(name, help, labels, "summary", LatencyHistogram::new).value;
+    }
+
+    /**
+     * Registers a gauge with the given name and labels, replacing the one registered before, if any.
+     *
+     * @param name   the name of the metric.
+     * @param help   the description of the metric.
+     * @param value  the supplier of the current value.
+     * @param labels the labels, as {@code name, value} pairs.
+     */
+    public synchronized void gauge(String name, String help, DoubleSupplier value, String... labels)
+    {
+        Metric metric = new Metric(name, help, labels, "gauge", value);
+        this.metrics.put(name + metric.labels, metric);
+    }
+
+    /**
+     * Removes all the metrics with the given name, whatever their labels.
+     *
+     * @param name the name of the metrics.
+     */
+    public synchronized void remove(String name)
+    {
+        this.metrics.values().removeIf(metric -> metric.name.equals(name));
+    }
+
+    /**
+     * Returns the metric with the given name and labels, registering it if it does not exist yet.
+     *
+     * @param name    the name of the metric.
+     * @param help    the description of the metric.
+     * @param labels  the labels, as {@code name, value} pairs.
+     * @param type    the type of the metric.
+     * @param factory the factory of the value of a new metric.
+     * @return the metric.
+     * @throws IllegalArgumentException if the metric exists with a different type.
+     */
+    protected synchronized Metric register(String name, String help, String[] labels, String type,
+                                           Supplier<Object> factory)
+    {
+        String formatted = Metrics.formatLabels(labels);
+        Metric metric = this.metrics.get(name + formatted);
+        if (metric == null) {
+            metric = new Metric(name, help, labels, type, factory.get());
+            this.metrics.put(name + formatted, metric);
+        } else if (!metric.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + metric.type + ", not a " + type + ".");
+        }
+        return metric;
+    }
+
+    /**
+     * Returns the metrics in the Prometheus text exposition format. A timer is exported as two counters, with the
+     * {@code _seconds_total} and the {@code _runs_total} suffixes.
+     *
+     * @return the metrics.
+     */
+    public String toPrometheus()
+    {
+        StringBuilder out = new StringBuilder();
+        ArrayList<Metric> metrics = this.snapshot();
+        int first = 0;
+        while (first < metrics.size()) {
+            Metric family = metrics.get(first);
+            int last = first + 1;
+            while (last < metrics.size() && metrics.get(last).name.equals(family.name))
+                last++;
+
+            if (family.type.equals("timer")) {
+                String seconds = family.name + "_seconds_total", runs = family.name + "_runs_total";
+                Metrics.appendHeader(out, seconds, family.help, "counter");
+                for (Metric metric : metrics.subList(first, last))
+                    Metrics.appendSample(out, seconds, metric.labels, ((Timer) metric.value).getNanos() / 1e9);
+                Metrics.appendHeader(out, runs, "Runs timed by " + seconds + ".", "counter");
+                for (Metric metric : metrics.subList(first, last))
+                    Metrics.appendSample(out, runs, metric.labels, ((Timer) metric.value).getCount());
+            } else {
+                Metrics.appendHeader(out, family.name, family.help, family.type);
+                for (Metric metric : metrics.subList(first, last)) {
+                    if (metric.value instanceof Counter) {
+                        Metrics.appendSample(out, metric.name, metric.labels, ((Counter) metric.value).get());
+                    } else if (metric.value instanceof LatencyHistogram) {
+                        LatencyHistogram histogram = (LatencyHistogram) metric.value;
+                        for (String quantile : QUANTILES) {
+                            String labels = Metrics.addLabel(metric.labels, "quantile", quantile);
+                            double percentile = Double.parseDouble(quantile) * 100;
+                            Metrics.appendSample(out, metric.name, labels, histogram.getPercentile(percentile) / 1e9);
+                        }
+                        Metrics.appendSample(out, metric.name + "_sum", metric.labels, histogram.getSum() / 1e9);
+                        Metrics.appendSample(out, metric.name + "_count", metric.labels, histogram.getCount());
+                    } else {
+                        Metrics.appendSample(out, metric.name, metric.labels, ((DoubleSupplier) metric.value).getAsDouble());
+                    }
+                }
+            }
+            first = last;
+        }
+        return out.toString();
+    }
+
+    /**
+     * Returns the metrics as a JSON object with a {@code metrics} array. Each metric has its {@code name},
+     * {@code type}, {@code labels} and either a {@code value}, or the {@code seconds} and {@code count} of a timer, or
+     * the {@code count}, {@code sum}, {@code p50}, {@code p95} and {@code p99} in seconds of a histogram.
+     *
+     * @return the metrics.
+     */
+    public String toJson()
+    {
+        StringBuilder json = new StringBuilder("{\"metrics\":[");
+        boolean first = true;
+        for (Metric metric : this.snapshot()) {
+            if (!first)
+                json.append(',');
+            first = false;
+            json.append("{\"name\":").append(Server.quote(metric.name));
+            json.append(",\"type\":").append(Server.quote(metric.type));
+            json.append(",\"labels\":{");
+            for (int i = 0; i < metric.labelPairs.length; i += 2) {
+                json.append(i > 0 ? "," : "").append(Server.quote(metric.labelPairs[i]));
+                json.append(':').append(Server.quote(metric.labelPairs[i + 1]));
+            }
+            json.append('}');
+            if (metric.value instanceof Counter) {
+                json.append(",\"value\":").append(((Counter) metric.value).get());
+            } else if (metric.value instanceof Timer) {
+                Timer timer = (Timer) metric.value;
+                json.append(",\"seconds\":").append(timer.getNanos() / 1e9).append(",\"count\":").append(timer.getCount());
+            } else if (metric.value instanceof LatencyHistogram) {
+                LatencyHistogram histogram = (LatencyHistogram) metric.value;
+                json.append(",\"count\":").append(histogram.getCount());
+                json.append(",\"sum\":").append(histogram.getSum() / 1e9);
+                json.append(",\"p50\":").append(histogram.getPercentile(50) / 1e9);
+                json.append(",\"p95\":").append(histogram.getPercentile(95) / 1e9);
+                json.append(",\"p99\":").append(histogram.getPercentile(99) / 1e9);
+            } else {
+                json.append(",\"value\":").append(Metrics.formatValue(((DoubleSupplier) metric.value).getAsDouble()));
+            }
+            json.append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Writes the metrics to a file, as JSON if its name ends in {@code .json} and in the Prometheus text format
+     * otherwise.
+     *
+     * @param file the file to write.
+     * @throws IOException if an error occurs while writing the file.
+     */
+    public void write(File file) throws IOException
+    {
+        String text = file.getName().endsWith(".json") ? this.toJson() : this.toPrometheus();
+        try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            out.write(text);
+        }
+    }
+
+    /**
+     * Returns the registered metrics, grouped by name so that each name is exported once.
+     *
+     * @return the metrics.
+     */
+    protected synchronized ArrayList<Metric> snapshot()
+    {
+        LinkedHashMap<String, ArrayList<Metric>> byName = new LinkedHashMap<>();
+        for (Metric metric : this.metrics.values())
+            byName.computeIfAbsent(metric.name, name -> new ArrayList<>()).add(metric);
+        ArrayList<Metric> sorted = new ArrayList<>();
+        for (ArrayList<Metric> group : byName.values())
+            sorted.addAll(group);
+        return sorted;
+    }
+
+    /**
+     * Formats labels in the Prometheus format, such as {@code {phase="parse"}}.
+     *
+     * @param labels the labels, as {@code name, value} pairs.
+     * @return the formatted labels, or an empty string if there are none.
+     */
+    protected static String formatLabels(String... labels)
+    {
+        if (labels.length % 2 != 0)
+            throw new IllegalArgumentException("Labels must be name and value pairs.");
+        String formatted = "";
+        for (int i = 0; i < labels.length; i += 2)
+            formatted = Metrics.addLabel(formatted, labels[i], labels[i + 1]);
+        return formatted;
+    }
+
+    /**
+     * Adds a label to formatted labels.
+     *
+     * @param labels the formatted labels.
+     * @param name   the name of the new label.
+     * @param value  the value of the new label.
+     * @return the formatted labels.
+     */
+    protected static String addLabel(String labels, String name, String value)
+    {
+        String label = name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+        return labels.isEmpty() ? "{" + label + "}" : labels.substring(0, labels.length() - 1) + "," + label + "}";
+    }
+
+    /**
+     * Appends the description and the type of a metric in the Prometheus text format.
+     */
+    protected static void appendHeader(StringBuilder out, String name, String help, String type)
+    {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Appends a sample in the Prometheus text format.
+     */
+    protected static void appendSample(StringBuilder out, String name, String labels, double value)
+    {
+        out.append(name).append(labels).append(' ').append(Metrics.formatValue(value)).append('\n');
+    }
+
+    /**
+     * Formats a value, without decimals if it is an integer.
+     */
+    protected static String formatValue(double value)
+    {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15)
+            return String.valueOf((long) value);
+        return String.format(Locale.ROOT, "%.9g", value);
+    }
+
+    /**
+     * A registered metric.
+     */
+    protected static class Metric
+    {
+        protected final String name;
+        protected final String help;
+        protected final String[] labelPairs;
+        protected final String labels;
+        protected final String type;
+        protected final Object value;
+
+        protected Metric(String name, String help, String[] labelPairs, String type, Object value)
+        {
+            this.name = name;
+            this.help = help;
+            this.labelPairs = labelPairs;
+            this.labels = Metrics.formatLabels(labelPairs);
+            this.type = type;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A count of events.
+     */
+    public static class Counter
+    {
+        protected final LongAdder count = new LongAdder();
+
+        /**
+         * Adds to the count.
+         *
+         * @param n the number of events.
+         */
+        public void add(long n)
+        {
+            this.count.add(n);
+        }
+
+        /**
+         * Adds one to the count.
+         */
+        public void increment()
+        {
+            this.count.increment();
+        }
+
+        /**
+         * Returns the count.
+         *
+         * @return the number of events.
+         */
+        public long get()
+        {
+            return this.count.sum();
+        }
+    }
+
+    /**
+     * The total time spent in a stage, and the number of times it ran. When the stage runs in several threads, their
+     * times are added up.
+     */
+    public static class Timer
+    {
+        protected final LongAdder nanos = new LongAdder();
+        protected final LongAdder count = new LongAdder();
+
+        /**
+         * Records a run of the stage that started at the given time and ends now.
+         *
+         * @param startTime the start time, as given by {@link System#nanoTime}.
+         * @return the current time, to start timing the next stage.
+         */
+        public long stop(long startTime)
+        {
+            long now = System.nanoTime();
+            this.nanos.add(now - startTime);
+            this.count.increment();
+            return now;
+        }
+
+        /**
+         * Returns the total time spent in the stage.
+         *
+         * @return the time in nanoseconds.
+         */
+        public long getNanos()
+        {
+            return this.nanos.sum();
+        }
+
+        /**
+         * Returns the number of times the stage ran.
+         *
+         * @return the number of runs.
+         */
+        public long getCount()
+        {
+            return this.count.sum();
+        }
+    }
+}
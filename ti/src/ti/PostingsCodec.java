@@ -0,0 +1,154 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * This class encodes postings lists in the compressed, block-based format read by {@link BlockPostingsIterator}.
+ * <p>
+ * {@code count:vbyte (lastID:int bound:float end:int)x(blocks)} {@code (gap:vbyte occurrences:vbyte)+}
+ * <p>
+ * Postings are split in blocks of {@link #BLOCK_SIZE}. The fixed-size skip table has, for each block, the
+ * {@code ID} of its last posting, an upper bound of the scores in the block, and the position where the block ends,
+ * relative to the start of the first block; it allows skipping whole blocks without decoding them. Lists of a single
+ * block, which are most of them, have no skip table: there is nothing to skip, and the bound of the block is the
+ * maximum bound of the list, returned by {@link #write} to be stored with the term. Within a block,
+ * {@code ID}s are stored as the gap from the previous one (the first one from the last {@code ID} of the previous
+ * block) in variable-byte code: 7 bits per byte, with the high bit set on the last byte.
+ * <p>
+ * Postings store the number of occurrences of the term in the document, also in variable-byte code, which takes a
+ * single byte for almost all postings. Weights are not stored: they are rebuilt exactly from the occurrences as
+ * {@code tf * idf}, with the {@link Index#computeTermFrequency term frequency} and the IDF of the term.
+ */
+public class PostingsCodec
+{
+    public static final int BLOCK_SIZE = 128;
+    protected static final int SKIP_ENTRY_SIZE = 12;
+
+    /**
+     * Writes the given postings list of the inverted index in compressed form.
+     * <p>
+     * The score bound of each block is the maximum of its weights divided by the norm of the posting's {@code ID}.
+     *
+     * @param postings the postings list, sorted by ascending {@code ID}, with the number of occurrences as weight.
+     * @param idf      the IDF of the term, to compute the weights of the postings.
+     * @param norms    the norms to divide weights by, indexed by {@code ID}.
+     * @param out      the stream to write to.
+     * @return the maximum score bound of all blocks.
+     * @throws IOException if an error occurs while writing or the postings are not sorted.
+     */
+    public static float write(PostingsList postings, double idf, double[] norms, DataOutputStream out) throws IOException
+    {
+        return PostingsCodec.write(postings, idf, norms, true, out);
+    }
+
+    /**
+     * Writes the given postings list in compressed form, with the number of occurrences as score bound of each block.
+     *
+     * @param postings the postings list, sorted by ascending {@code ID}, with the number of occurrences as weight.
+     * @param out      the stream to write to.
+     * @throws IOException if an error occurs while writing or the postings are not sorted.
+     */
+    public static void write(PostingsList postings, DataOutputStream out) throws IOException
+    {
+        PostingsCodec.write(postings, 1, null, false, out);
+    }
+
+    /**
+     * Writes the given postings list in compressed form.
+     *
+     * @param postings the postings list, sorted by ascending {@code ID}, with the number of occurrences as weight.
+     * @param idf      the IDF of the term.
+     * @param norms    the norms to divide weights by, indexed by {@code ID}, or {@code null}.
+     * @param weighted whether block bounds are computed from the weights or from the number of occurrences.
+     * @param out      the stream to write to.
+     * @return the maximum score bound of all blocks.
+     * @throws IOException if an error occurs while writing or the postings are not sorted.
+     */
+    protected static float write(PostingsList postings, double idf, double[] norms, boolean weighted, DataOutputStream out) throws IOException
+    {
+        int size = postings.size();
+        int numBlocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        DataOutputStream blocksOut = new DataOutputStream(blocks);
+
+        PostingsCodec.writeVByte(size, out);
+        float maxBound = 0;
+        int lastID = 0;
+        for (int block = 0; block < numBlocks; block++) {
+            int from = block * BLOCK_SIZE;
+            int to = Math.min(size, from + BLOCK_SIZE);
+
+            double bound = 0;
+            for (int i = from; i < to; i++) {
+                int id = postings.getID(i);
+                if (i > 0 && id <= lastID)
+                    throw new IOException("Postings must be sorted by ascending ID.");
+                int count = (int) postings.getWeight(i);
+                PostingsCodec.writeVByte(id - lastID, blocksOut);
+                PostingsCodec.writeVByte(count, blocksOut);
+                lastID = id;
+
+                double weight = weighted ? Index.computeTermFrequency(count) * idf : count;
+                if (norms == null)
+                    bound = Math.max(bound, weight);
+                else if (norms[id] > 0)
+                    bound = Math.max(bound, weight / norms[id]);
+            }
+
+            float blockBound = Math.nextUp((float) bound);
+            maxBound = Math.max(maxBound, blockBound);
+            if (numBlocks > 1) {
+                out.writeInt(lastID);
+                out.writeFloat(blockBound);
+                out.writeInt(blocksOut.size());
+            }
+        }
+        blocks.writeTo(out);
+        return maxBound;
+    }
+
+    /**
+     * Writes a non-negative integer in variable-byte code.
+     *
+     * @param value the integer to write.
+     * @param out   the stream to write to.
+     * @throws IOException if an error occurs while writing.
+     */
+    public static void writeVByte(int value, DataOutputStream out) throws IOException
+    {
+        while (value >= 0x80) {
+            out.write(value & 0x7F);
+            value >>>= 7;
+        }
+        out.write(value | 0x80);
+    }
+
+    /**
+     * Reads an integer in variable-byte code.
+     *
+     * @param buffer   the buffer to read from.
+     * @param position the position of the first byte in the buffer; on return, {@code position[0]} points to the byte
+     *                 after the integer.
+     * @return the integer read.
+     */
+    public static int readVByte(ByteBuffer buffer, int[] position)
+    {
+        int pos = position[0];
+        int value = 0;
+        int shift = 0;
+        byte b;
+        while (((b = buffer.get(pos++)) & 0x80) == 0) {
+            value |= b << shift;
+            shift += 7;
+        }
+        value |= (b & 0x7F) << shift;
+        position[0] = pos;
+        return value;
+    }
+}
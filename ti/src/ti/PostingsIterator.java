@@ -0,0 +1,92 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+/**
+ * This interface defines a forward-only cursor over a postings list.
+ * <p>
+ * The cursor starts before the first posting, so {@link #next} must be called before reading the current one, and
+ * its {@code ID}s are ascending.
+ */
+public interface PostingsIterator
+{
+	/**
+	 * Returns the total number of postings in the list.
+	 *
+	 * @return the number of postings.
+	 */
+	int size();
+
+	/**
+	 * Moves to the next posting in the list.
+	 *
+	 * @return {@code true} if there is such posting and {@code false} if the end of the list was reached.
+	 */
+	boolean next();
+
+	/**
+	 * Moves forward to the first posting whose {@code ID} is greater than or equal to {@code target}. If the current
+	 * posting already satisfies it, the cursor does not move. It may only be called once the cursor is on a posting.
+	 *
+	 * @param target the {@code ID} to move to.
+	 * @return {@code true} if there is such posting and {@code false} if the end of the list was reached.
+	 */
+	default boolean advance(int target)
+	{
+		while (this.getID() < target)
+			if (!this.next())
+				return false;
+		return true;
+	}
+
+	/**
+	 * Moves the block pointer forward to the block of postings that would contain {@code target}, without moving the
+	 * cursor or decoding any posting. {@link #getBlockLastID} and {@link #getBlockMaxWeight} then describe that block.
+	 * <p>
+	 * By default the whole list is a single block.
+	 *
+	 * @param target the {@code ID} to move to.
+	 * @return {@code false} if it is known that no posting has an {@code ID} greater than or equal to {@code target}.
+	 */
+	default boolean advanceShallow(int target)
+	{
+		return true;
+	}
+
+	/**
+	 * Returns the {@code ID} of the last posting in the block found by {@link #advanceShallow}.
+	 *
+	 * @return the last {@code ID} in the block.
+	 */
+	default int getBlockLastID()
+	{
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Returns an upper bound of the weights in the block found by {@link #advanceShallow}. In the inverted index it is
+	 * the maximum weight divided by the document norm, like {@link Index#getMaxWeight}.
+	 *
+	 * @return the bound of the block.
+	 */
+	default double getBlockMaxWeight()
+	{
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Returns the {@code ID} of the current posting, that is, a {@code docID} in the inverted index or a
+	 * {@code termID} in the direct index.
+	 *
+	 * @return the {@code ID} of the current posting.
+	 */
+	int getID();
+
+	/**
+	 * Returns the weight of the current posting.
+	 *
+	 * @return the weight of the current posting.
+	 */
+	double getWeight();
+}
@@ -0,0 +1,168 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.util.Arrays;
+
+/**
+ * This class represents a postings list stored in two parallel primitive arrays.
+ * <p>
+ * {@code (ID, weight)+}
+ * <p>
+ * The {@code i}-th posting is made of {@code ids[i]} and {@code weights[i]}. In the inverted index the {@code ID} is
+ * a {@code docID}, and in the direct index it is a {@code termID}. The arrays grow as postings are added, so no object
+ * is allocated per posting.
+ */
+public class PostingsList
+{
+    protected static final int INITIAL_CAPACITY = 4;
+
+    protected int[] ids;
+    protected double[] weights;
+    protected int size;
+
+    /**
+     * Creates a new empty postings list.
+     */
+    public PostingsList()
+    {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Creates a new empty postings list with room for the specified number of postings.
+     *
+     * @param capacity the initial capacity of the list.
+     */
+    public PostingsList(int capacity)
+    {
+        capacity = Math.max(capacity, 1);
+        this.ids = new int[capacity];
+        this.weights = new double[capacity];
+        this.size = 0;
+    }
+
+    /**
+     * Appends a posting to the end of the list.
+     *
+     * @param id     the {@code docID} or {@code termID} of the posting.
+     * @param weight the weight of the posting.
+     */
+    public void add(int id, double weight)
+    {
+        if (this.size == this.ids.length) {
+            int capacity = this.ids.length + (this.ids.length >> 1) + 1;
+            this.ids = Arrays.copyOf(this.ids, capacity);
+            this.weights = Arrays.copyOf(this.weights, capacity);
+        }
+        this.ids[this.size] = id;
+        this.weights[this.size] = weight;
+        this.size++;
+    }
+
+    /**
+     * Returns the number of postings in the list.
+     *
+     * @return the number of postings.
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Returns the {@code ID} of the {@code i}-th posting.
+     *
+     * @param i the position of the posting.
+     * @return the {@code docID} or {@code termID} of the posting.
+     */
+    public int getID(int i)
+    {
+        return this.ids[i];
+    }
+
+    /**
+     * Returns the weight of the {@code i}-th posting.
+     *
+     * @param i the position of the posting.
+     * @return the weight of the posting.
+     */
+    public double getWeight(int i)
+    {
+        return this.weights[i];
+    }
+
+    /**
+     * Sets the weight of the {@code i}-th posting.
+     *
+     * @param i      the position of the posting.
+     * @param weight the new weight of the posting.
+     */
+    public void setWeight(int i, double weight)
+    {
+        this.weights[i] = weight;
+    }
+
+    /**
+     * Sets the {@code ID} of the {@code i}-th posting.
+     *
+     * @param i  the position of the posting.
+     * @param id the new {@code ID} of the posting.
+     */
+    public void setID(int i, int id)
+    {
+        this.ids[i] = id;
+    }
+
+    /**
+     * Sorts the postings by ascending {@code ID}.
+     */
+    public void sortByID()
+    {
+        this.sort(0, this.size - 1);
+    }
+
+    protected void sort(int from, int to)
+    {
+        while (from < to) {
+            int pivot = this.ids[(from + to) >>> 1];
+            int i = from, j = to;
+            while (i <= j) {
+                while (this.ids[i] < pivot)
+                    i++;
+                while (this.ids[j] > pivot)
+                    j--;
+                if (i <= j) {
+                    int id = this.ids[i];
+                    this.ids[i] = this.ids[j];
+                    this.ids[j] = id;
+                    double weight = this.weights[i];
+                    this.weights[i] = this.weights[j];
+                    this.weights[j] = weight;
+                    i++;
+                    j--;
+                }
+            }
+            // Recurse into the smaller half to bound stack depth
+            if (j - from < to - i) {
+                this.sort(from, j);
+                from = i;
+            } else {
+                this.sort(i, to);
+                to = j;
+            }
+        }
+    }
+
+    /**
+     * Shrinks the underlying arrays to the number of postings in the list.
+     */
+    public void trim()
+    {
+        if (this.size < this.ids.length) {
+            this.ids = Arrays.copyOf(this.ids, Math.max(this.size, 1));
+            this.weights = Arrays.copyOf(this.weights, Math.max(this.size, 1));
+        }
+    }
+}
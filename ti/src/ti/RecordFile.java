@@ -0,0 +1,174 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class gives read access to a memory-mapped file of variable-length records, as written by
+ * {@link RecordFileWriter}.
+ * <p>
+ * The layout of the file is a fixed header, the records one after the other, and an offset table:
+ * <p>
+ * {@code magic:int version:int count:int reserved:int tableOffset:long} {@code record+}
+ * {@code offset:int x (count + 1)}
+ * <p>
+ * Record {@code i} spans from {@code offset[i]} to {@code offset[i+1]}. Files are mapped with a single buffer, so
+ * they can not exceed {@link Integer#MAX_VALUE} bytes and offsets fit in an {@code int}. Opening the file only maps
+ * it and reads the header, so the cost does not depend on the number or size of the records.
+ * <p>
+ * The mapping is released when the file is {@link #close closed}, or otherwise when the buffer is garbage collected.
+ * Once closed, asking for the buffer or for the offsets of records throws an {@link IllegalStateException}.
+ */
+public class RecordFile implements Closeable
+{
+    protected static final int HEADER_SIZE = 24;
+    protected static final short LEGACY_MAGIC = (short) 0xACED; // Java serialization stream
+
+    protected final File file;
+    protected final ByteBuffer buffer;
+    protected final int version;
+    protected final int count;
+    protected final int tableOffset;
+    protected volatile boolean closed;
+
+    /**
+     * Maps the specified file and reads its header.
+     *
+     * @param file  the file to open.
+     * @param magic the magic number the file is expected to start with.
+     * @throws IOException if an error occurs while mapping the file or it does not have the expected format.
+     */
+    public RecordFile(File file, int magic) throws IOException
+    {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("File " + file + " is too large to be mapped.");
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (this.buffer.capacity() >= 2 && this.buffer.getShort(0) == LEGACY_MAGIC)
+            throw new IOException("File " + file + " is in the legacy index format; use the 'convert' command first.");
+        if (this.buffer.capacity() < HEADER_SIZE || this.buffer.getInt(0) != magic)
+            throw new IOException("File " + file + " is not a valid index file.");
+
+        this.version = this.buffer.getInt(4);
+        this.count = this.buffer.getInt(8);
+        this.tableOffset = (int) this.buffer.getLong(16);
+    }
+
+    /**
+     * Returns the format version the file was written with.
+     *
+     * @return the format version.
+     */
+    public int getVersion()
+    {
+        return this.version;
+    }
+
+    /**
+     * Returns the number of records in the file.
+     *
+     * @return the number of records.
+     */
+    public int getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * Returns the position in the {@link #getBuffer buffer} where the specified record starts.
+     *
+     * @param i the number of the record.
+     * @return the position of the first byte of the record.
+     */
+    public int getOffset(int i)
+    {
+        this.checkOpen();
+        return this.buffer.getInt(this.tableOffset + 4 * i);
+    }
+
+    /**
+     * Returns the length in bytes of the specified record.
+     *
+     * @param i the number of the record.
+     * @return the length of the record.
+     */
+    public int getLength(int i)
+    {
+        this.checkOpen();
+        return this.buffer.getInt(this.tableOffset + 4 * (i + 1)) - this.buffer.getInt(this.tableOffset + 4 * i);
+    }
+
+    /**
+     * Returns the buffer with the contents of the file.
+     * <p>
+     * It is shared by all readers, so it must only be accessed with absolute {@code get} methods. It must not be
+     * kept beyond the operation it is needed for, because it can not be checked once the file is closed.
+     *
+     * @return the mapped buffer.
+     * @throws IllegalStateException if the file is closed.
+     */
+    public ByteBuffer getBuffer()
+    {
+        this.checkOpen();
+        return this.buffer;
+    }
+
+    /**
+     * Checks that the file is not closed, so that a late reader fails instead of accessing an unmapped buffer.
+     *
+     * @throws IllegalStateException if the file is closed.
+     */
+    protected void checkOpen()
+    {
+        if (this.closed)
+            throw new IllegalStateException("File " + this.file + " is closed.");
+    }
+
+    /**
+     * Returns the size of the file in bytes.
+     *
+     * @return the size of the file.
+     */
+    public long getSize()
+    {
+        return this.buffer.capacity();
+    }
+
+    /**
+     * Unmaps the file right away, instead of waiting for the buffer to be garbage collected.
+     * <p>
+     * Later calls to {@link #getBuffer}, {@link #getOffset} and {@link #getLength} throw an exception, but a buffer
+     * obtained before, for instance by a postings iterator, is not checked, and reading it would crash the virtual
+     * machine. The file must thus only be closed once no operation that started reading it can still be running,
+     * which {@link IndexSnapshot} ensures for the indexes it serves. If the runtime does not allow unmapping buffers
+     * explicitly, the mapping is left to the garbage collector.
+     */
+    @Override
+    public synchronized void close()
+    {
+        if (this.closed)
+            return;
+        this.closed = true;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            invokeCleaner.invoke(theUnsafe.get(null), this.buffer);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            // Not available before Java 9, or access denied: released when garbage collected
+        }
+    }
+}
@@ -0,0 +1,99 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class writes a file of variable-length records to be read with {@link RecordFile}.
+ * <p>
+ * Records are streamed to disk as they are written. The offset table is kept in memory and appended when the file is
+ * {@link #close closed}, which also fills in the header.
+ * <p>
+ * Records are written to a temporary file, which replaces the file only once it is complete. A file that is being
+ * read, such as one of an {@link IndexSnapshot} still in use, thus keeps its contents until it is unmapped.
+ */
+public class RecordFileWriter implements Closeable
+{
+    protected final File file;
+    protected final File tempFile;
+    protected final int magic;
+    protected final int version;
+    protected final DataOutputStream out;
+    protected int[] offsets;
+    protected int count;
+
+    /**
+     * Creates a new writer for the specified file, replacing it if it already exists once the writer is closed.
+     *
+     * @param file    the file to write.
+     * @param magic   the magic number identifying the kind of file.
+     * @param version the format version of the records.
+     * @throws IOException if an error occurs while creating the file.
+     */
+    public RecordFileWriter(File file, int magic, int version) throws IOException
+    {
+        this.file = file;
+        this.tempFile = new File(file.getPath() + ".tmp");
+        this.magic = magic;
+        this.version = version;
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.tempFile), 1 << 16));
+        this.out.write(new byte[RecordFile.HEADER_SIZE]); // filled in on close
+        this.offsets = new int[1024];
+        this.count = 0;
+    }
+
+    /**
+     * Starts a new record. Everything written to the {@link #getOutput output} until the next call belongs to it.
+     */
+    public void nextRecord()
+    {
+        if (this.count == this.offsets.length)
+            this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+        this.offsets[this.count++] = this.out.size();
+    }
+
+    /**
+     * Returns the stream to write the contents of the current record.
+     *
+     * @return the output stream.
+     */
+    public DataOutputStream getOutput()
+    {
+        return this.out;
+    }
+
+    /**
+     * Writes the offset table and the header, closes the file and moves it in place.
+     *
+     * @throws IOException if an error occurs while writing the file.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        int tableOffset = this.out.size();
+        for (int i = 0; i < this.count; i++)
+            this.out.writeInt(this.offsets[i]);
+        this.out.writeInt(tableOffset);
+        this.out.close();
+        // DataOutputStream.size saturates at Integer.MAX_VALUE, beyond what can be mapped anyway
+        if (this.out.size() == Integer.MAX_VALUE) {
+            this.tempFile.delete();
+            throw new IOException("File " + this.file + " is too large to be mapped.");
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(RecordFile.HEADER_SIZE);
+        header.putInt(this.magic).putInt(this.version).putInt(this.count).putInt(0).putLong(tableOffset).flip();
+        try (FileChannel channel = FileChannel.open(this.tempFile.toPath(), StandardOpenOption.WRITE)) {
+            channel.write(header, 0);
+        }
+        Files.move(this.tempFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -11,12 +11,14 @@ import java.util.ArrayList;
 public interface RetrievalModel
 {
 	/**
-	 * Runs the given query and returns the list of documents sorted by similarity.
+	 * Runs the given query and returns the {@code k} most similar documents, sorted by similarity.
 	 *
 	 * @param queryText    the text of the query.
 	 * @param index        the index to search in.
 	 * @param docProcessor the {@link DocumentProcessor} to extract query terms.
-	 * @return a list of {@link Tuple}s where the first item is the {@code docID} and the second one the similarity score.
+	 * @param k            the maximum number of documents to return.
+	 * @return a list of at most {@code k} {@link Tuple}s where the first item is the {@code docID} and the second one
+	 * the similarity score.
 	 */
-	ArrayList<Tuple<Integer, Double>> runQuery(String queryText, Index index, DocumentProcessor docProcessor);
+	ArrayList<Tuple<Integer, Double>> runQuery(String queryText, Index index, DocumentProcessor docProcessor, int k);
 }
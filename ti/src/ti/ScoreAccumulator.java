@@ -0,0 +1,104 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.util.Arrays;
+
+/**
+ * This class accumulates partial document scores in a dense array indexed by {@code docID}.
+ * <p>
+ * The documents touched since the last {@link #reset} are tracked, so that they can be enumerated and the array
+ * cleared in time proportional to their number rather than to the size of the collection. An accumulator is meant to
+ * be reused by all queries run in the same thread.
+ */
+public class ScoreAccumulator
+{
+    protected float[] scores; // [docID] -> partial score
+    protected long[] touchedBits; // one bit per docID
+    protected int[] touched; // docIDs in order of first touch
+    protected int touchedCount;
+
+    /**
+     * Creates a new empty accumulator.
+     */
+    public ScoreAccumulator()
+    {
+        this.scores = new float[0];
+        this.touchedBits = new long[0];
+        this.touched = new int[16];
+        this.touchedCount = 0;
+    }
+
+    /**
+     * Clears the scores accumulated so far and makes room for documents with {@code docID}s up to
+     * {@code numDocuments-1}.
+     *
+     * @param numDocuments the number of documents in the index.
+     */
+    public void reset(int numDocuments)
+    {
+        for (int i = 0; i < this.touchedCount; i++) {
+            int docID = this.touched[i];
+            this.scores[docID] = 0;
+            this.touchedBits[docID >>> 6] = 0;
+        }
+        this.touchedCount = 0;
+
+        if (this.scores.length < numDocuments) {
+            this.scores = new float[numDocuments];
+            this.touchedBits = new long[(numDocuments + 63) >>> 6];
+        }
+    }
+
+    /**
+     * Adds to the score of a document.
+     *
+     * @param docID the ID of the document.
+     * @param score the partial score to add.
+     */
+    public void add(int docID, float score)
+    {
+        long bit = 1L << docID;
+        int word = docID >>> 6;
+        if ((this.touchedBits[word] & bit) == 0) {
+            this.touchedBits[word] |= bit;
+            if (this.touchedCount == this.touched.length)
+                this.touched = Arrays.copyOf(this.touched, this.touched.length * 2);
+            this.touched[this.touchedCount++] = docID;
+        }
+        this.scores[docID] += score;
+    }
+
+    /**
+     * Returns the score accumulated for a document.
+     *
+     * @param docID the ID of the document.
+     * @return the accumulated score, or {@code 0} if the document was not touched.
+     */
+    public float get(int docID)
+    {
+        return this.scores[docID];
+    }
+
+    /**
+     * Returns the number of documents touched since the last {@link #reset}.
+     *
+     * @return the number of touched documents.
+     */
+    public int getTouchedCount()
+    {
+        return this.touchedCount;
+    }
+
+    /**
+     * Returns the {@code i}-th document touched since the last {@link #reset}.
+     *
+     * @param i the position of the document, in order of first touch.
+     * @return the ID of the document.
+     */
+    public int getTouched(int i)
+    {
+        return this.touched[i];
+    }
+}
@@ -4,10 +4,12 @@
 package ti;
 
 import java.io.File;
+import java.io.IOException;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 /**
  * This class is the main entry point to run the search engine.
  * It contains the {@link #main} method.
@@ -22,13 +24,26 @@ public class SearchEngine
      */	
     protected static void doIndex(String[] args) throws Exception
     {
-        if (args.length < 3 || args.length > 4) {
+        if (args.length < 3 || args.length > 6) {
             SearchEngine.printUsage();
             System.exit(1);
         }
         File pathToIndex = new File(args[1]);
         File pathToCollection = new File(args[2]);
-        File pathToStopWords = args.length == 4 ? new File(args[3]) : null;
+        File pathToStopWords = args.length >= 4 ? new File(args[3]) : null;
+        String threads = args.length >= 5 ? args[4] : "1";
+        long memoryBudget = 0;
+        if (args.length == 6) {
+            try {
+                memoryBudget = Long.parseLong(args[5]) * 1024 * 1024;
+            } catch (NumberFormatException ex) {
+                memoryBudget = -1;
+            }
+            if (memoryBudget <= 0) {
+                System.err.println("Invalid memory budget: " + args[5] + ".");
+                System.exit(1);
+            }
+        }
 
         // Check console arguments
         if (pathToIndex.exists() && pathToIndex.isFile()) {
@@ -47,8 +62,15 @@ public class SearchEngine
         // Build index
         //DocumentProcessor docProcessor = new SimpleProcessor();
         DocumentProcessor docProcessor = new HtmlProcessor(pathToStopWords);
-        Indexer indexer = new Indexer(pathToIndex, pathToCollection, docProcessor);
+        ExecutorService workers = SearchEngine.createWorkers(threads);
+        Indexer indexer;
+        if (memoryBudget > 0)
+            indexer = new SpimiIndexer(pathToIndex, pathToCollection, docProcessor, workers, memoryBudget);
+        else
+            indexer = new Indexer(pathToIndex, pathToCollection, docProcessor, workers);
         indexer.run();
+        if (workers != null)
+            workers.shutdown();
 
 		
     }
@@ -61,12 +83,14 @@ public class SearchEngine
      */
     protected static void doBatch(String[] args) throws Exception
     {
-        if (args.length != 3) {
+        if (args.length < 3 || args.length > 5) {
             SearchEngine.printUsage();
             System.exit(1);
         }
         File pathToIndex = new File(args[1]);
         File pathToQueries = new File(args[2]);
+        RetrievalModel model = SearchEngine.createModel(args.length >= 4 ? args[3] : "cosine");
+        String threads = args.length == 5 ? args[4] : "1";
 
         // Check console arguments
         if (!pathToIndex.exists() || pathToIndex.isFile()) {
@@ -80,16 +104,23 @@ public class SearchEngine
 
         // Read index
         System.err.print("Loading index...");
-        Index ind = new Index(pathToIndex.getPath());
-        ind.load();
+        Index ind = SearchEngine.loadIndex(pathToIndex, "vocabulary", "documents", "inverted");
         System.err.println("done. Statistics:");
         ind.printStatistics();
+        ind.registerMetrics(Metrics.GLOBAL);
 
         // Instantiate retriever and run
         DocumentProcessor docProcessor = new SimpleProcessor();
-        RetrievalModel cosine = new Cosine();
-        Batch batch = new Batch(pathToQueries, cosine, ind, docProcessor);
+        ExecutorService workers = SearchEngine.createWorkers(threads);
+        ExecutorService shardWorkers = SearchEngine.createShardWorkers(ind);
+        if (ind instanceof ShardedIndex)
+            model = new ShardedRetrievalModel(model, shardWorkers);
+        Batch batch = new Batch(pathToQueries, model, ind, docProcessor, workers);
         batch.run();
+        if (workers != null)
+            workers.shutdown();
+        if (shardWorkers != null)
+            shardWorkers.shutdown();
     }
 
     /**
@@ -100,11 +131,12 @@ public class SearchEngine
      */
     protected static void doInteractive(String[] args) throws Exception
     {
-        if (args.length != 2) {
+        if (args.length < 2 || args.length > 3) {
             SearchEngine.printUsage();
             System.exit(1);
         }
         File pathToIndex = new File(args[1]);
+        RetrievalModel model = SearchEngine.createModel(args.length == 3 ? args[2] : "cosine");
 
         // Check console arguments
         if (!pathToIndex.exists() || pathToIndex.isFile()) {
@@ -114,18 +146,483 @@ public class SearchEngine
 
         // Read index
         System.err.print("Loading index...");
-        Index ind = new Index(pathToIndex.getPath());
-        ind.load();
+        Index ind = SearchEngine.loadIndex(pathToIndex, "vocabulary", "documents", "inverted", "store");
         System.err.println("done. Statistics:");
         ind.printStatistics();
+        ind.registerMetrics(Metrics.GLOBAL);
+        ExecutorService shardWorkers = SearchEngine.createShardWorkers(ind);
+        if (ind instanceof ShardedIndex)
+            model = new ShardedRetrievalModel(model, shardWorkers);
+        // Interactive queries are skewed towards a few popular ones, so cache their results
+        model = new CachingRetrievalModel(model);
 
         // Instantiate retriever and run
         DocumentProcessor docProcessor = new SimpleProcessor();
         //TODO: Change file path argument
         //DocumentProcessor docProcessor = new HtmlProcessor(pathToIndex);
-        RetrievalModel cosine = new Cosine();
-        Interactive inter = new Interactive(cosine, ind, docProcessor);
+        Interactive inter = new Interactive(model, ind, docProcessor);
         inter.run();
+        if (shardWorkers != null)
+            shardWorkers.shutdown();
+    }
+
+    /**
+     * Run the retrieval process as an HTTP server with the given command-line arguments.
+     *
+     * @param args the raw command-line arguments.
+     * @throws Exception if an error occurs during the process.
+     */
+    protected static void doServe(String[] args) throws Exception
+    {
+        if (args.length < 2 || args.length > 5) {
+            SearchEngine.printUsage();
+            System.exit(1);
+        }
+        File pathToIndex = new File(args[1]);
+        RetrievalModel model = SearchEngine.createModel(args.length >= 3 ? args[2] : "cosine");
+        int port = Server.DEFAULT_PORT, maxInFlight = Server.DEFAULT_MAX_IN_FLIGHT;
+        try {
+            if (args.length >= 4)
+                port = Integer.parseInt(args[3]);
+            if (args.length == 5)
+                maxInFlight = Integer.parseInt(args[4]);
+        } catch (NumberFormatException ex) {
+            port = -1;
+        }
+
+        // Check console arguments
+        if (!pathToIndex.exists() || pathToIndex.isFile()) {
+            System.err.println("Index directory does not exist.");
+            System.exit(1);
+        }
+        if (port < 0 || port > 65535 || maxInFlight < 1) {
+            System.err.println("Invalid port or maximum number of requests in flight.");
+            System.exit(1);
+        }
+
+        // Read index
+        System.err.print("Loading index...");
+        Index ind = SearchEngine.loadIndex(pathToIndex, "vocabulary", "documents", "inverted", "store");
+        System.err.println("done. Statistics:");
+        ind.printStatistics();
+        ind.registerMetrics(Metrics.GLOBAL);
+        // Reloads may bring a sharded index, or a different number of shards, so always fan out on virtual threads
+        ExecutorService shardWorkers = ThreadPools.create(ThreadPools.VIRTUAL);
+        model = new CachingRetrievalModel(new ShardedRetrievalModel(model, shardWorkers));
+
+        // Instantiate server and run until the process is stopped
+        DocumentProcessor docProcessor = new SimpleProcessor();
+        // Without virtual threads, one platform thread more than the requests in flight, so the extra requests are still
+        // picked up and rejected right away instead of waiting in the queue of the pool
+        ExecutorService workers = ThreadPools.create(ThreadPools.VIRTUAL, maxInFlight + 1);
+        IndexHandle handle = new IndexHandle(ind, "vocabulary", "documents", "inverted", "store");
+        Server server = new Server(model, handle, docProcessor, maxInFlight);
+        server.start(port, workers);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(1);
+            workers.shutdown();
+            shardWorkers.shutdown();
+            handle.close();
+        }));
+        System.err.println("Listening on port " + server.getPort() + ".");
+    }
+
+    /**
+     * Build a sharded index with the given command-line arguments.
+     *
+     * @param args the raw command-line arguments.
+     * @throws Exception if an error occurs during the process.
+     */
+    protected static void doShard(String[] args) throws Exception
+    {
+        if (args.length < 4 || args.length > 6) {
+            SearchEngine.printUsage();
+            System.exit(1);
+        }
+        File pathToIndex = new File(args[1]);
+        File pathToCollection = new File(args[2]);
+        int numShards;
+        try {
+            numShards = Integer.parseInt(args[3]);
+        } catch (NumberFormatException ex) {
+            numShards = 0;
+        }
+        File pathToStopWords = args.length >= 5 ? new File(args[4]) : null;
+        String threads = args.length == 6 ? args[5] : "1";
+
+        // Check console arguments
+        if (pathToIndex.exists() && pathToIndex.isFile()) {
+            System.err.println("The index path must be a directory.");
+            System.exit(1);
+        }
+        if (!pathToCollection.exists() || pathToCollection.isFile()) {
+            System.err.println("Invalid path to document collection.");
+            System.exit(1);
+        }
+        if (numShards < 1) {
+            System.err.println("Invalid number of shards: " + args[3] + ".");
+            System.exit(1);
+        }
+        if (pathToStopWords != null && (!pathToStopWords.exists() || !pathToStopWords.isFile())) {
+            System.err.println("Invalid path to list of stop words.");
+            System.exit(1);
+        }
+
+        // Build index
+        DocumentProcessor docProcessor = new HtmlProcessor(pathToStopWords);
+        ExecutorService workers = SearchEngine.createWorkers(threads);
+        Indexer indexer = new ShardedIndexer(pathToIndex, pathToCollection, docProcessor, workers, numShards);
+        indexer.run();
+        if (workers != null)
+            workers.shutdown();
+    }
+
+    /**
+     * Add the documents in a collection to a segmented index with the given command-line arguments.
+     *
+     * @param args the raw command-line arguments.
+     * @throws Exception if an error occurs during the process.
+     */
+    protected static void doAdd(String[] args) throws Exception
+    {
+        if (args.length < 3 || args.length > 5) {
+            SearchEngine.printUsage();
+            System.exit(1);
+        }
+        File pathToIndex = new File(args[1]);
+        File pathToCollection = new File(args[2]);
+        File pathToStopWords = args.length >= 4 ? new File(args[3]) : null;
+        String threads = args.length == 5 ? args[4] : "1";
+
+        // Check console arguments
+        if (pathToIndex.exists() && (pathToIndex.isFile()
+                || (new File(pathToIndex, "vocabulary").exists() && !SegmentManifest.exists(pathToIndex)))) {
+            System.err.println("The index path must be a directory with a segmented index, or a new one.");
+            System.exit(1);
+        }
+        if (!pathToCollection.exists() || pathToCollection.isFile()) {
+            System.err.println("Invalid path to document collection.");
+            System.exit(1);
+        }
+        if (pathToStopWords != null && (!pathToStopWords.exists() || !pathToStopWords.isFile())) {
+            System.err.println("Invalid path to list of stop words.");
+            System.exit(1);
+        }
+
+        // Add a segment and merge in the background until done
+        DocumentProcessor docProcessor = new HtmlProcessor(pathToStopWords);
+        ExecutorService workers = SearchEngine.createWorkers(threads);
+        try (SegmentedIndexWriter writer = new SegmentedIndexWriter(pathToIndex, docProcessor, workers, new TieredMergePolicy())) {
+            writer.addDocuments(pathToCollection);
+            writer.commit();
+            System.err.print("Merging segments...");
+            writer.waitForMerges();
+            System.err.println("done.");
+        }
+        if (workers != null)
+            workers.shutdown();
+
+        SegmentedIndex ind = new SegmentedIndex(pathToIndex.getPath());
+        ind.load();
+        System.err.println("Index statistics:");
+        ind.printStatistics();
+    }
+
+    /**
+     * Delete documents from a segmented index with the given command-line arguments.
+     *
+     * @param args the raw command-line arguments.
+     * @throws Exception if an error occurs during the process.
+     */
+    protected static void doDelete(String[] args) throws Exception
+    {
+        if (args.length < 3) {
+            SearchEngine.printUsage();
+            System.exit(1);
+        }
+        File pathToIndex = new File(args[1]);
+
+        // Check console arguments
+        if (!SegmentManifest.exists(pathToIndex)) {
+            System.err.println("Segmented index directory does not exist.");
+            System.exit(1);
+        }
+
+        try (SegmentedIndexWriter writer = new SegmentedIndexWriter(pathToIndex, null, null, new TieredMergePolicy())) {
+            for (int i = 2; i < args.length; i++)
+                if (!writer.deleteDocument(args[i]))
+                    System.err.println("Document " + args[i] + " is not in the index.");
+            writer.commit();
+        }
+    }
+
+    /**
+     * Creates the index stored in the given directory, either a {@link SegmentedIndex}, a {@link ShardedIndex} or a
+     * regular {@link Index}.
+     *
+     * @param pathToIndex the index directory.
+     * @return the index, to be loaded.
+     */
+    protected static Index openIndex(File pathToIndex)
+    {
+        if (ShardedIndex.exists(pathToIndex))
+            return new ShardedIndex(pathToIndex.getPath());
+        if (SegmentManifest.exists(pathToIndex))
+            return new SegmentedIndex(pathToIndex.getPath());
+        return new Index(pathToIndex.getPath());
+    }
+
+    /**
+     * Opens and loads the index stored in the given directory, mapping the given components right away. If the index
+     * can not be loaded, for instance because it is in the legacy format, the error is printed and the process exits.
+     *
+     * @param pathToIndex the index directory.
+     * @param components  the names of the components to map.
+     * @return the loaded index.
+     * @throws Exception if an error other than reading the index occurs.
+     */
+    protected static Index loadIndex(File pathToIndex, String... components) throws Exception
+    {
+        Index ind = SearchEngine.openIndex(pathToIndex);
+        try {
+            ind.load();
+            ind.preload(components);
+        } catch (IOException ex) {
+            System.err.println();
+            System.err.println(ex.getMessage());
+            System.exit(1);
+        }
+        return ind;
+    }
+
+    /**
+     * Instantiates the retrieval model with the given name.
+     *
+     * @param name the name of the model, as given in the command line.
+     * @return the retrieval model.
+     */
+    protected static RetrievalModel createModel(String name)
+    {
+        switch (name.toLowerCase()) {
+            case "cosine":
+                return new Cosine();
+            case "wand":
+                return new WandCosine();
+            case "bmw":
+                return new BlockMaxWandCosine();
+            case "bm25":
+                return new BM25();
+            case "bm25q":
+                return new QuantizedBM25();
+            default:
+                System.err.println("Unknown retrieval model: " + name + ".");
+                SearchEngine.printUsage();
+                System.exit(1);
+                return null;
+        }
+    }
+
+    /**
+     * Creates the worker pool specified in the command line.
+     *
+     * @param threads the number of threads or {@value ThreadPools#VIRTUAL}, as given in the command line.
+     * @return the workers, or {@code null} if a single thread is requested.
+     */
+    protected static ExecutorService createWorkers(String threads)
+    {
+        if (threads.equals("1"))
+            return null;
+        try {
+            return ThreadPools.create(threads);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /**
+     * Creates the workers to search the shards of a loaded index concurrently, one per shard but the first, which is
+     * searched by the thread running the query.
+     *
+     * @param ind the loaded index.
+     * @return the workers, or {@code null} if the index is not sharded or has a single shard.
+     */
+    protected static ExecutorService createShardWorkers(Index ind)
+    {
+        if (!(ind instanceof ShardedIndex) || ((ShardedIndex) ind).getShardCount() < 2)
+            return null;
+        return ThreadPools.create(((ShardedIndex) ind).getShardCount() - 1);
+    }
+
+    /**
+     * Convert an index in the legacy serialized format to the current format, with the given command-line arguments.
+     *
+     * @param args the raw command-line arguments.
+     * @throws Exception if an error occurs during the process.
+     */
+    protected static void doConvert(String[] args) throws Exception
+    {
+        if (args.length != 3) {
+            SearchEngine.printUsage();
+            System.exit(1);
+        }
+        File pathToLegacyIndex = new File(args[1]);
+        File pathToIndex = new File(args[2]);
+
+        // Check console arguments
+        if (!pathToLegacyIndex.exists() || pathToLegacyIndex.isFile()) {
+            System.err.println("Legacy index directory does not exist.");
+            System.exit(1);
+        }
+        if (pathToIndex.exists() && pathToIndex.isFile()) {
+            System.err.println("The index path must be a directory.");
+            System.exit(1);
+        }
+
+        // Read legacy index and save it again
+        System.err.print("Converting index...");
+        Index ind = new Index(pathToIndex.getPath());
+        ind.loadLegacy(pathToLegacyIndex.getPath());
+        ind.save();
+        System.err.println("done.");
+        System.err.println("Index statistics:");
+        ind.printStatistics();
+    }
+
+    /**
+     * Precompute the quantized BM25 impacts of an index with the given command-line arguments.
+     *
+     * @param args the raw command-line arguments.
+     * @throws Exception if an error occurs during the process.
+     */
+    protected static void doImpacts(String[] args) throws Exception
+    {
+        if (args.length != 2 && args.length != 4) {
+            SearchEngine.printUsage();
+            System.exit(1);
+        }
+        File pathToIndex = new File(args[1]);
+        double k1 = BM25.DEFAULT_K1, b = BM25.DEFAULT_B;
+        if (args.length == 4) {
+            try {
+                k1 = Double.parseDouble(args[2]);
+                b = Double.parseDouble(args[3]);
+            } catch (NumberFormatException ex) {
+                k1 = -1;
+            }
+            if (k1 < 0 || b < 0 || b > 1) {
+                System.err.println("Invalid BM25 parameters: " + args[2] + " " + args[3] + ".");
+                System.exit(1);
+            }
+        }
+
+        // Check console arguments
+        if (!pathToIndex.exists() || pathToIndex.isFile() || SegmentManifest.exists(pathToIndex)) {
+            System.err.println("Index directory does not exist or is a segmented index.");
+            System.exit(1);
+        }
+
+        System.err.print("Computing impacts...");
+        Index ind = SearchEngine.loadIndex(pathToIndex);
+        ind.writeImpacts(k1, b);
+        System.err.println("done.");
+        System.err.println("Index statistics:");
+        ind.printStatistics();
+    }
+
+    /**
+     * Run the performance benchmarks with the given command-line arguments.
+     *
+     * @param args the raw command-line arguments.
+     * @throws Exception if an error occurs during the process.
+     */
+    protected static void doBench(String[] args) throws Exception
+    {
+        if (args.length < 3 || args.length > 6) {
+            SearchEngine.printUsage();
+            System.exit(1);
+        }
+        File pathToCollection = new File(args[1]);
+        File pathToQueries = new File(args[2]);
+        File pathToStopWords = args.length >= 4 ? new File(args[3]) : null;
+        RetrievalModel model = SearchEngine.createModel(args.length >= 5 ? args[4] : "cosine");
+        int iterations = Benchmark.DEFAULT_ITERATIONS;
+        if (args.length == 6) {
+            try {
+                iterations = Integer.parseInt(args[5]);
+            } catch (NumberFormatException ex) {
+                iterations = -1;
+            }
+        }
+
+        // Check console arguments
+        if (!pathToCollection.exists() || pathToCollection.isFile()) {
+            System.err.println("Invalid path to document collection.");
+            System.exit(1);
+        }
+        if (!pathToQueries.exists() || !pathToQueries.isFile()) {
+            System.err.println("Query file does not exist.");
+            System.exit(1);
+        }
+        if (pathToStopWords != null && (!pathToStopWords.exists() || !pathToStopWords.isFile())) {
+            System.err.println("Invalid path to list of stop words.");
+            System.exit(1);
+        }
+        if (iterations < 1) {
+            System.err.println("Invalid number of iterations.");
+            System.exit(1);
+        }
+
+        new Benchmark(pathToCollection, pathToQueries, pathToStopWords, model, iterations).run();
+    }
+
+    /**
+     * Generate a synthetic collection and queries with the given command-line arguments.
+     *
+     * @param args the raw command-line arguments.
+     * @throws Exception if an error occurs during the process.
+     */
+    protected static void doGenerate(String[] args) throws Exception
+    {
+        if (args.length < 4 || args.length > 7) {
+            SearchEngine.printUsage();
+            System.exit(1);
+        }
+        File pathToCollection = new File(args[1]);
+        File pathToQueries = new File(args[2]);
+        int numDocuments, numQueries = CorpusGenerator.DEFAULT_QUERIES;
+        long seed = CorpusGenerator.DEFAULT_SEED;
+        String threads = args.length >= 6 ? args[5] : "1";
+        try {
+            numDocuments = Integer.parseInt(args[3]);
+            if (args.length >= 5)
+                numQueries = Integer.parseInt(args[4]);
+            if (args.length == 7)
+                seed = Long.parseLong(args[6]);
+        } catch (NumberFormatException ex) {
+            numDocuments = -1;
+        }
+
+        // Check console arguments
+        if (pathToCollection.exists() && pathToCollection.isFile()) {
+            System.err.println("The collection path must be a directory.");
+            System.exit(1);
+        }
+        if (pathToQueries.isDirectory()) {
+            System.err.println("The query path must be a file.");
+            System.exit(1);
+        }
+        if (numDocuments < 1 || numQueries < 0) {
+            System.err.println("Invalid number of documents, queries or seed.");
+            System.exit(1);
+        }
+
+        ExecutorService workers = SearchEngine.createWorkers(threads);
+        CorpusGenerator generator = new CorpusGenerator(pathToCollection, pathToQueries, numDocuments, numQueries, seed, workers);
+        generator.run();
+        if (workers != null)
+            workers.shutdown();
     }
 
     public static void main(String[] args) throws Exception
@@ -134,6 +631,16 @@ public class SearchEngine
             SearchEngine.printUsage();
             System.exit(1);
         }
+        String pathToMetrics = System.getProperty("ti.metrics");
+        if (pathToMetrics != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Metrics.GLOBAL.write(new File(pathToMetrics));
+                } catch (IOException ex) {
+                    System.err.println("Error writing metrics: " + ex.getMessage());
+                }
+            }));
+        }
         switch (args[0].toLowerCase()) {
             case "index":
                 SearchEngine.doIndex(args);
@@ -146,6 +653,30 @@ public class SearchEngine
             	//System.out.println("interactive");
                 SearchEngine.doInteractive(args);
                 break;
+            case "convert":
+                SearchEngine.doConvert(args);
+                break;
+            case "add":
+                SearchEngine.doAdd(args);
+                break;
+            case "delete":
+                SearchEngine.doDelete(args);
+                break;
+            case "impacts":
+                SearchEngine.doImpacts(args);
+                break;
+            case "shard":
+                SearchEngine.doShard(args);
+                break;
+            case "serve":
+                SearchEngine.doServe(args);
+                break;
+            case "bench":
+                SearchEngine.doBench(args);
+                break;
+            case "generate":
+                SearchEngine.doGenerate(args);
+                break;
             default:
                 SearchEngine.printUsage();
                 System.exit(1);
@@ -157,8 +688,25 @@ public class SearchEngine
         System.err.println("Usage: ti.SearchEngine <command> <options>");
         System.err.println();
         System.err.println("where <command> and <options> are one of:");
-        System.err.println("  - index <path-to-index> <path-to-collection> [<path-to-stopwords>]");
-        System.err.println("  - batch <path-to-index> <path-to-queries>");
-        System.err.println("  - interactive <path-to-index>");
+        System.err.println("  - index <path-to-index> <path-to-collection> [<path-to-stopwords> [<threads> [<memory-MB>]]]");
+        System.err.println("  - batch <path-to-index> <path-to-queries> [<model> [<threads>]]");
+        System.err.println("  - interactive <path-to-index> [<model>]");
+        System.err.println("  - serve <path-to-index> [<model> [<port> [<max-in-flight>]]]");
+        System.err.println("  - convert <path-to-legacy-index> <path-to-index>");
+        System.err.println("  - add <path-to-segmented-index> <path-to-collection> [<path-to-stopwords> [<threads>]]");
+        System.err.println("  - delete <path-to-segmented-index> <document-name>+");
+        System.err.println("  - impacts <path-to-index> [<k1> <b>]");
+        System.err.println("  - shard <path-to-index> <path-to-collection> <shards> [<path-to-stopwords> [<threads>]]");
+        System.err.println("  - bench <path-to-collection> <path-to-queries> [<path-to-stopwords> [<model> [<iterations>]]]");
+        System.err.println("  - generate <path-to-collection> <path-to-queries> <documents> [<queries> [<threads> [<seed>]]]");
+        System.err.println();
+        System.err.println("and <model> is one of: cosine (default), wand, bmw, bm25, bm25q (BM25 with the precomputed impacts);");
+        System.err.println("and <threads> is the number of worker threads (default 1), or 'virtual';");
+        System.err.println("and <memory-MB> is the memory budget for postings, to index in runs merged on disk (default unbounded);");
+        System.err.println("and <port> is the HTTP port (default " + Server.DEFAULT_PORT + "), and <max-in-flight> the maximum number of requests processed at once (default " + Server.DEFAULT_MAX_IN_FLIGHT + "),");
+        System.err.println("    each on a virtual thread, or on a pool of <max-in-flight> + 1 platform threads before Java 21;");
+        System.err.println("and <queries> is the number of generated queries (default " + CorpusGenerator.DEFAULT_QUERIES + "), and <seed> the random seed (default " + CorpusGenerator.DEFAULT_SEED + ");");
+        System.err.println("and -Dti.metrics=<file> writes the metrics on exit, as JSON if the file ends in .json and in the Prometheus format otherwise;");
+        System.err.println("and <iterations> is the number of warmup and of measured iterations of each benchmark (default " + Benchmark.DEFAULT_ITERATIONS + ").");
     }
 }
\ No newline at end of file
@@ -0,0 +1,62 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * This class builds one segment of a {@link SegmentedIndex} from a collection of documents.
+ * <p>
+ * A segment is saved like any other {@link Index}, but it only stores statistics local to its documents, so that it
+ * never needs to be rewritten as other segments are added: the document frequency and IDF of each term are those in
+ * the segment, and document norms are {@code 1}. Global IDF and norms are computed by {@link SegmentedIndex} at query
+ * time from the document frequencies and the number of occurrences in the postings.
+ */
+public class SegmentIndexer extends Indexer
+{
+    /**
+     * Creates a new indexer to build a segment from the given collection.
+     * @param pathToSegment path to the segment directory.
+     * @param pathToCollection path to the original documents directory.
+     * @param docProcessor document processor to extract terms.
+     * @param workers the workers to analyze documents, or {@code null} to analyze them in the calling thread.
+     */
+    public SegmentIndexer(File pathToSegment, File pathToCollection, DocumentProcessor docProcessor, ExecutorService workers)
+    {
+        super(pathToSegment, pathToCollection, docProcessor, workers);
+    }
+
+    /**
+     * Runs the second pass of the indexer, which stores the local statistics of the segment.
+     * @param ind the index.
+     */
+    @Override
+    protected void secondPass(Index ind)
+    {
+        System.err.print("Running second pass...");
+        SegmentIndexer.finishSegment(ind);
+        System.err.println("done.");
+    }
+
+    /**
+     * Completes a segment whose inverted index holds the number of occurrences of each term in each document: it
+     * computes the IDF in the segment, builds the direct index and sets all norms to {@code 1}.
+     * @param ind the segment.
+     */
+    protected static void finishSegment(Index ind)
+    {
+        for (Tuple<String, Double> docInfo : ind.documents)
+            docInfo.item2 = 1.0;
+        for (Map.Entry<String, Tuple<Integer, Double>> term : ind.vocabulary.entrySet()) {
+            int termID = term.getValue().item1;
+            PostingsList postingsList = ind.invertedIndex.get(termID);
+            postingsList.trim();
+            term.getValue().item2 = Index.computeIDF(ind.documents.size(), postingsList.size());
+            for (int i = 0; i < postingsList.size(); i++)
+                ind.directIndex.get(postingsList.getID(i)).add(termID, postingsList.getWeight(i));
+        }
+    }
+}
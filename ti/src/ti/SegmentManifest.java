@@ -0,0 +1,237 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * This class represents the list of segments that make up a {@link SegmentedIndex} at some point in time.
+ * <p>
+ * It is stored in a small text file named {@value #FILE_NAME} in the index directory:
+ * <pre>
+ * ti-segments 1
+ * generation &lt;generation&gt;
+ * counter &lt;counter&gt;
+ * segment &lt;name&gt; &lt;documents&gt; &lt;deleted&gt; &lt;deletions-file or -&gt;
+ * ...
+ * </pre>
+ * Segments are immutable, so deleted documents are recorded in a separate bitset file per segment, rewritten under a
+ * new name whenever more documents are deleted. The manifest is replaced atomically on every commit, so readers
+ * always see a consistent list of segments.
+ */
+public class SegmentManifest
+{
+    protected static final String FILE_NAME = "segments";
+    protected static final String HEADER = "ti-segments 1";
+
+    /**
+     * The number of the commit that wrote this manifest.
+     */
+    public long generation;
+    /**
+     * The counter used to name new segments.
+     */
+    public int counter;
+    /**
+     * The segments, in {@code docID} order.
+     */
+    public ArrayList<SegmentInfo> segments;
+
+    /**
+     * Creates a new manifest without segments.
+     */
+    public SegmentManifest()
+    {
+        this.generation = 0;
+        this.counter = 0;
+        this.segments = new ArrayList<>();
+    }
+
+    /**
+     * Returns a copy of this manifest, with copies of its segments, that does not change when this one does.
+     *
+     * @return the copy.
+     */
+    public SegmentManifest copy()
+    {
+        SegmentManifest copy = new SegmentManifest();
+        copy.generation = this.generation;
+        copy.counter = this.counter;
+        for (SegmentInfo info : this.segments) {
+            SegmentInfo infoCopy = new SegmentInfo(info.name, info.docCount);
+            infoCopy.deletedCount = info.deletedCount;
+            infoCopy.deletionsFile = info.deletionsFile;
+            copy.segments.add(infoCopy);
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the position of a segment in the manifest.
+     *
+     * @param name the name of the segment.
+     * @return the position of the segment, or {@code -1} if it is not in the manifest.
+     */
+    public int indexOf(String name)
+    {
+        for (int i = 0; i < this.segments.size(); i++)
+            if (this.segments.get(i).name.equals(name))
+                return i;
+        return -1;
+    }
+
+    /**
+     * Checks whether the specified directory holds a segmented index.
+     *
+     * @param path the index directory.
+     * @return {@code true} if there is a manifest in the directory and {@code false} otherwise.
+     */
+    public static boolean exists(File path)
+    {
+        return new File(path, FILE_NAME).isFile();
+    }
+
+    /**
+     * Reads the manifest in the specified directory.
+     *
+     * @param path the index directory.
+     * @return the manifest.
+     * @throws IOException if an error occurs while reading the manifest or it is not valid.
+     */
+    public static SegmentManifest read(File path) throws IOException
+    {
+        File file = new File(path, FILE_NAME);
+        SegmentManifest manifest = new SegmentManifest();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine()))
+                throw new IOException("File " + file + " is not a valid segments file.");
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(" ");
+                switch (fields[0]) {
+                    case "generation":
+                        manifest.generation = Long.parseLong(fields[1]);
+                        break;
+                    case "counter":
+                        manifest.counter = Integer.parseInt(fields[1]);
+                        break;
+                    case "segment":
+                        SegmentInfo info = new SegmentInfo(fields[1], Integer.parseInt(fields[2]));
+                        info.deletedCount = Integer.parseInt(fields[3]);
+                        info.deletionsFile = fields[4].equals("-") ? null : fields[4];
+                        manifest.segments.add(info);
+                        break;
+                    default:
+                        throw new IOException("File " + file + " is not a valid segments file.");
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+            throw new IOException("File " + file + " is not a valid segments file.", ex);
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes the manifest to the specified directory, atomically replacing the previous one.
+     *
+     * @param path the index directory.
+     * @throws IOException if an error occurs while writing the manifest.
+     */
+    public void write(File path) throws IOException
+    {
+        File temp = new File(path, FILE_NAME + ".tmp");
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8))) {
+            writer.println(HEADER);
+            writer.println("generation " + this.generation);
+            writer.println("counter " + this.counter);
+            for (SegmentInfo info : this.segments)
+                writer.println("segment " + info.name + " " + info.docCount + " " + info.deletedCount + " "
+                        + (info.deletionsFile == null ? "-" : info.deletionsFile));
+            if (writer.checkError())
+                throw new IOException("Error writing file " + temp + ".");
+        }
+        Files.move(temp.toPath(), new File(path, FILE_NAME).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a bitset of deleted documents.
+     *
+     * @param file the file to read.
+     * @return the bitset.
+     * @throws IOException if an error occurs while reading the file.
+     */
+    public static BitSet readDeletions(File file) throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            long[] words = new long[in.readInt()];
+            for (int i = 0; i < words.length; i++)
+                words[i] = in.readLong();
+            return BitSet.valueOf(words);
+        }
+    }
+
+    /**
+     * Writes a bitset of deleted documents.
+     *
+     * @param file    the file to write.
+     * @param deleted the bitset.
+     * @throws IOException if an error occurs while writing the file.
+     */
+    public static void writeDeletions(File file, BitSet deleted) throws IOException
+    {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            long[] words = deleted.toLongArray();
+            out.writeInt(words.length);
+            for (long word : words)
+                out.writeLong(word);
+        }
+    }
+
+    /**
+     * The description of a segment in the manifest.
+     */
+    public static class SegmentInfo
+    {
+        /**
+         * The name of the segment, which is also the name of its directory.
+         */
+        public final String name;
+        /**
+         * The number of documents in the segment, including deleted ones.
+         */
+        public final int docCount;
+        /**
+         * The number of deleted documents in the segment.
+         */
+        public int deletedCount;
+        /**
+         * The name of the file with the bitset of deleted documents, or {@code null} if there are none.
+         */
+        public String deletionsFile;
+
+        public SegmentInfo(String name, int docCount)
+        {
+            this.name = name;
+            this.docCount = docCount;
+            this.deletedCount = 0;
+            this.deletionsFile = null;
+        }
+
+        /**
+         * Returns the number of documents in the segment that are not deleted.
+         *
+         * @return the number of live documents.
+         */
+        public int getLiveCount()
+        {
+            return this.docCount - this.deletedCount;
+        }
+    }
+}
@@ -0,0 +1,614 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class represents an index made of several immutable segments, as listed in a {@link SegmentManifest} and
+ * written by {@link SegmentedIndexWriter}.
+ * <p>
+ * Segments only store local statistics (see {@link SegmentIndexer}), so the weights of a segmented index are computed
+ * at query time. When the index is {@link #load loaded}, the vocabularies of all segments are merged to number the
+ * terms globally, in sorted order, and to aggregate their document frequencies into IDF. Postings then return
+ * {@code (1 + ln(count)) * IDF} as weight, and the norm of a document is computed the first time it is needed from its
+ * direct postings. Scores are thus the same as if the collection had been indexed at once.
+ * <p>
+ * Documents are numbered by concatenating the segments in order. Deleted documents keep their {@code docID} and are
+ * skipped by postings, but they still count in document frequencies and in the number of documents until their
+ * segment is merged, as is usual in segmented indexes.
+ * <p>
+ * A loaded segmented index never changes. Loading it again picks up the segments committed since.
+ */
+public class SegmentedIndex extends Index
+{
+    protected SegmentManifest manifest;
+    protected Index[] segments;
+    protected int[] bases; // [segment] -> first docID, plus the total number of documents at the end
+    protected BitSet[] deleted; // [segment] -> deleted local docIDs, or null
+    protected int[][] globalTermIDs; // [segment][local termID] -> global termID, ascending
+    protected int[] documentFrequencies; // [global termID] -> df
+    protected double[] idfs; // [global termID] -> IDF
+    protected AtomicLongArray norms; // [docID] -> bits of the norm, or 0 if not computed yet
+
+    /**
+     * Creates a new segmented index to be loaded from the specified directory.
+     * @param path the directory with the segments.
+     */
+    public SegmentedIndex(String path)
+    {
+        super(path);
+    }
+
+    /**
+     * Loads the segments in the current manifest, merges their vocabularies and computes the global IDF of every term.
+     *
+     * @throws Exception if an error occurs while loading the index.
+     */
+    @Override
+    public void load() throws Exception
+    {
+        File dir = new File(this.path);
+        this.manifest = SegmentManifest.read(dir);
+        int numSegments = this.manifest.segments.size();
+        this.segments = new Index[numSegments];
+        this.bases = new int[numSegments + 1];
+        this.deleted = new BitSet[numSegments];
+        for (int s = 0; s < numSegments; s++) {
+            SegmentManifest.SegmentInfo info = this.manifest.segments.get(s);
+            this.segments[s] = SegmentedIndex.openSegment(new File(dir, info.name));
+            this.bases[s + 1] = this.bases[s] + this.segments[s].getDocumentCount();
+            if (info.deletionsFile != null)
+                this.deleted[s] = SegmentManifest.readDeletions(new File(dir, info.deletionsFile));
+        }
+
+        this.mergeVocabularies();
+        this.norms = new AtomicLongArray(this.getDocumentCount());
+        this.averageDocumentLength = Double.NaN;
+        this.documentCache.clear();
+        this.generation = GENERATIONS.incrementAndGet();
+    }
+
+    /**
+     * Loads a segment. Its documents are cached by the segmented index, so the segment gets no cache of its own.
+     *
+     * @param pathToSegment the directory of the segment.
+     * @return the loaded segment.
+     * @throws Exception if an error occurs while loading the segment.
+     */
+    protected static Index openSegment(File pathToSegment) throws Exception
+    {
+        Index segment = new Index(pathToSegment.getPath());
+        segment.setDocumentCache(new BoundedCache<>(0, Index::estimateSize));
+        segment.load();
+        return segment;
+    }
+
+    /**
+     * Merges the sorted vocabularies of the segments to assign global {@code termID}s, and computes the IDF of each
+     * term from the sum of its document frequencies.
+     */
+    protected void mergeVocabularies()
+    {
+        int numSegments = this.segments.length;
+        this.globalTermIDs = new int[numSegments][];
+        int[] positions = new int[numSegments];
+        byte[][] heads = new byte[numSegments][];
+        PriorityQueue<Integer> queue = new PriorityQueue<>((s1, s2) -> Index.compareBytes(heads[s1], heads[s2]));
+        for (int s = 0; s < numSegments; s++) {
+            this.globalTermIDs[s] = new int[this.segments[s].getTermCount()];
+            if (this.globalTermIDs[s].length > 0) {
+                heads[s] = this.segments[s].getTermBytes(0);
+                queue.add(s);
+            }
+        }
+
+        int[] dfs = new int[1024];
+        int termCount = 0;
+        while (!queue.isEmpty()) {
+            byte[] term = heads[queue.peek()];
+            if (termCount == dfs.length)
+                dfs = Arrays.copyOf(dfs, termCount * 2);
+            while (!queue.isEmpty() && Arrays.equals(heads[queue.peek()], term)) {
+                int s = queue.poll();
+                int localID = positions[s]++;
+                this.globalTermIDs[s][localID] = termCount;
+                dfs[termCount] += this.segments[s].getDocumentFrequency(localID);
+                if (positions[s] < this.globalTermIDs[s].length) {
+                    heads[s] = this.segments[s].getTermBytes(positions[s]);
+                    queue.add(s);
+                }
+            }
+            termCount++;
+        }
+
+        this.documentFrequencies = Arrays.copyOf(dfs, termCount);
+        this.idfs = new double[termCount];
+        int numDocs = this.getDocumentCount();
+        for (int termID = 0; termID < termCount; termID++)
+            this.idfs[termID] = Index.computeIDF(numDocs, dfs[termID]);
+    }
+
+    /**
+     * Returns the segment that holds a document.
+     *
+     * @param docID the global ID of the document.
+     * @return the number of the segment.
+     */
+    protected int getSegment(int docID)
+    {
+        int s = Arrays.binarySearch(this.bases, 0, this.segments.length, docID);
+        if (s < 0)
+            s = -s - 2;
+        while (s + 1 < this.segments.length && this.bases[s + 1] <= docID) // skip empty segments
+            s++;
+        return s;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The components are mapped in every segment.
+     */
+    @Override
+    public void preload(String... components) throws IOException
+    {
+        for (Index segment : this.segments)
+            segment.preload(components);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The files of every segment are unmapped.
+     */
+    @Override
+    public void close()
+    {
+        for (Index segment : this.segments)
+            segment.close();
+        this.documentCache.clear();
+    }
+
+    /**
+     * Checks whether a document has been deleted.
+     *
+     * @param docID the ID of the document.
+     * @return {@code true} if the document is deleted and {@code false} otherwise.
+     */
+    public boolean isDeleted(int docID)
+    {
+        int s = this.getSegment(docID);
+        return this.deleted[s] != null && this.deleted[s].get(docID - this.bases[s]);
+    }
+
+    /**
+     * Returns the number of segments in the index.
+     *
+     * @return the number of segments.
+     */
+    public int getSegmentCount()
+    {
+        return this.segments.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getTermCount()
+    {
+        return this.idfs.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Deleted documents are included until their segment is merged.
+     */
+    @Override
+    public int getDocumentCount()
+    {
+        return this.bases[this.segments.length];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Tuple<Integer, Double> getTerm(String term)
+    {
+        for (int s = 0; s < this.segments.length; s++) {
+            Tuple<Integer, Double> local = this.segments[s].getTerm(term);
+            if (local != null) {
+                int termID = this.globalTermIDs[s][local.item1];
+                return new Tuple<>(termID, this.idfs[termID]);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Global {@code termID}s follow the merged order of the segment vocabularies, so the range is looked up in each
+     * segment and mapped onto the global {@code termID}s.
+     */
+    @Override
+    public Tuple<Integer, Integer> getTermRange(String prefix)
+    {
+        // The bounds are the first global terms not less than the prefix and than all terms with it, in any segment
+        int from = this.getTermCount(), to = this.getTermCount();
+        for (int s = 0; s < this.segments.length; s++) {
+            Tuple<Integer, Integer> local = this.segments[s].getTermRange(prefix);
+            if (local.item1 < this.globalTermIDs[s].length)
+                from = Math.min(from, this.globalTermIDs[s][local.item1]);
+            if (local.item2 < this.globalTermIDs[s].length)
+                to = Math.min(to, this.globalTermIDs[s][local.item2]);
+        }
+        return new Tuple<>(from, to);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getTermName(int termID)
+    {
+        for (int s = 0; s < this.segments.length; s++) {
+            int localID = Arrays.binarySearch(this.globalTermIDs[s], termID);
+            if (localID >= 0)
+                return this.segments[s].getTermName(localID);
+        }
+        throw new IllegalArgumentException("Term " + termID + " is not in the index.");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getIDF(int termID)
+    {
+        return this.idfs[termID];
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * It is the sum of the document frequencies in all segments.
+     */
+    @Override
+    public int getDocumentFrequency(int termID)
+    {
+        return this.documentFrequencies[termID];
+    }
+
+    /**
+     * Returns an upper bound of the contribution of a term to the similarity of any document. Norms are computed at
+     * query time, so no finite bound is known and retrieval models that skip documents score them all.
+     *
+     * @param termID the ID of the term.
+     * @return positive infinity.
+     */
+    @Override
+    public double getMaxWeight(int termID)
+    {
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getDocumentName(int docID)
+    {
+        int s = this.getSegment(docID);
+        return this.segments[s].getDocumentName(docID - this.bases[s]);
+    }
+
+    /**
+     * Returns the vector norm of a document, computed from its direct postings with the global IDF of its terms the
+     * first time it is requested.
+     *
+     * @param docID the ID of the document.
+     * @return the norm of the document.
+     */
+    @Override
+    public double getDocumentNorm(int docID)
+    {
+        long bits = this.norms.get(docID);
+        if (bits != 0)
+            return Double.longBitsToDouble(bits);
+
+        double norm = 0;
+        PostingsIterator postings = this.getDirectPostings(docID);
+        while (postings.next())
+            norm += postings.getWeight() * postings.getWeight();
+        norm = Math.sqrt(norm);
+        this.norms.set(docID, Double.doubleToRawLongBits(norm)); // concurrent computations store the same value
+        return norm;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getDocumentLength(int docID)
+    {
+        int s = this.getSegment(docID);
+        return this.segments[s].getDocumentLength(docID - this.bases[s]);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Postings of deleted documents are skipped.
+     */
+    @Override
+    public PostingsIterator getPostings(int termID)
+    {
+        return new InvertedIterator(this.getSegmentPostings(termID), this.idfs[termID]);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * They are read from the inverted index of each segment, skipping the postings of deleted documents.
+     */
+    @Override
+    public PostingsIterator getFrequencies(int termID)
+    {
+        return new InvertedIterator(this.getSegmentPostings(termID), Double.NaN)
+        {
+            @Override
+            protected double computeWeight(double count)
+            {
+                return count;
+            }
+        };
+    }
+
+    /**
+     * Returns the postings of a term in the inverted index of each segment.
+     *
+     * @param termID the global ID of the term.
+     * @return the postings of the term in each segment, or {@code null} for the segments without the term.
+     */
+    protected PostingsIterator[] getSegmentPostings(int termID)
+    {
+        int numSegments = this.segments.length;
+        PostingsIterator[] cursors = new PostingsIterator[numSegments];
+        for (int s = 0; s < numSegments; s++) {
+            int localID = Arrays.binarySearch(this.globalTermIDs[s], termID);
+            if (localID >= 0)
+                cursors[s] = this.segments[s].getFrequencies(localID);
+        }
+        return cursors;
+    }
+
+    /**
+     * Impacts depend on global statistics that change as segments are added, so segmented indexes have none.
+     *
+     * @return {@code false}.
+     */
+    @Override
+    public boolean hasImpacts()
+    {
+        return false;
+    }
+
+    /**
+     * Segmented indexes have no impacts.
+     *
+     * @param termID the ID of the term.
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public ImpactIterator getImpacts(int termID)
+    {
+        throw new UnsupportedOperationException("Segmented indexes have no impacts.");
+    }
+
+    /**
+     * Segmented indexes have no impacts.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void writeImpacts(double k1, double b)
+    {
+        throw new UnsupportedOperationException("Segmented indexes have no impacts.");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PostingsIterator getDirectPostings(int docID)
+    {
+        int s = this.getSegment(docID);
+        return new DirectIterator(this.segments[s].getDirectPostings(docID - this.bases[s]), this.globalTermIDs[s]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Tuple<String, String> getCachedDocument(int docID) throws Exception
+    {
+        Tuple<String, String> doc = this.documentCache.get(docID);
+        if (doc == null) {
+            int s = this.getSegment(docID);
+            doc = this.segments[s].getCachedDocument(docID - this.bases[s]);
+            this.documentCache.put(docID, doc);
+        }
+        return doc;
+    }
+
+    /**
+     * Segmented indexes are modified with a {@link SegmentedIndexWriter}.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void save()
+    {
+        throw new UnsupportedOperationException("Segmented indexes are modified with a SegmentedIndexWriter.");
+    }
+
+    /**
+     * Segmented indexes are modified with a {@link SegmentedIndexWriter}.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void loadLegacy(String legacyPath)
+    {
+        throw new UnsupportedOperationException("Segmented indexes are modified with a SegmentedIndexWriter.");
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * It also prints the number of segments and deleted documents.
+     */
+    @Override
+    public void printStatistics()
+    {
+        super.printStatistics();
+
+        DecimalFormat df = new DecimalFormat("#.##");
+        int deletedCount = 0;
+        long size = 0;
+        for (SegmentManifest.SegmentInfo info : this.manifest.segments) {
+            deletedCount += info.deletedCount;
+            File[] files = new File(this.path, info.name).listFiles();
+            if (files != null)
+                for (File file : files)
+                    size += file.length();
+        }
+        System.err.println("  - Segments: " + this.segments.length + " (" + df.format(size / 1024d / 1024d) + " MB), with "
+                + deletedCount + " deleted documents.");
+    }
+
+    /**
+     * An iterator over the postings of a term in all segments, in {@code docID} order, skipping deleted documents.
+     */
+    protected class InvertedIterator implements PostingsIterator
+    {
+        protected final PostingsIterator[] cursors;
+        protected final double idf;
+        protected int segment;
+        protected int docID;
+        protected double weight;
+
+        public InvertedIterator(PostingsIterator[] cursors, double idf)
+        {
+            this.cursors = cursors;
+            this.idf = idf;
+            this.segment = 0;
+            this.docID = -1;
+        }
+
+        @Override
+        public int size()
+        {
+            int size = 0;
+            for (PostingsIterator cursor : this.cursors)
+                if (cursor != null)
+                    size += cursor.size();
+            return size;
+        }
+
+        @Override
+        public boolean next()
+        {
+            for (; this.segment < this.cursors.length; this.segment++) {
+                PostingsIterator cursor = this.cursors[this.segment];
+                if (cursor == null)
+                    continue;
+                BitSet segmentDeleted = SegmentedIndex.this.deleted[this.segment];
+                while (cursor.next()) {
+                    int localID = cursor.getID();
+                    if (segmentDeleted == null || !segmentDeleted.get(localID)) {
+                        this.docID = SegmentedIndex.this.bases[this.segment] + localID;
+                        this.weight = this.computeWeight(cursor.getWeight());
+                        return true;
+                    }
+                }
+            }
+            this.docID = Integer.MAX_VALUE;
+            return false;
+        }
+
+        @Override
+        public int getID()
+        {
+            return this.docID;
+        }
+
+        @Override
+        public double getWeight()
+        {
+            return this.weight;
+        }
+
+        /**
+         * Computes the weight of a posting from the number of occurrences stored in the segment.
+         *
+         * @param count the number of occurrences.
+         * @return the weight of the posting.
+         */
+        protected double computeWeight(double count)
+        {
+            return Index.computeTermFrequency((int) count) * this.idf;
+        }
+    }
+
+    /**
+     * An iterator over the postings of a document in its segment, with global {@code termID}s and weights.
+     */
+    protected class DirectIterator implements PostingsIterator
+    {
+        protected final PostingsIterator cursor;
+        protected final int[] termIDs;
+
+        public DirectIterator(PostingsIterator cursor, int[] termIDs)
+        {
+            this.cursor = cursor;
+            this.termIDs = termIDs;
+        }
+
+        @Override
+        public int size()
+        {
+            return this.cursor.size();
+        }
+
+        @Override
+        public boolean next()
+        {
+            return this.cursor.next();
+        }
+
+        @Override
+        public int getID()
+        {
+            return this.termIDs[this.cursor.getID()];
+        }
+
+        @Override
+        public double getWeight()
+        {
+            int termID = this.termIDs[this.cursor.getID()];
+            return Index.computeTermFrequency((int) this.cursor.getWeight()) * SegmentedIndex.this.idfs[termID];
+        }
+    }
+}
@@ -0,0 +1,470 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * This class modifies a {@link SegmentedIndex}: it adds documents in new segments, deletes documents, and merges
+ * segments in the background.
+ * <p>
+ * Documents are identified by name, so adding a document that is already in the index replaces it. Changes become
+ * visible to readers when they are {@link #commit committed}, by atomically replacing the {@link SegmentManifest}.
+ * Segments are never modified: deletions are kept in a bitset per segment, and merges write a new segment with the
+ * live documents of the merged ones. Files no longer referenced are removed one commit later, so that readers that
+ * just read the previous manifest can still open them.
+ * <p>
+ * After each commit, the {@link MergePolicy} is asked for segments to merge among the committed ones, and the merge
+ * runs in a background thread while documents keep being added and deleted. Deletions of merged documents made during
+ * the merge are carried over to the new segment. A finished merge is published with a manifest made of the last
+ * committed state and the merged segment, so changes not committed yet are not published until the next commit. Only
+ * one writer may modify an index at a time.
+ */
+public class SegmentedIndexWriter implements Closeable
+{
+    protected static final Pattern INDEX_FILE = Pattern.compile("segment\\d+(_\\d+\\.del)?|segments\\.tmp");
+
+    protected final File path;
+    protected final DocumentProcessor docProcessor;
+    protected final ExecutorService workers;
+    protected final MergePolicy mergePolicy;
+    protected final ExecutorService merger;
+
+    protected SegmentManifest manifest; // including uncommitted changes
+    protected SegmentManifest committed; // as last written
+    protected HashMap<String, BitSet> deletions; // [segment] -> deleted local docIDs, including uncommitted ones
+    protected HashMap<String, Tuple<String, Integer>> documents; // [docName] -> (segment, local docID)
+    protected HashSet<String> merging;
+    protected Future<?> pendingMerge;
+    protected ArrayList<File> obsoleteFiles; // superseded by the last commit
+    protected ArrayList<File> pendingObsoleteFiles; // superseded by the next commit
+    protected boolean closed;
+
+    /**
+     * Opens a writer for the segmented index in the specified directory, creating it if it does not exist.
+     *
+     * @param path         the index directory.
+     * @param docProcessor the document processor to extract terms from new documents.
+     * @param workers      the workers to analyze new documents, or {@code null} to analyze them in the calling thread.
+     * @param mergePolicy  the policy to choose which segments to merge.
+     * @throws IOException if an error occurs while opening the index.
+     */
+    public SegmentedIndexWriter(File path, DocumentProcessor docProcessor, ExecutorService workers, MergePolicy mergePolicy) throws IOException
+    {
+        this.path = path;
+        this.docProcessor = docProcessor;
+        this.workers = workers;
+        this.mergePolicy = mergePolicy;
+        this.merger = ThreadPools.create(1);
+        this.deletions = new HashMap<>();
+        this.documents = new HashMap<>();
+        this.merging = new HashSet<>();
+        this.pendingMerge = null;
+        this.obsoleteFiles = new ArrayList<>();
+        this.pendingObsoleteFiles = new ArrayList<>();
+        this.closed = false;
+
+        if (!path.exists())
+            path.mkdirs();
+        this.manifest = SegmentManifest.exists(path) ? SegmentManifest.read(path) : new SegmentManifest();
+        this.committed = this.manifest.copy();
+        for (SegmentManifest.SegmentInfo info : this.manifest.segments) {
+            BitSet deleted = info.deletionsFile == null ? new BitSet()
+                    : SegmentManifest.readDeletions(new File(path, info.deletionsFile));
+            this.deletions.put(info.name, deleted);
+            Index segment = this.openSegment(info.name);
+            for (int docID = 0; docID < segment.getDocumentCount(); docID++)
+                if (!deleted.get(docID))
+                    this.documents.put(segment.getDocumentName(docID), new Tuple<>(info.name, docID));
+        }
+        this.removeUnreferencedFiles();
+    }
+
+    /**
+     * Indexes the documents in the given collection as a new segment. Documents already in the index with the same
+     * name are deleted.
+     *
+     * @param pathToCollection path to the original documents directory.
+     * @return the number of documents added.
+     * @throws IOException if an error occurs while indexing the documents.
+     */
+    public int addDocuments(File pathToCollection) throws IOException
+    {
+        String name = this.newSegmentName();
+        File pathToSegment = new File(this.path, name);
+        new SegmentIndexer(pathToSegment, pathToCollection, this.docProcessor, this.workers).run();
+        Index segment = this.openSegment(name);
+        int count = segment.getDocumentCount();
+
+        synchronized (this) {
+            if (count == 0) {
+                this.pendingObsoleteFiles.add(pathToSegment);
+                return 0;
+            }
+            this.deletions.put(name, new BitSet());
+            this.manifest.segments.add(new SegmentManifest.SegmentInfo(name, count));
+            for (int docID = 0; docID < count; docID++) {
+                Tuple<String, Integer> previous = this.documents.put(segment.getDocumentName(docID), new Tuple<>(name, docID));
+                if (previous != null)
+                    this.deletions.get(previous.item1).set(previous.item2);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Deletes a document from the index.
+     *
+     * @param docName the name of the document.
+     * @return {@code true} if the document was in the index and {@code false} otherwise.
+     */
+    public synchronized boolean deleteDocument(String docName)
+    {
+        Tuple<String, Integer> location = this.documents.remove(docName);
+        if (location == null)
+            return false;
+        this.deletions.get(location.item1).set(location.item2);
+        return true;
+    }
+
+    /**
+     * Makes all changes visible to readers by writing a new manifest, and starts a background merge if the merge
+     * policy finds one.
+     *
+     * @throws IOException if an error occurs while writing the manifest.
+     */
+    public synchronized void commit() throws IOException
+    {
+        this.writeManifest();
+        this.maybeMerge();
+    }
+
+    /**
+     * Writes the deletions that changed and a new manifest, and removes the files superseded by the previous commit.
+     *
+     * @throws IOException if an error occurs while writing the manifest.
+     */
+    protected synchronized void writeManifest() throws IOException
+    {
+        this.manifest.generation++;
+        for (SegmentManifest.SegmentInfo info : this.manifest.segments) {
+            BitSet deleted = this.deletions.get(info.name);
+            int deletedCount = deleted.cardinality();
+            if (deletedCount != info.deletedCount) {
+                String deletionsFile = info.name + "_" + this.manifest.generation + ".del";
+                SegmentManifest.writeDeletions(new File(this.path, deletionsFile), deleted);
+                if (info.deletionsFile != null)
+                    this.pendingObsoleteFiles.add(new File(this.path, info.deletionsFile));
+                info.deletionsFile = deletionsFile;
+                info.deletedCount = deletedCount;
+            }
+        }
+        this.manifest.write(this.path);
+        this.committed = this.manifest.copy();
+        this.removeObsoleteFiles();
+    }
+
+    /**
+     * Removes the files superseded by the previous manifest, once a new one is written, and waits for another one to
+     * remove those superseded by the new manifest.
+     */
+    protected synchronized void removeObsoleteFiles()
+    {
+        for (File file : this.obsoleteFiles)
+            SegmentedIndexWriter.delete(file);
+        this.obsoleteFiles = this.pendingObsoleteFiles;
+        this.pendingObsoleteFiles = new ArrayList<>();
+    }
+
+    /**
+     * Starts a background merge of committed segments if none is running and the merge policy finds one.
+     */
+    protected synchronized void maybeMerge()
+    {
+        if (this.pendingMerge != null || this.closed)
+            return;
+        ArrayList<SegmentManifest.SegmentInfo> candidates = new ArrayList<>();
+        for (SegmentManifest.SegmentInfo info : this.committed.segments)
+            if (!this.merging.contains(info.name))
+                candidates.add(info);
+        List<SegmentManifest.SegmentInfo> merge = this.mergePolicy.findMerge(candidates);
+        if (merge == null || merge.isEmpty())
+            return;
+
+        ArrayList<SegmentManifest.SegmentInfo> sources = new ArrayList<>(merge);
+        for (SegmentManifest.SegmentInfo info : sources)
+            this.merging.add(info.name);
+        this.pendingMerge = this.merger.submit(() -> {
+            try {
+                this.merge(sources);
+            } catch (Exception ex) {
+                synchronized (this) {
+                    for (SegmentManifest.SegmentInfo info : sources)
+                        this.merging.remove(info.name);
+                    this.pendingMerge = null;
+                }
+                System.err.println("Error merging segments: " + ex.getMessage());
+                throw ex;
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Merges the documents of the given committed segments that are live in the last commit into a new segment, and
+     * publishes it in place of them, along with the last commit only.
+     *
+     * @param sources the segments to merge.
+     * @throws Exception if an error occurs while merging.
+     */
+    protected void merge(List<SegmentManifest.SegmentInfo> sources) throws Exception
+    {
+        String name = this.newSegmentName();
+        BitSet[] snapshot = new BitSet[sources.size()];
+        synchronized (this) {
+            for (int i = 0; i < sources.size(); i++)
+                snapshot[i] = this.readCommittedDeletions(sources.get(i).name);
+        }
+
+        // Copy the live documents with their term counts
+        File pathToSegment = new File(this.path, name);
+        Index merged = new Index(pathToSegment.getPath());
+        int[][] docMap = new int[sources.size()][]; // [source][local docID] -> merged docID
+        for (int i = 0; i < sources.size(); i++) {
+            Index source = this.openSegment(sources.get(i).name);
+            String[] terms = new String[source.getTermCount()];
+            docMap[i] = new int[source.getDocumentCount()];
+            for (int localID = 0; localID < docMap[i].length; localID++) {
+                if (snapshot[i].get(localID))
+                    continue;
+                int docID = merged.documents.size();
+                docMap[i][localID] = docID;
+                merged.documents.add(new Tuple<>(source.getDocumentName(localID), 0d));
+                merged.documentLengths.add(source.getDocumentLength(localID));
+                merged.setCachedDocument(docID, source.getCachedDocument(localID));
+                merged.directIndex.add(new PostingsList());
+
+                PostingsIterator postings = source.getDirectPostings(localID);
+                while (postings.next()) {
+                    int localTermID = postings.getID();
+                    if (terms[localTermID] == null)
+                        terms[localTermID] = source.getTermName(localTermID);
+                    Tuple<Integer, Double> termInfo = merged.vocabulary.get(terms[localTermID]);
+                    if (termInfo == null) {
+                        termInfo = new Tuple<>(merged.vocabulary.size(), 0d);
+                        merged.vocabulary.put(terms[localTermID], termInfo);
+                        merged.invertedIndex.add(new PostingsList());
+                    }
+                    merged.invertedIndex.get(termInfo.item1).add(docID, (int) postings.getWeight());
+                }
+            }
+        }
+        SegmentIndexer.finishSegment(merged);
+        merged.save();
+        int count = merged.documents.size();
+
+        synchronized (this) {
+            // Carry over deletions made during the merge, and point documents to the new segment
+            BitSet deleted = new BitSet();
+            BitSet committedDeleted = new BitSet();
+            for (int i = 0; i < sources.size(); i++) {
+                String sourceName = sources.get(i).name;
+                BitSet current = this.deletions.remove(sourceName);
+                BitSet committedCurrent = this.readCommittedDeletions(sourceName);
+                for (int localID = 0; localID < docMap[i].length; localID++) {
+                    if (snapshot[i].get(localID))
+                        continue;
+                    int docID = docMap[i][localID];
+                    if (committedCurrent.get(localID))
+                        committedDeleted.set(docID);
+                    if (current.get(localID)) {
+                        deleted.set(docID);
+                    } else {
+                        String docName = merged.documents.get(docID).item1;
+                        this.documents.put(docName, new Tuple<>(name, docID));
+                    }
+                }
+            }
+
+            // Publish the last commit with the merged segment in place of the sources
+            long generation = this.manifest.generation + 1;
+            SegmentManifest.SegmentInfo info = null;
+            if (count > 0) {
+                info = new SegmentManifest.SegmentInfo(name, count);
+                if (!committedDeleted.isEmpty()) {
+                    info.deletionsFile = name + "_" + generation + ".del";
+                    info.deletedCount = committedDeleted.cardinality();
+                    SegmentManifest.writeDeletions(new File(this.path, info.deletionsFile), committedDeleted);
+                }
+            } else {
+                this.pendingObsoleteFiles.add(pathToSegment);
+            }
+            for (SegmentManifest.SegmentInfo source : sources) {
+                SegmentManifest.SegmentInfo committedSource = this.committed.segments.get(this.committed.indexOf(source.name));
+                this.merging.remove(source.name);
+                this.pendingObsoleteFiles.add(new File(this.path, source.name));
+                if (committedSource.deletionsFile != null)
+                    this.pendingObsoleteFiles.add(new File(this.path, committedSource.deletionsFile));
+            }
+            SegmentedIndexWriter.replaceSegments(this.committed, sources, info);
+            this.committed.generation = generation;
+            this.committed.counter = this.manifest.counter;
+            this.committed.write(this.path);
+
+            // And keep the uncommitted changes on top of it for the next commit
+            if (info != null) {
+                SegmentManifest.SegmentInfo pendingInfo = new SegmentManifest.SegmentInfo(name, count);
+                pendingInfo.deletionsFile = info.deletionsFile;
+                pendingInfo.deletedCount = info.deletedCount;
+                SegmentedIndexWriter.replaceSegments(this.manifest, sources, pendingInfo);
+                this.deletions.put(name, deleted);
+            } else {
+                SegmentedIndexWriter.replaceSegments(this.manifest, sources, null);
+            }
+            this.manifest.generation = generation;
+            this.removeObsoleteFiles();
+            this.pendingMerge = null;
+            this.maybeMerge();
+        }
+    }
+
+    /**
+     * Replaces some segments of a manifest with another one, placed where the first of them was.
+     *
+     * @param manifest the manifest.
+     * @param sources  the segments to replace.
+     * @param merged   the segment to put in place of them, or {@code null} to just remove them.
+     */
+    protected static void replaceSegments(SegmentManifest manifest, List<SegmentManifest.SegmentInfo> sources,
+                                          SegmentManifest.SegmentInfo merged)
+    {
+        int position = manifest.indexOf(sources.get(0).name);
+        for (SegmentManifest.SegmentInfo source : sources)
+            manifest.segments.remove(manifest.indexOf(source.name));
+        if (merged != null)
+            manifest.segments.add(position, merged);
+    }
+
+    /**
+     * Reads the deletions of a segment as of the last commit.
+     *
+     * @param name the name of the segment.
+     * @return the deleted local docIDs.
+     * @throws IOException if an error occurs while reading the deletions.
+     */
+    protected synchronized BitSet readCommittedDeletions(String name) throws IOException
+    {
+        SegmentManifest.SegmentInfo info = this.committed.segments.get(this.committed.indexOf(name));
+        return info.deletionsFile == null ? new BitSet() : SegmentManifest.readDeletions(new File(this.path, info.deletionsFile));
+    }
+
+    /**
+     * Waits until no merge is running and the merge policy finds no more merges.
+     *
+     * @throws IOException if a merge fails.
+     */
+    public void waitForMerges() throws IOException
+    {
+        while (true) {
+            Future<?> merge;
+            synchronized (this) {
+                this.maybeMerge();
+                merge = this.pendingMerge;
+            }
+            if (merge == null)
+                return;
+            try {
+                merge.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for merges.", ex);
+            } catch (ExecutionException ex) {
+                throw new IOException("Error merging segments.", ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * Waits for pending merges and stops the merge thread. Uncommitted changes are discarded.
+     *
+     * @throws IOException if a merge fails.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            this.waitForMerges();
+        } finally {
+            synchronized (this) {
+                this.closed = true;
+            }
+            this.merger.shutdown();
+        }
+    }
+
+    /**
+     * Reserves the name of a new segment.
+     *
+     * @return the name of the segment.
+     */
+    protected synchronized String newSegmentName()
+    {
+        return "segment" + this.manifest.counter++;
+    }
+
+    /**
+     * Loads one of the segments in the index.
+     *
+     * @param name the name of the segment.
+     * @return the loaded segment.
+     * @throws IOException if an error occurs while loading the segment.
+     */
+    protected Index openSegment(String name) throws IOException
+    {
+        try {
+            return SegmentedIndex.openSegment(new File(this.path, name));
+        } catch (Exception ex) {
+            throw new IOException("Error loading segment " + name + ".", ex);
+        }
+    }
+
+    /**
+     * Removes segments and deletion files left by a writer that did not commit them.
+     */
+    protected void removeUnreferencedFiles()
+    {
+        HashSet<String> referenced = new HashSet<>();
+        for (SegmentManifest.SegmentInfo info : this.manifest.segments) {
+            referenced.add(info.name);
+            if (info.deletionsFile != null)
+                referenced.add(info.deletionsFile);
+        }
+        File[] files = this.path.listFiles();
+        if (files != null)
+            for (File file : files)
+                if (INDEX_FILE.matcher(file.getName()).matches() && !referenced.contains(file.getName()))
+                    SegmentedIndexWriter.delete(file);
+    }
+
+    /**
+     * Deletes a file, or a directory with all its contents.
+     *
+     * @param file the file to delete.
+     */
+    protected static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+            for (File child : children)
+                SegmentedIndexWriter.delete(child);
+        file.delete();
+    }
+}
@@ -0,0 +1,567 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+/**
+ * This class contains the logic to run the retrieval process of the search engine as an HTTP server.
+ * <p>
+ * The index is loaded once and shared by all requests, which are handled concurrently by the given workers, typically
+ * one {@link ThreadPools#VIRTUAL virtual thread} per request. Each query runs on the current {@link IndexSnapshot} of
+ * an {@link IndexHandle}. Queries are sent to {@code /search}, either with a
+ * {@code GET} request and the parameters in the query string, or with a {@code POST} request and the parameters in a
+ * JSON object:
+ * <ul>
+ * <li>{@code q} or {@code query}: the text of the query (required).</li>
+ * <li>{@code k}: the number of documents to return (default {@value #DEFAULT_RESULTS}, at most
+ * {@value #MAX_RESULTS}).</li>
+ * <li>{@code snippets}: whether to return the title and snippet of each document, with the query terms extracted by
+ * the document processor highlighted (default {@code false}).</li>
+ * </ul>
+ * The response is a JSON object with the query, the time it took in milliseconds, and the list of results with their
+ * rank, document name and score, and the title and snippet if requested.
+ * <p>
+ * At most a given number of requests are processed at any time. Further requests are rejected right away with status
+ * {@code 503} and a {@code Retry-After} header, so that an overloaded server sheds load instead of queueing requests
+ * without bound. This also bounds the memory used by queries, since virtual threads are not reused and each request
+ * thus gets its own score accumulators. Requests are only checked once a worker picks them up, so on runtimes
+ * without virtual threads the workers must be a pool of at least one more platform thread than the requests allowed
+ * in flight; otherwise, extra requests wait in the queue of the pool instead of being rejected.
+ * <p>
+ * A {@code POST} request to {@code /reload}, only accepted from the local machine, loads the index again and swaps it
+ * in without interrupting the queries in flight. The JSON object may have a {@code path} member with the directory of
+ * a new index; otherwise the directory of the current index is loaded again.
+ * <p>
+ * A {@code GET} request to {@code /metrics} returns the {@link Metrics#GLOBAL metrics} of the process in the
+ * Prometheus text format, or as JSON with {@code format=json}.
+ */
+public class Server
+{
+	public static final int DEFAULT_PORT = 8080;
+	public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+	protected static final int DEFAULT_RESULTS = 10;
+	protected static final int MAX_RESULTS = 1000;
+	protected static final int MAX_REQUEST_BYTES = 64 * 1024;
+
+	protected RetrievalModel model;
+	protected IndexHandle handle;
+	protected DocumentProcessor docProcessor;
+	protected Semaphore inFlight;
+	protected HttpServer server;
+
+	/**
+	 * Creates a new server using the given model.
+	 *
+	 * @param model        the retrieval model to run queries.
+	 * @param handle       the handle to the index.
+	 * @param docProcessor the processor to extract query terms.
+	 * @param maxInFlight  the maximum number of requests processed at any time.
+	 */
+	public Server(RetrievalModel model, IndexHandle handle, DocumentProcessor docProcessor, int maxInFlight)
+	{
+		this.model = model;
+		this.handle = handle;
+		this.docProcessor = docProcessor;
+		this.inFlight = new Semaphore(maxInFlight);
+	}
+
+	/**
+	 * Starts listening on the given port. Requests are then handled until the server is {@link #stop stopped}.
+	 *
+	 * @param port    the port to listen on, or {@code 0} for any free port.
+	 * @param workers the workers to handle requests.
+	 * @throws IOException if the server cannot listen on the port.
+	 */
+	public void start(int port, ExecutorService workers) throws IOException
+	{
+		this.server = HttpServer.create(new InetSocketAddress(port), 0);
+		this.server.setExecutor(workers);
+		this.server.createContext("/search", this::handle);
+		this.server.createContext("/reload", this::handle);
+		this.server.createContext("/metrics", this::handle);
+		this.server.start();
+	}
+
+	/**
+	 * Returns the port the server is listening on.
+	 *
+	 * @return the port.
+	 */
+	public int getPort()
+	{
+		return this.server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops the server, waiting at most the given time for the requests being processed to finish.
+	 *
+	 * @param delay the maximum time to wait, in seconds.
+	 */
+	public void stop(int delay)
+	{
+		this.server.stop(delay);
+	}
+
+	/**
+	 * Handles a request, unless too many requests are already being processed.
+	 *
+	 * @param exchange the request and its response.
+	 * @throws IOException if an error occurs while sending the response.
+	 */
+	protected void handle(HttpExchange exchange) throws IOException
+	{
+		try {
+			if (!this.inFlight.tryAcquire()) {
+				exchange.getResponseHeaders().set("Retry-After", "1");
+				Server.sendError(exchange, 503, "Too many requests in flight.");
+				return;
+			}
+			try {
+				if (exchange.getHttpContext().getPath().equals("/reload"))
+					this.reload(exchange);
+				else if (exchange.getHttpContext().getPath().equals("/metrics"))
+					this.metrics(exchange);
+				else
+					this.search(exchange);
+			} finally {
+				this.inFlight.release();
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Runs the query of a request and sends the results.
+	 *
+	 * @param exchange the request and its response.
+	 * @throws IOException if an error occurs while sending the response.
+	 */
+	protected void search(HttpExchange exchange) throws IOException
+	{
+		// Read parameters
+		if (!exchange.getRequestURI().getPath().equals("/search")) {
+			Server.sendError(exchange, 404, "Not found.");
+			return;
+		}
+		HashMap<String, String> params;
+		try {
+			switch (exchange.getRequestMethod()) {
+				case "GET":
+					params = Server.parseQueryString(exchange.getRequestURI().getRawQuery());
+					break;
+				case "POST":
+					params = Server.parseJsonObject(Server.readBody(exchange.getRequestBody()));
+					break;
+				default:
+					exchange.getResponseHeaders().set("Allow", "GET, POST");
+					Server.sendError(exchange, 405, "Method not allowed.");
+					return;
+			}
+		} catch (IllegalArgumentException ex) {
+			Server.sendError(exchange, 400, ex.getMessage());
+			return;
+		}
+		String query = params.containsKey("q") ? params.get("q") : params.get("query");
+		if (query == null || query.trim().isEmpty()) {
+			Server.sendError(exchange, 400, "Missing query.");
+			return;
+		}
+		int k = Server.DEFAULT_RESULTS;
+		if (params.containsKey("k")) {
+			try {
+				k = Integer.parseInt(params.get("k"));
+			} catch (NumberFormatException ex) {
+				k = -1;
+			}
+			if (k < 1 || k > Server.MAX_RESULTS) {
+				Server.sendError(exchange, 400, "Invalid number of results: " + params.get("k") + ".");
+				return;
+			}
+		}
+		boolean snippets = Boolean.parseBoolean(params.get("snippets"));
+		ArrayList<String> queryTerms = snippets ? this.docProcessor.processText(query) : null;
+
+		// Run query and format results
+		StringBuilder json = new StringBuilder();
+		try (IndexSnapshot snapshot = this.handle.acquire()) {
+			Index index = snapshot.getIndex();
+			long startTime = System.nanoTime();
+			ArrayList<Tuple<Integer, Double>> results = this.model.runQuery(query, index, this.docProcessor, k);
+			long nanos = System.nanoTime() - startTime;
+			Metrics.QUERY_LATENCY.record(nanos);
+			double took = nanos / 1e6;
+
+			json.append("{\"query\":").append(Server.quote(query));
+			json.append(",\"took\":").append(took);
+			json.append(",\"results\":[");
+			for (int i = 0; i < results.size(); i++) {
+				int docID = results.get(i).item1;
+				if (i > 0)
+					json.append(',');
+				json.append("{\"rank\":").append(i + 1);
+				json.append(",\"doc\":").append(Server.quote(index.getDocumentName(docID)));
+				json.append(",\"score\":").append(results.get(i).item2);
+				if (snippets) {
+					Tuple<String, String> doc = index.getCachedDocument(docID);
+					json.append(",\"title\":").append(Server.quote(doc.item1));
+					json.append(",\"snippet\":").append(Server.quote(Interactive.makeSnippet(queryTerms, doc.item2)));
+				}
+				json.append('}');
+			}
+			json.append("]}");
+		} catch (Exception ex) {
+			Server.sendError(exchange, 500, "Error running query: " + ex + ".");
+			return;
+		}
+		Server.send(exchange, 200, json.toString());
+	}
+
+	/**
+	 * Reloads the index as requested and sends its new statistics.
+	 *
+	 * @param exchange the request and its response.
+	 * @throws IOException if an error occurs while sending the response.
+	 */
+	protected void reload(HttpExchange exchange) throws IOException
+	{
+		// Read parameters
+		if (!exchange.getRequestURI().getPath().equals("/reload")) {
+			Server.sendError(exchange, 404, "Not found.");
+			return;
+		}
+		if (!exchange.getRequestMethod().equals("POST")) {
+			exchange.getResponseHeaders().set("Allow", "POST");
+			Server.sendError(exchange, 405, "Method not allowed.");
+			return;
+		}
+		if (!exchange.getRemoteAddress().getAddress().isLoopbackAddress()) {
+			Server.sendError(exchange, 403, "The index can only be reloaded from the local machine.");
+			return;
+		}
+		HashMap<String, String> params;
+		try {
+			String body = Server.readBody(exchange.getRequestBody());
+			params = body.trim().isEmpty() ? new HashMap<>() : Server.parseJsonObject(body);
+		} catch (IllegalArgumentException ex) {
+			Server.sendError(exchange, 400, ex.getMessage());
+			return;
+		}
+		String path = params.get("path");
+		if (path == null)
+			try (IndexSnapshot snapshot = this.handle.acquire()) {
+				path = snapshot.getIndex().path;
+			}
+		File pathToIndex = new File(path);
+		if (!pathToIndex.isDirectory()) {
+			Server.sendError(exchange, 400, "Index directory does not exist.");
+			return;
+		}
+
+		// Load the new index and swap it in
+		Index index;
+		long startTime = System.nanoTime();
+		try {
+			index = this.handle.reload(pathToIndex);
+		} catch (Exception ex) {
+			Server.sendError(exchange, 500, "Error loading index: " + ex + ".");
+			return;
+		}
+		index.registerMetrics(Metrics.GLOBAL);
+		double took = (System.nanoTime() - startTime) / 1e6;
+		Server.send(exchange, 200, "{\"path\":" + Server.quote(pathToIndex.getPath()) + ",\"took\":" + took
+				+ ",\"documents\":" + index.getDocumentCount() + ",\"terms\":" + index.getTermCount() + "}");
+	}
+
+	/**
+	 * Sends the metrics of the process.
+	 *
+	 * @param exchange the request and its response.
+	 * @throws IOException if an error occurs while sending the response.
+	 */
+	protected void metrics(HttpExchange exchange) throws IOException
+	{
+		if (!exchange.getRequestURI().getPath().equals("/metrics")) {
+			Server.sendError(exchange, 404, "Not found.");
+			return;
+		}
+		if (!exchange.getRequestMethod().equals("GET")) {
+			exchange.getResponseHeaders().set("Allow", "GET");
+			Server.sendError(exchange, 405, "Method not allowed.");
+			return;
+		}
+		HashMap<String, String> params;
+		try {
+			params = Server.parseQueryString(exchange.getRequestURI().getRawQuery());
+		} catch (IllegalArgumentException ex) {
+			Server.sendError(exchange, 400, ex.getMessage());
+			return;
+		}
+		if ("json".equals(params.get("format")))
+			Server.send(exchange, 200, Metrics.GLOBAL.toJson());
+		else
+			Server.send(exchange, 200, "text/plain; version=0.0.4; charset=utf-8", Metrics.GLOBAL.toPrometheus());
+	}
+
+	/**
+	 * Sends a JSON response.
+	 *
+	 * @param exchange the request and its response.
+	 * @param status   the HTTP status code.
+	 * @param json     the body of the response.
+	 * @throws IOException if an error occurs while sending the response.
+	 */
+	protected static void send(HttpExchange exchange, int status, String json) throws IOException
+	{
+		Server.send(exchange, status, "application/json; charset=utf-8", json);
+	}
+
+	/**
+	 * Sends a response with the given content type.
+	 *
+	 * @param exchange    the request and its response.
+	 * @param status      the HTTP status code.
+	 * @param contentType the content type of the body.
+	 * @param body        the body.
+	 * @throws IOException if an error occurs while sending the response.
+	 */
+	protected static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException
+	{
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Sends a JSON response with an error message.
+	 *
+	 * @param exchange the request and its response.
+	 * @param status   the HTTP status code.
+	 * @param message  the error message.
+	 * @throws IOException if an error occurs while sending the response.
+	 */
+	protected static void sendError(HttpExchange exchange, int status, String message) throws IOException
+	{
+		Server.send(exchange, status, "{\"error\":" + Server.quote(message) + "}");
+	}
+
+	/**
+	 * Reads the body of a request, up to {@value #MAX_REQUEST_BYTES} bytes.
+	 *
+	 * @param in the body of the request.
+	 * @return the body as a string.
+	 * @throws IOException if an error occurs while reading the request.
+	 * @throws IllegalArgumentException if the body is too large.
+	 */
+	protected static String readBody(InputStream in) throws IOException
+	{
+		byte[] bytes = in.readNBytes(Server.MAX_REQUEST_BYTES + 1);
+		if (bytes.length > Server.MAX_REQUEST_BYTES)
+			throw new IllegalArgumentException("Request too large.");
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Parses the parameters in the query string of a URI.
+	 *
+	 * @param rawQuery the raw query string, or {@code null} if there is none.
+	 * @return the parameters and their values.
+	 * @throws IllegalArgumentException if the query string is malformed.
+	 */
+	protected static HashMap<String, String> parseQueryString(String rawQuery)
+	{
+		HashMap<String, String> params = new HashMap<>();
+		if (rawQuery == null)
+			return params;
+		for (String param : rawQuery.split("&")) {
+			if (param.isEmpty())
+				continue;
+			int eq = param.indexOf('=');
+			String name = eq < 0 ? param : param.substring(0, eq);
+			String value = eq < 0 ? "" : param.substring(eq + 1);
+			params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+		}
+		return params;
+	}
+
+	/**
+	 * Parses a flat JSON object, whose values are strings, numbers, booleans or {@code null}.
+	 *
+	 * @param json the JSON text.
+	 * @return the members of the object and their values as strings; {@code null} values are left out.
+	 * @throws IllegalArgumentException if the text is not a flat JSON object.
+	 */
+	protected static HashMap<String, String> parseJsonObject(String json)
+	{
+		HashMap<String, String> members = new HashMap<>();
+		int[] pos = {0};
+		Server.expect(json, pos, '{');
+		boolean more = Server.peek(json, pos) != '}';
+		while (more) {
+			String name = Server.parseJsonString(json, pos);
+			Server.expect(json, pos, ':');
+			if (Server.peek(json, pos) == '"') {
+				members.put(name, Server.parseJsonString(json, pos));
+			} else {
+				int start = pos[0];
+				while (pos[0] < json.length() && ",} \t\r\n".indexOf(json.charAt(pos[0])) < 0)
+					pos[0]++;
+				String value = json.substring(start, pos[0]);
+				if (!value.matches("null|true|false|-?[0-9][0-9.eE+-]*"))
+					throw new IllegalArgumentException("Invalid JSON value at position " + start + ".");
+				if (!value.equals("null"))
+					members.put(name, value);
+			}
+			more = Server.peek(json, pos) == ',';
+			if (more)
+				pos[0]++;
+		}
+		Server.expect(json, pos, '}');
+		if (Server.skipSpace(json, pos[0]) != json.length())
+			throw new IllegalArgumentException("Unexpected content after JSON object.");
+		return members;
+	}
+
+	/**
+	 * Parses a JSON string starting at the given position, after any white space.
+	 *
+	 * @param json the JSON text.
+	 * @param pos  the position to start at, updated to the position after the string.
+	 * @return the decoded string.
+	 * @throws IllegalArgumentException if there is no valid string at the position.
+	 */
+	protected static String parseJsonString(String json, int[] pos)
+	{
+		Server.expect(json, pos, '"');
+		StringBuilder sb = new StringBuilder();
+		while (pos[0] < json.length()) {
+			char c = json.charAt(pos[0]++);
+			if (c == '"')
+				return sb.toString();
+			if (c != '\\') {
+				sb.append(c);
+				continue;
+			}
+			if (pos[0] >= json.length())
+				break;
+			c = json.charAt(pos[0]++);
+			switch (c) {
+				case 'b':
+					sb.append('\b');
+					break;
+				case 'f':
+					sb.append('\f');
+					break;
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 't':
+					sb.append('\t');
+					break;
+				case 'u':
+					if (pos[0] + 4 > json.length())
+						throw new IllegalArgumentException("Invalid JSON escape at position " + pos[0] + ".");
+					try {
+						sb.append((char) Integer.parseInt(json.substring(pos[0], pos[0] + 4), 16));
+					} catch (NumberFormatException ex) {
+						throw new IllegalArgumentException("Invalid JSON escape at position " + pos[0] + ".");
+					}
+					pos[0] += 4;
+					break;
+				default:
+					sb.append(c); // \" \\ \/
+			}
+		}
+		throw new IllegalArgumentException("Unterminated JSON string.");
+	}
+
+	/**
+	 * Skips white space and the given character, which must follow it.
+	 *
+	 * @throws IllegalArgumentException if the character is not found.
+	 */
+	protected static void expect(String json, int[] pos, char c)
+	{
+		if (Server.peek(json, pos) != c)
+			throw new IllegalArgumentException("Expected '" + c + "' at position " + pos[0] + " of JSON object.");
+		pos[0]++;
+	}
+
+	/**
+	 * Skips white space and returns the next character, or {@code 0} at the end of the text.
+	 */
+	protected static char peek(String json, int[] pos)
+	{
+		pos[0] = Server.skipSpace(json, pos[0]);
+		return pos[0] < json.length() ? json.charAt(pos[0]) : 0;
+	}
+
+	/**
+	 * Returns the position of the first character that is not white space, from the given position.
+	 */
+	protected static int skipSpace(String json, int pos)
+	{
+		while (pos < json.length() && Character.isWhitespace(json.charAt(pos)))
+			pos++;
+		return pos;
+	}
+
+	/**
+	 * Quotes a string as a JSON string.
+	 *
+	 * @param s the string.
+	 * @return the quoted and escaped string.
+	 */
+	protected static String quote(String s)
+	{
+		StringBuilder sb = new StringBuilder(s.length() + 2);
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"':
+					sb.append("\\\"");
+					break;
+				case '\\':
+					sb.append("\\\\");
+					break;
+				case '\n':
+					sb.append("\\n");
+					break;
+				case '\r':
+					sb.append("\\r");
+					break;
+				case '\t':
+					sb.append("\\t");
+					break;
+				default:
+					if (c < 0x20)
+						sb.append(String.format("\\u%04x", (int) c));
+					else
+						sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
@@ -0,0 +1,492 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * This class represents an index whose documents are partitioned into shards, as built by {@link ShardedIndexer}.
+ * <p>
+ * Each shard is a complete {@link Index} with its own files, holding a contiguous range of documents. The global
+ * {@code docID} of a document is its {@code docID} within its shard plus the number of documents in the previous
+ * shards. Documents are accessed by their global {@code docID}, but terms and postings are local to each shard, so
+ * queries are run on every shard separately, for instance in parallel with a {@link ShardedRetrievalModel}. Each
+ * shard only has the terms of its own documents, and looks up the others in the whole index with
+ * {@link #getCollectionIDF}.
+ * <p>
+ * The shards are listed in a {@code shards} file with the number of shards, terms and documents.
+ */
+public class ShardedIndex extends Index
+{
+    protected static final String MANIFEST = "shards";
+
+    protected Index[] shards;
+    protected int[] bases; // [shard] -> global docID of its first document
+    protected Properties manifest;
+
+    /**
+     * Creates a new sharded index to be loaded from the specified directory.
+     * @param path the directory with the shards.
+     */
+    public ShardedIndex(String path)
+    {
+        super(path);
+    }
+
+    /**
+     * Checks whether a directory has a sharded index.
+     *
+     * @param dir the directory.
+     * @return {@code true} if the directory has a sharded index, or {@code false} otherwise.
+     */
+    public static boolean exists(File dir)
+    {
+        return new File(dir, MANIFEST).isFile();
+    }
+
+    /**
+     * Returns the name of the directory of a shard.
+     *
+     * @param shard the number of the shard.
+     * @return the name of the directory.
+     */
+    public static String getShardName(int shard)
+    {
+        return "shard" + shard;
+    }
+
+    /**
+     * Writes the file that lists the shards of an index, once all the shards are saved.
+     *
+     * @param dir           the index directory.
+     * @param shardCount    the number of shards.
+     * @param termCount     the number of distinct terms in the whole collection.
+     * @param documentCount the number of documents in the whole collection.
+     * @throws IOException if an error occurs while writing the file.
+     */
+    public static void writeManifest(File dir, int shardCount, int termCount, int documentCount) throws IOException
+    {
+        Properties manifest = new Properties();
+        manifest.setProperty("version", Integer.toString(FORMAT_VERSION));
+        manifest.setProperty("shards", Integer.toString(shardCount));
+        manifest.setProperty("terms", Integer.toString(termCount));
+        manifest.setProperty("documents", Integer.toString(documentCount));
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(new File(dir, MANIFEST)), StandardCharsets.UTF_8)) {
+            manifest.store(out, "Index shards");
+        }
+    }
+
+    /**
+     * Loads the shards listed in the index directory, in parallel.
+     * <p>
+     * Each shard is loaded like any other {@link Index}, so its files are only mapped when first needed.
+     *
+     * @throws Exception if an error occurs while loading the index.
+     */
+    @Override
+    public void load() throws Exception
+    {
+        this.manifest = new Properties();
+        try (Reader in = new InputStreamReader(new FileInputStream(new File(this.path, MANIFEST)), StandardCharsets.UTF_8)) {
+            this.manifest.load(in);
+        }
+        int version = Integer.parseInt(this.manifest.getProperty("version", "0"));
+        if (version != FORMAT_VERSION)
+            throw new IOException("File " + MANIFEST + " has format version " + version + " but version "
+                    + FORMAT_VERSION + " is required; rebuild the index.");
+
+        int numShards = Integer.parseInt(this.manifest.getProperty("shards"));
+        this.shards = new Index[numShards];
+        CompletableFuture<?>[] loads = new CompletableFuture<?>[numShards];
+        for (int s = 0; s < numShards; s++) {
+            // Documents are cached by the sharded index, so shards get no cache of their own
+            Index shard = new Index(new File(this.path, ShardedIndex.getShardName(s)).getPath());
+            shard.setDocumentCache(new BoundedCache<>(0, Index::estimateSize));
+            shard.collection = this;
+            this.shards[s] = shard;
+            loads[s] = CompletableFuture.runAsync(() -> {
+                try {
+                    shard.load();
+                } catch (Exception ex) {
+                    throw new CompletionException(ex);
+                }
+            });
+        }
+        try {
+            CompletableFuture.allOf(loads).join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof Exception)
+                throw (Exception) ex.getCause();
+            throw ex;
+        }
+
+        this.bases = new int[numShards + 1];
+        for (int s = 0; s < numShards; s++)
+            this.bases[s + 1] = this.bases[s] + this.shards[s].getDocumentCount();
+        this.documentCache.clear();
+        this.generation = GENERATIONS.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The components are mapped in every shard.
+     */
+    @Override
+    public void preload(String... components) throws IOException
+    {
+        for (Index shard : this.shards)
+            shard.preload(components);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The files of every shard are unmapped.
+     */
+    @Override
+    public void close()
+    {
+        for (Index shard : this.shards)
+            shard.close();
+        this.documentCache.clear();
+    }
+
+    /**
+     * Returns the number of shards in the index.
+     *
+     * @return the number of shards.
+     */
+    public int getShardCount()
+    {
+        return this.shards.length;
+    }
+
+    /**
+     * Returns one of the shards of the index.
+     *
+     * @param shard the number of the shard.
+     * @return the shard.
+     */
+    public Index getShard(int shard)
+    {
+        return this.shards[shard];
+    }
+
+    /**
+     * Returns the global {@code docID} of the first document of a shard.
+     *
+     * @param shard the number of the shard.
+     * @return the global {@code docID} of its first document.
+     */
+    public int getShardBase(int shard)
+    {
+        return this.bases[shard];
+    }
+
+    /**
+     * Returns the shard that holds a document.
+     *
+     * @param docID the global ID of the document.
+     * @return the number of the shard.
+     */
+    protected int findShard(int docID)
+    {
+        int s = Arrays.binarySearch(this.bases, docID);
+        if (s < 0)
+            return -s - 2;
+        while (this.bases[s + 1] == docID) // skip empty shards
+            s++;
+        return s;
+    }
+
+    /**
+     * Returns the number of distinct terms in the whole collection.
+     *
+     * @return the number of terms.
+     */
+    @Override
+    public int getTermCount()
+    {
+        return Integer.parseInt(this.manifest.getProperty("terms"));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getDocumentCount()
+    {
+        return this.bases[this.shards.length];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getAverageDocumentLength()
+    {
+        return this.shards.length > 0 ? this.shards[0].getAverageDocumentLength() : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getDocumentName(int docID)
+    {
+        int s = this.findShard(docID);
+        return this.shards[s].getDocumentName(docID - this.bases[s]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getDocumentNorm(int docID)
+    {
+        int s = this.findShard(docID);
+        return this.shards[s].getDocumentNorm(docID - this.bases[s]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getDocumentLength(int docID)
+    {
+        int s = this.findShard(docID);
+        return this.shards[s].getDocumentLength(docID - this.bases[s]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Tuple<String, String> getCachedDocument(int docID) throws Exception
+    {
+        Tuple<String, String> doc = this.documentCache.get(docID);
+        if (doc == null) {
+            int s = this.findShard(docID);
+            doc = this.shards[s].getCachedDocument(docID - this.bases[s]);
+            this.documentCache.put(docID, doc);
+        }
+        return doc;
+    }
+
+    /**
+     * Terms are local to each shard, so they are looked up in the shards.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public Tuple<Integer, Double> getTerm(String term)
+    {
+        throw new UnsupportedOperationException("Terms of a sharded index are looked up in each shard.");
+    }
+
+    /**
+     * Returns the IDF of a term in the whole collection, from the first shard that has it. Shards only have the terms
+     * of their own documents, but their IDFs are computed over the whole collection.
+     *
+     * @param term the term.
+     * @return the IDF of the term, or {@code 0} if no shard has it.
+     */
+    @Override
+    public double getCollectionIDF(String term)
+    {
+        for (Index shard : this.shards) {
+            Tuple<Integer, Double> termInfo = shard.getTerm(term);
+            if (termInfo != null)
+                return termInfo.item2;
+        }
+        return 0;
+    }
+
+    /**
+     * Terms are local to each shard, so they are looked up in the shards.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public Tuple<Integer, Integer> getTermRange(String prefix)
+    {
+        throw new UnsupportedOperationException("Terms of a sharded index are looked up in each shard.");
+    }
+
+    /**
+     * Terms are local to each shard, so they are looked up in the shards.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public String getTermName(int termID)
+    {
+        throw new UnsupportedOperationException("Terms of a sharded index are looked up in each shard.");
+    }
+
+    /**
+     * Terms are local to each shard, so they are looked up in the shards.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public double getIDF(int termID)
+    {
+        throw new UnsupportedOperationException("Terms of a sharded index are looked up in each shard.");
+    }
+
+    /**
+     * Terms are local to each shard, so they are looked up in the shards.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public int getDocumentFrequency(int termID)
+    {
+        throw new UnsupportedOperationException("Terms of a sharded index are looked up in each shard.");
+    }
+
+    /**
+     * Terms are local to each shard, so they are looked up in the shards.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public double getMaxWeight(int termID)
+    {
+        throw new UnsupportedOperationException("Terms of a sharded index are looked up in each shard.");
+    }
+
+    /**
+     * Terms are local to each shard, so they are looked up in the shards.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public PostingsIterator getPostings(int termID)
+    {
+        throw new UnsupportedOperationException("Terms of a sharded index are looked up in each shard.");
+    }
+
+    /**
+     * Terms are local to each shard, so they are looked up in the shards.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public PostingsIterator getFrequencies(int termID)
+    {
+        throw new UnsupportedOperationException("Terms of a sharded index are looked up in each shard.");
+    }
+
+    /**
+     * Terms are local to each shard, so they are looked up in the shards.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public ImpactIterator getImpacts(int termID)
+    {
+        throw new UnsupportedOperationException("Terms of a sharded index are looked up in each shard.");
+    }
+
+    /**
+     * Terms are local to each shard, so they are looked up in the shards.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public PostingsIterator getDirectPostings(int docID)
+    {
+        throw new UnsupportedOperationException("Terms of a sharded index are looked up in each shard.");
+    }
+
+    /**
+     * Returns whether every shard has precomputed impacts.
+     *
+     * @return {@code true} if all the shards have impacts, or {@code false} otherwise.
+     */
+    @Override
+    public boolean hasImpacts()
+    {
+        for (Index shard : this.shards)
+            if (!shard.hasImpacts())
+                return false;
+        return true;
+    }
+
+    /**
+     * Precomputes the impacts of every shard, with the statistics of the whole collection, so that the scores of
+     * documents in different shards can be compared.
+     *
+     * @param k1 the BM25 term frequency saturation parameter.
+     * @param b  the BM25 length normalization parameter.
+     * @throws IOException if an error occurs while writing the impacts.
+     */
+    @Override
+    public void writeImpacts(double k1, double b) throws IOException
+    {
+        for (Index shard : this.shards)
+            shard.writeImpacts(k1, b);
+        this.generation = GENERATIONS.incrementAndGet();
+    }
+
+    /**
+     * Sharded indexes are built with a {@link ShardedIndexer}.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void save()
+    {
+        throw new UnsupportedOperationException("Sharded indexes are built with a ShardedIndexer.");
+    }
+
+    /**
+     * Sharded indexes are built with a {@link ShardedIndexer}.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void loadLegacy(String legacyPath)
+    {
+        throw new UnsupportedOperationException("Sharded indexes are built with a ShardedIndexer.");
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * It also prints the number of shards.
+     */
+    @Override
+    public void printStatistics()
+    {
+        super.printStatistics();
+        System.err.println("  - Shards: " + this.shards.length + ".");
+    }
+
+    /**
+     * Returns the total size of one of the index files over all shards.
+     *
+     * @param name the name of the file.
+     * @return the size of the file in bytes, or -1 if no shard has it.
+     */
+    @Override
+    protected long getFileSize(String name)
+    {
+        long size = -1;
+        for (Index shard : this.shards) {
+            long shardSize = shard.getFileSize(name);
+            if (shardSize >= 0)
+                size = Math.max(size, 0) + shardSize;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,129 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * This class runs the indexing process of a {@link ShardedIndex}, partitioning the documents into a number of shards.
+ * <p>
+ * Documents are analyzed as in {@link Indexer}, and each is added to one of the shards, which hold contiguous ranges
+ * of documents in the order the files are listed, so that {@code docID}s are the same as in a single index. Each
+ * shard is saved as a complete {@link Index} with its own files, but the IDF of its terms and the statistics for
+ * {@link BM25} are computed over the whole collection, so a document gets the same score in its shard as in a single
+ * index. Each shard only has the terms of its own documents, with their document frequencies in the whole collection;
+ * query terms of other shards are weighted with {@link Index#getCollectionIDF}.
+ */
+public class ShardedIndexer extends Indexer
+{
+    protected Index[] shards;
+    protected int documentCount; // documents added so far
+    protected int expectedDocumentCount; // documents listed in the collection
+    protected HashMap<String, Integer> documentFrequencies; // [term] -> df in the whole collection
+    protected int collectionDocumentCount;
+
+    /**
+     * Creates a new indexer with the given paths and document processor, analyzing documents concurrently with the
+     * given workers and partitioning them into the given number of shards.
+     * @param pathToIndex path to the index directory.
+     * @param pathToCollection path to the original documents directory.
+     * @param docProcessor document processor to extract terms.
+     * @param workers the workers to analyze documents, or {@code null} to analyze them in the calling thread.
+     * @param numShards the number of shards.
+     */
+    public ShardedIndexer(File pathToIndex, File pathToCollection, DocumentProcessor docProcessor, ExecutorService workers, int numShards)
+    {
+        super(pathToIndex, pathToCollection, docProcessor, workers);
+        this.shards = new Index[numShards];
+    }
+
+    /**
+     * Run the indexing process and save each shard to its own directory, {@code shardN}, within the index directory.
+     * @throws IOException if an error occurs while indexing.
+     */
+    @Override
+    public void run() throws IOException
+    {
+        for (int s = 0; s < this.shards.length; s++)
+            this.shards[s] = new Index(new File(this.pathToIndex, ShardedIndex.getShardName(s)).getPath());
+        this.documentCount = 0;
+        this.firstPass(null);
+
+        // Statistics of the whole collection
+        this.documentFrequencies = new HashMap<>();
+        this.collectionDocumentCount = 0;
+        long collectionLength = 0;
+        for (Index shard : this.shards) {
+            for (Map.Entry<String, Tuple<Integer, Double>> term : shard.vocabulary.entrySet())
+                this.documentFrequencies.merge(term.getKey(), shard.invertedIndex.get(term.getValue().item1).size(), Integer::sum);
+            this.collectionDocumentCount += shard.documents.size();
+            for (int length : shard.documentLengths)
+                collectionLength += length;
+        }
+
+        for (int s = 0; s < this.shards.length; s++) {
+            System.err.println("Shard " + s + ":");
+            this.secondPass(this.shards[s]);
+            System.err.print("Saving shard...");
+            this.shards[s].setCollectionStatistics(this.collectionDocumentCount, collectionLength, this.documentFrequencies);
+            long saveTime = System.nanoTime();
+            this.shards[s].save();
+            Indexer.SAVE_TIME.stop(saveTime);
+            this.shards[s] = null; // release its memory before the next one
+            System.err.println("done.");
+        }
+        ShardedIndex.writeManifest(this.pathToIndex, this.shards.length, this.documentFrequencies.size(), this.collectionDocumentCount);
+
+        System.err.println("Index statistics:");
+        ShardedIndex saved = new ShardedIndex(this.pathToIndex.getPath());
+        try {
+            saved.load();
+        } catch (Exception ex) {
+            throw new IOException("Error loading index " + this.pathToIndex + ".", ex);
+        }
+        saved.printStatistics();
+    }
+    /**
+     * {@inheritDoc}
+     * <p>
+     * It also records their number, to assign documents to shards.
+     */
+    @Override
+    protected ArrayList<File> listDocuments()
+    {
+        ArrayList<File> docFiles = super.listDocuments();
+        this.expectedDocumentCount = docFiles.size();
+        return docFiles;
+    }
+    /**
+     * Adds an analyzed document to the shard that holds its range of documents.
+     * @param doc the analyzed document.
+     * @param ind ignored, as the shard is chosen by the number of documents added so far.
+     * @throws IOException if an error occurs while caching this document.
+     */
+    @Override
+    protected void addDocument(AnalyzedDocument doc, Index ind) throws IOException
+    {
+        int shard = (int) Math.min(this.shards.length - 1, (long) this.documentCount * this.shards.length / Math.max(1, this.expectedDocumentCount));
+        this.documentCount++;
+        super.addDocument(doc, this.shards[shard]);
+    }
+    /**
+     * Computes the IDF of a term over the whole collection, rather than over the shard.
+     * @param term the term.
+     * @param df the number of documents in the shard that contain the term.
+     * @param ind the shard.
+     * @return the IDF of the term.
+     */
+    @Override
+    protected double computeIDF(String term, int df, Index ind)
+    {
+        return Index.computeIDF(this.collectionDocumentCount, this.documentFrequencies.get(term));
+    }
+}
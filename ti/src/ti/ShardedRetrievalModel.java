@@ -0,0 +1,90 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link RetrievalModel} that runs another model on every shard of a {@link ShardedIndex} and merges their results.
+ * <p>
+ * Each shard returns its own top {@code k} documents, which are then mapped to global {@code docID}s and merged into
+ * the overall top {@code k}. Since the shards are scored with the statistics of the whole collection, the results
+ * are the same as with a single index. The first shard is searched in the calling thread, and the others
+ * concurrently in the given workers, which should not be the ones running the queries themselves, so that a query
+ * never waits for a worker busy with another query. A query only returns, normally or with an exception, once no
+ * shard is being searched for it anymore, so the index can be closed right after.
+ * <p>
+ * Indexes that are not sharded are searched directly with the wrapped model.
+ */
+public class ShardedRetrievalModel implements RetrievalModel
+{
+	protected RetrievalModel model;
+	protected ExecutorService workers;
+
+	/**
+	 * Creates a new sharded model.
+	 *
+	 * @param model   the model to run on every shard.
+	 * @param workers the workers to search the shards, or {@code null} to search them one after the other in the
+	 *                calling thread.
+	 */
+	public ShardedRetrievalModel(RetrievalModel model, ExecutorService workers)
+	{
+		this.model = model;
+		this.workers = workers;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ArrayList<Tuple<Integer, Double>> runQuery(String queryText, Index index, DocumentProcessor docProcessor, int k)
+	{
+		if (!(index instanceof ShardedIndex))
+			return this.model.runQuery(queryText, index, docProcessor, k);
+		ShardedIndex sharded = (ShardedIndex) index;
+		int numShards = sharded.getShardCount();
+
+		// Fan out to all shards but the first, which is searched meanwhile in this thread
+		ArrayList<CompletableFuture<ArrayList<Tuple<Integer, Double>>>> pending = new ArrayList<>();
+		AtomicBoolean abandoned = new AtomicBoolean();
+		boolean completed = false;
+		TopKHeap topK = new TopKHeap(k);
+		try {
+			for (int s = 1; s < numShards && this.workers != null; s++) {
+				Index shard = sharded.getShard(s);
+				pending.add(CompletableFuture.supplyAsync(() -> abandoned.get() ? null
+						: this.model.runQuery(queryText, shard, docProcessor, k), this.workers));
+			}
+
+			for (int s = 0; s < numShards; s++) {
+				ArrayList<Tuple<Integer, Double>> results;
+				if (s == 0 || this.workers == null)
+					results = this.model.runQuery(queryText, sharded.getShard(s), docProcessor, k);
+				else
+					results = pending.get(s - 1).join();
+				int base = sharded.getShardBase(s);
+				for (Tuple<Integer, Double> result : results)
+					topK.offer(base + result.item1, result.item2);
+			}
+			completed = true;
+		} finally {
+			if (!completed) {
+				// The caller may close the index as soon as this returns, so no shard may still be searched then
+				abandoned.set(true);
+				for (CompletableFuture<ArrayList<Tuple<Integer, Double>>> future : pending) {
+					try {
+						future.join();
+					} catch (RuntimeException ex) {
+						// Already failing with the first error
+					}
+				}
+			}
+		}
+		return topK.toList();
+	}
+}
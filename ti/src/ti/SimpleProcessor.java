@@ -3,15 +3,15 @@
 
 package ti;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-
 /**
  * A very simple document processor.
+ * <p>
+ * Terms are the lowercased sequences of letters, digits and apostrophes longer than 4 characters.
  */
 public class SimpleProcessor implements DocumentProcessor
 {
+    protected static final int MIN_TERM_LENGTH = 5;
+
     public SimpleProcessor()
     {
     }
@@ -27,16 +27,19 @@ public class SimpleProcessor implements DocumentProcessor
     /**
      * {@inheritDoc}
      */
-    public ArrayList<String> processText(String text)
+    public void processText(String text, TermConsumer consumer)
     {
-    	//System.err.print("processing text in simple processor");
-        List<String> tokens = Arrays.asList(text.toLowerCase().replaceAll("[^a-z0-9']", " ").split("\\s+"));
-
-        ArrayList<String> terms = new ArrayList<>();
-        for (String token : tokens)
-            if (token.length() > 4)
-                terms.add(token);
-
-        return terms;
+        TermBuffer token = TermBuffer.get();
+        int length = text.length();
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? Character.toLowerCase(text.charAt(i)) : ' ';
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '\'') {
+                token.append(c);
+            } else if (token.length > 0) {
+                if (token.length >= MIN_TERM_LENGTH)
+                    consumer.accept(token.chars, token.length);
+                token.clear();
+            }
+        }
     }
 }
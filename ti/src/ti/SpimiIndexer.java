@@ -0,0 +1,512 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * This class runs the indexing process within a memory budget, with single-pass in-memory indexing (SPIMI).
+ * <p>
+ * Documents are analyzed as in {@link Indexer}, but their postings are collected in a partial inverted index that is
+ * written to disk as a sorted run whenever its estimated size reaches the budget. The runs are then merged, term by
+ * term in sorted order, straight into the index files, so the only structures kept in memory for the whole collection
+ * are the document names and norms.
+ * <p>
+ * The merge reads the runs twice. The first time it computes IDF and document norms, and collects the direct postings
+ * in a buffer that is also spilled to disk as sorted runs. The second time it writes the inverted index and the
+ * vocabulary, whose block bounds need the norms. Finally, the direct runs are merged into the direct index. Only the
+ * postings list of one term is held in memory at a time.
+ */
+public class SpimiIndexer extends Indexer
+{
+    /**
+     * Estimated bytes used by a posting in a partial inverted index: an {@code int} and a {@code double}, plus slack
+     * for the growth of the arrays.
+     */
+    protected static final int POSTING_BYTES = 16;
+    /**
+     * Estimated bytes used by a new term in a partial inverted index, besides its characters: the {@link String}, the
+     * map entry and the {@link PostingsList}.
+     */
+    protected static final int TERM_BYTES = 96;
+    /**
+     * Bytes used by a buffered direct posting: the sort key, the {@code termID} and the weight.
+     */
+    protected static final int DIRECT_POSTING_BYTES = 20;
+
+    protected long memoryBudget;
+    protected File pathToRuns;
+    protected HashMap<String, PostingsList> runPostings;
+    protected long runBytes;
+    protected ArrayList<File> runs;
+
+    /**
+     * Creates a new indexer with the given paths and document processor, analyzing documents concurrently with the
+     * given workers and keeping postings in memory up to the given budget.
+     * @param pathToIndex path to the index directory.
+     * @param pathToCollection path to the original documents directory.
+     * @param docProcessor document processor to extract terms.
+     * @param workers the workers to analyze documents, or {@code null} to analyze them in the calling thread.
+     * @param memoryBudget the estimated number of bytes of postings to keep in memory before writing a run.
+     */
+    public SpimiIndexer(File pathToIndex, File pathToCollection, DocumentProcessor docProcessor, ExecutorService workers, long memoryBudget)
+    {
+        super(pathToIndex, pathToCollection, docProcessor, workers);
+        this.memoryBudget = memoryBudget;
+        this.pathToRuns = new File(pathToIndex, "runs");
+        this.runPostings = new HashMap<>();
+        this.runBytes = 0;
+        this.runs = new ArrayList<>();
+    }
+
+    /**
+     * Run the indexing process, writing partial runs and merging them into the index files.
+     * @throws IOException if an error occurs while indexing.
+     */
+    @Override
+    public void run() throws IOException
+    {
+        Index ind = new Index(this.pathToIndex.getPath());
+        this.pathToRuns.mkdirs();
+        try {
+            this.firstPass(ind);
+            this.flushRun();
+            long saveTime = System.nanoTime();
+            this.mergeRuns(ind);
+            Indexer.SAVE_TIME.stop(saveTime);
+        } finally {
+            for (File run : this.pathToRuns.listFiles())
+                run.delete();
+            this.pathToRuns.delete();
+        }
+
+        System.err.println("Index statistics:");
+        Index saved = new Index(this.pathToIndex.getPath());
+        try {
+            saved.load();
+        } catch (Exception ex) {
+            throw new IOException("Error loading index " + this.pathToIndex + ".", ex);
+        }
+        saved.printStatistics();
+    }
+    /**
+     * Adds an analyzed document to the partial inverted index, and writes it as a run if the memory budget is reached.
+     * @param doc the analyzed document.
+     * @param ind the index to add the document to.
+     * @throws IOException if an error occurs while caching this document or writing the run.
+     */
+    @Override
+    protected void addDocument(AnalyzedDocument doc, Index ind) throws IOException
+    {
+        // Add document entries
+        long time = System.nanoTime();
+        int docID = ind.documents.size();
+        ind.documents.add(new Tuple<>(doc.name, 0d));
+        ind.documentLengths.add(doc.termCounts.getTotal());
+        ind.setCachedDocument(docID, new Tuple<>(doc.title, doc.body));
+        time = Indexer.STORE_TIME.stop(time);
+
+        for (int i = 0; i < doc.termCounts.size(); i++) {
+            String term = doc.termCounts.getTerm(i);
+            PostingsList postings = this.runPostings.get(term);
+            if (postings == null) {
+                postings = new PostingsList();
+                this.runPostings.put(term, postings);
+                this.runBytes += TERM_BYTES + 2L * term.length();
+            }
+            postings.add(docID, doc.termCounts.getCount(i));
+            this.runBytes += POSTING_BYTES;
+        }
+
+        if (this.runBytes >= this.memoryBudget)
+            this.flushRun();
+        Indexer.POSTINGS_TIME.stop(time);
+    }
+    /**
+     * Writes the partial inverted index as a new run, with terms sorted by their UTF-8 bytes, and empties it.
+     * <p>
+     * A run is a sequence of {@code termLength:int term:byte[] count:int (docID:int occurrences:double)+}, ended by a term
+     * length of {@code -1}.
+     * @throws IOException if an error occurs while writing the run.
+     */
+    protected void flushRun() throws IOException
+    {
+        if (this.runPostings.isEmpty())
+            return;
+
+        ArrayList<Tuple<byte[], PostingsList>> terms = new ArrayList<>(this.runPostings.size());
+        for (Map.Entry<String, PostingsList> entry : this.runPostings.entrySet())
+            terms.add(new Tuple<>(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue()));
+        terms.sort((t1, t2) -> Index.compareBytes(t1.item1, t2.item1));
+        this.runPostings = new HashMap<>();
+        this.runBytes = 0;
+
+        File runFile = new File(this.pathToRuns, "inverted" + this.runs.size());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), 1 << 16))) {
+            for (Tuple<byte[], PostingsList> term : terms) {
+                out.writeInt(term.item1.length);
+                out.write(term.item1);
+                out.writeInt(term.item2.size());
+                for (int i = 0; i < term.item2.size(); i++) {
+                    out.writeInt(term.item2.getID(i));
+                    out.writeDouble(term.item2.getWeight(i));
+                }
+            }
+            out.writeInt(-1);
+        }
+        this.runs.add(runFile);
+    }
+    /**
+     * Merges the runs into the index files, computing IDF and document norms along the way.
+     * @param ind the index, with the list of documents.
+     * @throws IOException if an error occurs while reading the runs or writing the index.
+     */
+    protected void mergeRuns(Index ind) throws IOException
+    {
+        DecimalFormat df = new DecimalFormat("#.##");
+        long startTime = System.currentTimeMillis();
+        int numDocs = ind.documents.size();
+
+        System.err.println("Merging " + this.runs.size() + " runs...");
+        System.err.print("  Computing document norms and direct postings...");
+        double[] norms = new double[numDocs];
+        DirectBuffer direct = new DirectBuffer(Math.max(1024, (int) Math.min(Integer.MAX_VALUE - 8, this.memoryBudget / DIRECT_POSTING_BYTES)));
+        ArrayList<File> directRuns = new ArrayList<>();
+        try (TermMerger merger = new TermMerger(this.runs)) {
+            for (int termID = 0; merger.next(); termID++) {
+                PostingsList postings = merger.getPostings();
+                double idf = Index.computeIDF(numDocs, postings.size());
+                for (int i = 0; i < postings.size(); i++) {
+                    int docID = postings.getID(i);
+                    int count = (int) postings.getWeight(i);
+                    double weight = Index.computeTermFrequency(count) * idf;
+                    norms[docID] += weight * weight;
+                    if (direct.isFull())
+                        directRuns.add(direct.flush(new File(this.pathToRuns, "direct" + directRuns.size())));
+                    direct.add(docID, termID, count);
+                }
+            }
+        }
+        directRuns.add(direct.flush(new File(this.pathToRuns, "direct" + directRuns.size())));
+        for (int docID = 0; docID < numDocs; docID++)
+            ind.documents.get(docID).item2 = Math.sqrt(norms[docID]);
+        System.err.println("done.");
+
+        System.err.print("  Writing documents, inverted index and vocabulary...");
+        ind.closeDocumentStore();
+        norms = ind.writeDocuments();
+        int termCount = 0;
+        long postingCount = 0;
+        try (TermMerger merger = new TermMerger(this.runs)) {
+            RecordFileWriter inverted = new RecordFileWriter(Paths.get(this.pathToIndex.getPath(), "inverted").toFile(), Index.INVERTED_MAGIC, Index.FORMAT_VERSION);
+            TermDictionaryWriter vocabulary = new TermDictionaryWriter(Paths.get(this.pathToIndex.getPath(), "vocabulary").toFile(), Index.FORMAT_VERSION);
+            while (merger.next()) {
+                PostingsList postings = merger.getPostings();
+                double idf = Index.computeIDF(numDocs, postings.size());
+                inverted.nextRecord();
+                float maxWeight = PostingsCodec.write(postings, idf, norms, inverted.getOutput());
+                vocabulary.add(merger.getTerm(), postings.size(), maxWeight);
+                termCount++;
+                postingCount += postings.size();
+            }
+            inverted.close();
+            vocabulary.close();
+        }
+        System.err.println("done.");
+
+        System.err.print("  Writing direct index...");
+        this.mergeDirectRuns(directRuns, numDocs);
+        ind.writeStatistics(termCount, numDocs, postingCount);
+        System.err.println("done.");
+
+        long endTime = System.currentTimeMillis();
+        double totalTime = (endTime - startTime) / 1000d;
+        System.err.println("...done:");
+        System.err.println("  - Terms: " + termCount + ".");
+        System.err.println("  - Time: " + df.format(totalTime) + " seconds.");
+    }
+    /**
+     * Merges the direct runs into the direct index, with one postings list per document, sorted by {@code termID}.
+     * @param directRuns the direct runs, in the order they were written.
+     * @param numDocs the number of documents in the index.
+     * @throws IOException if an error occurs while reading the runs or writing the index.
+     */
+    protected void mergeDirectRuns(ArrayList<File> directRuns, int numDocs) throws IOException
+    {
+        // Runs were written in termID order, so ties on docID are resolved by run number
+        PriorityQueue<DirectRunReader> queue = new PriorityQueue<>((r1, r2) ->
+                r1.docID != r2.docID ? Integer.compare(r1.docID, r2.docID) : Integer.compare(r1.number, r2.number));
+        ArrayList<DirectRunReader> readers = new ArrayList<>();
+        RecordFileWriter writer = new RecordFileWriter(Paths.get(this.pathToIndex.getPath(), "direct").toFile(), Index.DIRECT_MAGIC, Index.FORMAT_VERSION);
+        try {
+            for (int i = 0; i < directRuns.size(); i++) {
+                DirectRunReader reader = new DirectRunReader(directRuns.get(i), i);
+                readers.add(reader);
+                if (reader.next())
+                    queue.add(reader);
+            }
+
+            for (int docID = 0; docID < numDocs; docID++) {
+                PostingsList postings = new PostingsList();
+                while (!queue.isEmpty() && queue.peek().docID == docID) {
+                    DirectRunReader reader = queue.poll();
+                    boolean more;
+                    do {
+                        postings.add(reader.termID, reader.weight);
+                    } while ((more = reader.next()) && reader.docID == docID);
+                    if (more)
+                        queue.add(reader);
+                }
+                writer.nextRecord();
+                PostingsCodec.write(postings, writer.getOutput());
+            }
+        } finally {
+            writer.close();
+            for (DirectRunReader reader : readers)
+                reader.close();
+        }
+    }
+
+    /**
+     * A buffer of direct postings, collected in {@code termID} order and written to disk sorted by {@code docID}.
+     */
+    protected static class DirectBuffer
+    {
+        protected final long[] keys; // docID << 32 | position
+        protected final int[] termIDs;
+        protected final double[] weights;
+        protected int size;
+
+        public DirectBuffer(int capacity)
+        {
+            this.keys = new long[capacity];
+            this.termIDs = new int[capacity];
+            this.weights = new double[capacity];
+            this.size = 0;
+        }
+
+        public boolean isFull()
+        {
+            return this.size == this.keys.length;
+        }
+
+        public void add(int docID, int termID, double weight)
+        {
+            this.keys[this.size] = ((long) docID << 32) | this.size;
+            this.termIDs[this.size] = termID;
+            this.weights[this.size] = weight;
+            this.size++;
+        }
+
+        /**
+         * Writes the buffered postings sorted by {@code docID} and then {@code termID}, and empties the buffer.
+         * <p>
+         * A direct run is a sequence of {@code docID:int termID:int weight:double}, ended by a {@code docID} of
+         * {@code -1}.
+         * @param runFile the file to write.
+         * @return the file written.
+         * @throws IOException if an error occurs while writing the run.
+         */
+        public File flush(File runFile) throws IOException
+        {
+            // Postings were added in termID order, so sorting by position breaks docID ties by termID
+            Arrays.sort(this.keys, 0, this.size);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), 1 << 16))) {
+                for (int i = 0; i < this.size; i++) {
+                    int position = (int) this.keys[i];
+                    out.writeInt((int) (this.keys[i] >>> 32));
+                    out.writeInt(this.termIDs[position]);
+                    out.writeDouble(this.weights[position]);
+                }
+                out.writeInt(-1);
+            }
+            this.size = 0;
+            return runFile;
+        }
+    }
+
+    /**
+     * A sequential reader of a direct run.
+     */
+    protected static class DirectRunReader implements Closeable
+    {
+        protected final DataInputStream in;
+        protected final int number;
+        public int docID;
+        public int termID;
+        public double weight;
+
+        public DirectRunReader(File runFile, int number) throws IOException
+        {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), 1 << 16));
+            this.number = number;
+        }
+
+        /**
+         * Reads the next posting.
+         * @return {@code true} if there is such posting and {@code false} if the end of the run was reached.
+         * @throws IOException if an error occurs while reading the run.
+         */
+        public boolean next() throws IOException
+        {
+            this.docID = this.in.readInt();
+            if (this.docID < 0)
+                return false;
+            this.termID = this.in.readInt();
+            this.weight = this.in.readDouble();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            this.in.close();
+        }
+    }
+
+    /**
+     * A k-way merge of inverted runs, which iterates the terms in sorted order with their complete postings list.
+     */
+    protected static class TermMerger implements Closeable
+    {
+        protected final ArrayList<InvertedRunReader> readers;
+        protected final PriorityQueue<InvertedRunReader> queue;
+        protected byte[] term;
+        protected PostingsList postings;
+
+        public TermMerger(ArrayList<File> runs) throws IOException
+        {
+            // Runs cover increasing docIDs, so ties on the term are resolved by run number
+            this.queue = new PriorityQueue<>((r1, r2) -> {
+                int cmp = Index.compareBytes(r1.term, r2.term);
+                return cmp != 0 ? cmp : Integer.compare(r1.number, r2.number);
+            });
+            this.readers = new ArrayList<>();
+            try {
+                for (int i = 0; i < runs.size(); i++) {
+                    InvertedRunReader reader = new InvertedRunReader(runs.get(i), i);
+                    this.readers.add(reader);
+                    if (reader.nextTerm())
+                        this.queue.add(reader);
+                }
+            } catch (IOException ex) {
+                this.close();
+                throw ex;
+            }
+        }
+
+        /**
+         * Moves to the next term in sorted order, and reads its postings from all runs.
+         * @return {@code true} if there is such term and {@code false} if all runs are exhausted.
+         * @throws IOException if an error occurs while reading the runs.
+         */
+        public boolean next() throws IOException
+        {
+            if (this.queue.isEmpty())
+                return false;
+
+            ArrayList<InvertedRunReader> current = new ArrayList<>();
+            this.term = this.queue.peek().term;
+            int df = 0;
+            while (!this.queue.isEmpty() && Arrays.equals(this.queue.peek().term, this.term)) {
+                InvertedRunReader reader = this.queue.poll();
+                current.add(reader);
+                df += reader.count;
+            }
+
+            this.postings = new PostingsList(df);
+            for (InvertedRunReader reader : current) {
+                reader.readPostings(this.postings);
+                if (reader.nextTerm())
+                    this.queue.add(reader);
+            }
+            return true;
+        }
+
+        /**
+         * Returns the UTF-8 bytes of the current term.
+         * @return the current term.
+         */
+        public byte[] getTerm()
+        {
+            return this.term;
+        }
+
+        /**
+         * Returns the postings list of the current term, with the number of occurrences in each document as weight.
+         * @return the postings of the current term.
+         */
+        public PostingsList getPostings()
+        {
+            return this.postings;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            for (InvertedRunReader reader : this.readers)
+                reader.close();
+        }
+    }
+
+    /**
+     * A sequential reader of an inverted run.
+     */
+    protected static class InvertedRunReader implements Closeable
+    {
+        protected final DataInputStream in;
+        protected final int number;
+        public byte[] term;
+        public int count;
+
+        public InvertedRunReader(File runFile, int number) throws IOException
+        {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), 1 << 16));
+            this.number = number;
+        }
+
+        /**
+         * Reads the next term and the length of its postings list, which must then be read with
+         * {@link #readPostings}.
+         * @return {@code true} if there is such term and {@code false} if the end of the run was reached.
+         * @throws IOException if an error occurs while reading the run.
+         */
+        public boolean nextTerm() throws IOException
+        {
+            int length = this.in.readInt();
+            if (length < 0)
+                return false;
+            this.term = new byte[length];
+            this.in.readFully(this.term);
+            this.count = this.in.readInt();
+            return true;
+        }
+
+        /**
+         * Reads the postings of the current term, appending them to the given list.
+         * @param postings the list to append to.
+         * @throws IOException if an error occurs while reading the run.
+         */
+        public void readPostings(PostingsList postings) throws IOException
+        {
+            for (int i = 0; i < this.count; i++)
+                postings.add(this.in.readInt(), this.in.readDouble());
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            this.in.close();
+        }
+    }
+}
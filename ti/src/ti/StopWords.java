@@ -0,0 +1,100 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+/**
+ * This class represents a set of stopwords, loaded once in an open-addressing hash table with linear probing.
+ * <p>
+ * Lookups take a {@code char[]} buffer, so checking a token does not require creating a {@link String} for it.
+ */
+public class StopWords
+{
+    protected final String[] table;
+    protected final int mask;
+    protected final int size;
+
+    /**
+     * Loads the stopwords in the specified file, one per line.
+     *
+     * @param pathToStopWords the path to the file with stopwords, or {@code null} for an empty set.
+     * @throws IOException if an error occurs while reading the file.
+     */
+    public StopWords(File pathToStopWords) throws IOException
+    {
+        ArrayList<String> words = new ArrayList<>();
+        if (pathToStopWords != null) {
+            try (BufferedReader reader = Files.newBufferedReader(pathToStopWords.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null)
+                    words.add(line);
+            }
+        }
+
+        int capacity = Integer.highestOneBit(Math.max(words.size(), 1) * 2) * 2;
+        this.table = new String[capacity];
+        this.mask = capacity - 1;
+        int count = 0;
+        for (String word : words) {
+            int slot = word.hashCode() & this.mask;
+            while (this.table[slot] != null && !this.table[slot].equals(word))
+                slot = (slot + 1) & this.mask;
+            if (this.table[slot] == null) {
+                this.table[slot] = word;
+                count++;
+            }
+        }
+        this.size = count;
+    }
+
+    /**
+     * Checks whether the term in the given buffer is a stopword.
+     *
+     * @param buffer the buffer with the characters of the term.
+     * @param length the number of characters of the term, starting at the beginning of the buffer.
+     * @return {@code true} if the term is a stopword and {@code false} otherwise.
+     */
+    public boolean contains(char[] buffer, int length)
+    {
+        // Same hash as String.hashCode
+        int hash = 0;
+        for (int i = 0; i < length; i++)
+            hash = 31 * hash + buffer[i];
+
+        int slot = hash & this.mask;
+        String word;
+        while ((word = this.table[slot]) != null) {
+            if (StopWords.equals(word, buffer, length))
+                return true;
+            slot = (slot + 1) & this.mask;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of stopwords in the set.
+     *
+     * @return the number of stopwords.
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    protected static boolean equals(String word, char[] buffer, int length)
+    {
+        if (word.length() != length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (word.charAt(i) != buffer[i])
+                return false;
+        return true;
+    }
+}
@@ -0,0 +1,66 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.util.Arrays;
+
+/**
+ * This class represents a growable buffer of characters where a {@link DocumentProcessor} builds the current token.
+ * <p>
+ * Buffers are meant to be reused for all the tokens processed in the same thread; see {@link #get}.
+ */
+public class TermBuffer
+{
+    private static final ThreadLocal<TermBuffer> BUFFERS = ThreadLocal.withInitial(TermBuffer::new);
+
+    /**
+     * The characters in the buffer. Only the first {@link #length} are valid.
+     */
+    public char[] chars;
+    /**
+     * The number of characters in the buffer.
+     */
+    public int length;
+
+    /**
+     * Creates a new empty buffer.
+     */
+    public TermBuffer()
+    {
+        this.chars = new char[32];
+        this.length = 0;
+    }
+
+    /**
+     * Returns the buffer of the current thread, emptied.
+     *
+     * @return the buffer.
+     */
+    public static TermBuffer get()
+    {
+        TermBuffer buffer = BUFFERS.get();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Appends a character to the buffer, growing it if necessary.
+     *
+     * @param c the character to append.
+     */
+    public void append(char c)
+    {
+        if (this.length == this.chars.length)
+            this.chars = Arrays.copyOf(this.chars, this.chars.length * 2);
+        this.chars[this.length++] = c;
+    }
+
+    /**
+     * Empties the buffer.
+     */
+    public void clear()
+    {
+        this.length = 0;
+    }
+}
@@ -0,0 +1,21 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+/**
+ * This interface defines a callback that receives the terms extracted by a {@link DocumentProcessor}.
+ */
+public interface TermConsumer
+{
+	/**
+	 * Receives the next term.
+	 * <p>
+	 * The buffer belongs to the processor and is reused for the next term, so its contents must be copied if they are
+	 * needed after this method returns.
+	 *
+	 * @param buffer the buffer with the characters of the term.
+	 * @param length the number of characters of the term, starting at the beginning of the buffer.
+	 */
+	void accept(char[] buffer, int length);
+}
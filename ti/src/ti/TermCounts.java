@@ -0,0 +1,155 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.util.Arrays;
+
+/**
+ * This class represents the histogram of term frequencies of a text, filled in one pass as a {@link TermConsumer}.
+ * <p>
+ * Distinct terms are numbered in order of first occurrence, and their counts are kept in a primitive array. They are
+ * found through an open-addressing hash table with linear probing, so counting a term already seen does not create a
+ * {@link String} for it.
+ */
+public class TermCounts implements TermConsumer
+{
+    protected static final int INITIAL_CAPACITY = 16;
+
+    protected String[] terms;
+    protected int[] counts;
+    protected int[] hashes;
+    protected int size;
+    protected int total;
+    protected int[] table; // slot -> term number + 1, or 0 if empty
+    protected int mask;
+
+    /**
+     * Creates a new empty histogram.
+     */
+    public TermCounts()
+    {
+        this.terms = new String[INITIAL_CAPACITY];
+        this.counts = new int[INITIAL_CAPACITY];
+        this.hashes = new int[INITIAL_CAPACITY];
+        this.table = new int[INITIAL_CAPACITY * 2];
+        this.mask = this.table.length - 1;
+        this.size = 0;
+        this.total = 0;
+    }
+
+    /**
+     * Counts one more occurrence of the term in the given buffer.
+     *
+     * @param buffer the buffer with the characters of the term.
+     * @param length the number of characters of the term, starting at the beginning of the buffer.
+     */
+    @Override
+    public void accept(char[] buffer, int length)
+    {
+        // Same hash as String.hashCode
+        int hash = 0;
+        for (int i = 0; i < length; i++)
+            hash = 31 * hash + buffer[i];
+
+        this.total++;
+        int slot = hash & this.mask;
+        int entry;
+        while ((entry = this.table[slot]) != 0) {
+            int t = entry - 1;
+            if (this.hashes[t] == hash && StopWords.equals(this.terms[t], buffer, length)) {
+                this.counts[t]++;
+                return;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+
+        // New term
+        if (this.size == this.terms.length) {
+            this.terms = Arrays.copyOf(this.terms, this.size * 2);
+            this.counts = Arrays.copyOf(this.counts, this.size * 2);
+            this.hashes = Arrays.copyOf(this.hashes, this.size * 2);
+        }
+        this.terms[this.size] = new String(buffer, 0, length);
+        this.counts[this.size] = 1;
+        this.hashes[this.size] = hash;
+        this.size++;
+        this.table[slot] = this.size;
+        if (this.size * 2 > this.table.length)
+            this.rehash();
+    }
+
+    protected void rehash()
+    {
+        this.table = new int[this.table.length * 2];
+        this.mask = this.table.length - 1;
+        for (int t = 0; t < this.size; t++) {
+            int slot = this.hashes[t] & this.mask;
+            while (this.table[slot] != 0)
+                slot = (slot + 1) & this.mask;
+            this.table[slot] = t + 1;
+        }
+    }
+
+    /**
+     * Returns the number of distinct terms.
+     *
+     * @return the number of distinct terms.
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Returns the total number of term occurrences, that is, the sum of all counts.
+     *
+     * @return the number of occurrences.
+     */
+    public int getTotal()
+    {
+        return this.total;
+    }
+
+    /**
+     * Returns the {@code i}-th distinct term, in order of first occurrence.
+     *
+     * @param i the number of the term.
+     * @return the term.
+     */
+    public String getTerm(int i)
+    {
+        return this.terms[i];
+    }
+
+    /**
+     * Returns the number of occurrences of the {@code i}-th distinct term.
+     *
+     * @param i the number of the term.
+     * @return the frequency of the term.
+     */
+    public int getCount(int i)
+    {
+        return this.counts[i];
+    }
+
+    /**
+     * Returns the number of occurrences of the specified term.
+     *
+     * @param term the term to look up.
+     * @return the frequency of the term, or {@code 0} if it does not occur.
+     */
+    public int get(String term)
+    {
+        int hash = term.hashCode();
+        int slot = hash & this.mask;
+        int entry;
+        while ((entry = this.table[slot]) != 0) {
+            int t = entry - 1;
+            if (this.hashes[t] == hash && this.terms[t].equals(term))
+                return this.counts[t];
+            slot = (slot + 1) & this.mask;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,312 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * This class gives read access to the vocabulary of an index, a sorted term dictionary packed in a single
+ * memory-mapped {@link RecordFile} written by {@link TermDictionaryWriter}.
+ * <p>
+ * Terms are sorted by their UTF-8 bytes, so the {@code termID} of a term is its rank in the dictionary. They are
+ * grouped in blocks of {@link #TERMS_PER_BLOCK}, and record {@code b} is block {@code b}:
+ * <p>
+ * {@code count:byte} {@code maxWeight:float x count} {@code df:vbyte x count} {@code length:vbyte bytes}
+ * {@code (prefixLength:vbyte suffixLength:vbyte suffix) x (count - 1)}
+ * <p>
+ * The maximum weights have a fixed size, so they are read directly, and the document frequency of a term is found by
+ * skipping those of the previous terms in its block. The IDF is not stored, since {@link Index#getIDF} computes it
+ * from the document frequency and the number of documents in the collection. The first term of a block is stored in
+ * full, and the others are front-coded: only the bytes that differ from the previous term are stored. Looking up a
+ * term binary searches the first terms of the blocks, and then decodes the terms of one block only.
+ */
+public class TermDictionary implements Closeable
+{
+    protected static final int MAGIC = 0x54495643; // "TIVC"
+    protected static final int TERMS_PER_BLOCK = 16;
+    protected static final int MAX_WEIGHT_SIZE = 4;
+
+    protected final RecordFile file;
+    protected final int termCount;
+
+    /**
+     * Maps the specified dictionary file.
+     *
+     * @param file the file to open.
+     * @throws IOException if an error occurs while mapping the file or it does not have the expected format.
+     */
+    public TermDictionary(File file) throws IOException
+    {
+        this.file = new RecordFile(file, MAGIC);
+        int blocks = this.file.getCount();
+        this.termCount = blocks == 0 ? 0
+                : (blocks - 1) * TERMS_PER_BLOCK + this.getBlockSize(blocks - 1);
+    }
+
+    /**
+     * Returns the format version the dictionary was written with.
+     *
+     * @return the format version.
+     */
+    public int getVersion()
+    {
+        return this.file.getVersion();
+    }
+
+    /**
+     * Unmaps the dictionary file. No term can be read afterwards.
+     *
+     * @see RecordFile#close
+     */
+    @Override
+    public void close()
+    {
+        this.file.close();
+    }
+
+    /**
+     * Returns the number of terms in the dictionary.
+     *
+     * @return the number of terms.
+     */
+    public int getTermCount()
+    {
+        return this.termCount;
+    }
+
+    /**
+     * Returns the size of the dictionary in bytes.
+     *
+     * @return the size of the file.
+     */
+    public long getSize()
+    {
+        return this.file.getSize();
+    }
+
+    /**
+     * Returns the document frequency of a term.
+     *
+     * @param termID the ID of the term.
+     * @return the number of documents that contain the term.
+     */
+    public int getDocumentFrequency(int termID)
+    {
+        int block = termID / TERMS_PER_BLOCK;
+        int[] position = {this.getDocumentFrequenciesOffset(block)};
+        TermDictionary.skipVBytes(this.file.getBuffer(), position, termID % TERMS_PER_BLOCK);
+        return PostingsCodec.readVByte(this.file.getBuffer(), position);
+    }
+
+    /**
+     * Returns the maximum normalized weight of a term.
+     *
+     * @param termID the ID of the term.
+     * @return the maximum normalized weight of the term.
+     */
+    public float getMaxWeight(int termID)
+    {
+        return this.file.getBuffer().getFloat(this.file.getOffset(termID / TERMS_PER_BLOCK) + 1
+                + (termID % TERMS_PER_BLOCK) * MAX_WEIGHT_SIZE);
+    }
+
+    /**
+     * Returns the UTF-8 bytes of a term.
+     *
+     * @param termID the ID of the term.
+     * @return the bytes of the term.
+     */
+    public byte[] getTerm(int termID)
+    {
+        if (termID < 0 || termID >= this.termCount)
+            throw new IllegalArgumentException("Term " + termID + " is not in the dictionary.");
+        int block = termID / TERMS_PER_BLOCK;
+        BlockReader reader = new BlockReader(block);
+        for (int i = termID % TERMS_PER_BLOCK; i > 0; i--)
+            reader.next();
+        return Arrays.copyOf(reader.term, reader.length);
+    }
+
+    /**
+     * Searches a term in the dictionary.
+     *
+     * @param key the UTF-8 bytes of the term.
+     * @return the {@code termID} of the term if it is in the dictionary; otherwise, {@code -(insertion point) - 1},
+     * where the insertion point is the {@code termID} of the first term greater than the key, or the number of terms
+     * if there is none, as in {@link Arrays#binarySearch}.
+     */
+    public int search(byte[] key)
+    {
+        // Find the last block whose first term is not greater than the key
+        ByteBuffer buffer = this.file.getBuffer();
+        int low = 0, high = this.file.getCount() - 1;
+        while (low <= high) {
+            int block = (low + high) >>> 1;
+            int[] position = {this.getTermsOffset(block)};
+            int length = PostingsCodec.readVByte(buffer, position);
+            int cmp = Index.compareBytes(buffer, position[0], length, key);
+            if (cmp < 0)
+                low = block + 1;
+            else if (cmp > 0)
+                high = block - 1;
+            else
+                return block * TERMS_PER_BLOCK;
+        }
+        if (high < 0)
+            return -1;
+
+        // Decode that block until a term is not less than the key
+        BlockReader reader = new BlockReader(high);
+        for (int i = 1; i < reader.count; i++) {
+            reader.next();
+            int cmp = Index.compareBytes(reader.term, reader.length, key);
+            if (cmp == 0)
+                return high * TERMS_PER_BLOCK + i;
+            if (cmp > 0)
+                return -(high * TERMS_PER_BLOCK + i) - 1;
+        }
+        return -(high * TERMS_PER_BLOCK + reader.count) - 1;
+    }
+
+    /**
+     * Returns the range of terms that start with a prefix. Terms are sorted, so they have consecutive
+     * {@code termID}s.
+     *
+     * @param prefix the UTF-8 bytes of the prefix.
+     * @return a {@link Tuple} with the {@code termID} of the first term with the prefix and the {@code termID} after
+     * the last one; both are equal if no term has the prefix.
+     */
+    public Tuple<Integer, Integer> getPrefixRange(byte[] prefix)
+    {
+        int from = TermDictionary.insertionPoint(this.search(prefix));
+
+        // The terms with the prefix end before the smallest key that is greater than all of them
+        int end = prefix.length;
+        while (end > 0 && prefix[end - 1] == (byte) 0xFF)
+            end--;
+        if (end == 0)
+            return new Tuple<>(from, this.termCount);
+        byte[] next = Arrays.copyOf(prefix, end);
+        next[end - 1]++;
+        return new Tuple<>(from, TermDictionary.insertionPoint(this.search(next)));
+    }
+
+    /**
+     * Returns the {@code termID} of the first term not less than a key, from the result of {@link #search}.
+     *
+     * @param search the result of the search.
+     * @return the {@code termID}.
+     */
+    protected static int insertionPoint(int search)
+    {
+        return search >= 0 ? search : -search - 1;
+    }
+
+    /**
+     * Returns the number of terms in a block.
+     *
+     * @param block the number of the block.
+     * @return the number of terms.
+     */
+    protected int getBlockSize(int block)
+    {
+        return this.file.getBuffer().get(this.file.getOffset(block)) & 0xFF;
+    }
+
+    /**
+     * Returns the position in the buffer of the document frequencies of a block, after the maximum weights.
+     *
+     * @param block the number of the block.
+     * @return the position of the document frequency of the first term.
+     */
+    protected int getDocumentFrequenciesOffset(int block)
+    {
+        return this.file.getOffset(block) + 1 + this.getBlockSize(block) * MAX_WEIGHT_SIZE;
+    }
+
+    /**
+     * Returns the position in the buffer of the first term of a block, after the statistics of its terms.
+     *
+     * @param block the number of the block.
+     * @return the position of the length of the first term.
+     */
+    protected int getTermsOffset(int block)
+    {
+        int[] position = {this.getDocumentFrequenciesOffset(block)};
+        TermDictionary.skipVBytes(this.file.getBuffer(), position, this.getBlockSize(block));
+        return position[0];
+    }
+
+    /**
+     * Skips a number of VByte-encoded integers.
+     *
+     * @param buffer   the buffer.
+     * @param position the position of the first integer, updated to the position after the last one.
+     * @param n        the number of integers to skip.
+     */
+    protected static void skipVBytes(ByteBuffer buffer, int[] position, int n)
+    {
+        int pos = position[0];
+        while (n > 0)
+            if ((buffer.get(pos++) & 0x80) != 0) // last byte of an integer
+                n--;
+        position[0] = pos;
+    }
+
+    /**
+     * Decodes the front-coded terms of a block one at a time.
+     */
+    protected class BlockReader
+    {
+        protected final int count;
+        protected final int[] position;
+        protected byte[] term;
+        protected int length;
+
+        /**
+         * Creates a reader positioned at the first term of a block.
+         *
+         * @param block the number of the block.
+         */
+        protected BlockReader(int block)
+        {
+            ByteBuffer buffer = TermDictionary.this.file.getBuffer();
+            this.count = TermDictionary.this.getBlockSize(block);
+            this.position = new int[]{TermDictionary.this.getTermsOffset(block)};
+            this.length = PostingsCodec.readVByte(buffer, this.position);
+            this.term = new byte[Math.max(32, this.length)];
+            this.read(0, this.length);
+        }
+
+        /**
+         * Decodes the next term of the block.
+         */
+        protected void next()
+        {
+            ByteBuffer buffer = TermDictionary.this.file.getBuffer();
+            int prefixLength = PostingsCodec.readVByte(buffer, this.position);
+            int suffixLength = PostingsCodec.readVByte(buffer, this.position);
+            this.length = prefixLength + suffixLength;
+            if (this.length > this.term.length)
+                this.term = Arrays.copyOf(this.term, Math.max(this.length, 2 * this.term.length));
+            this.read(prefixLength, suffixLength);
+        }
+
+        /**
+         * Copies bytes of the current term from the buffer.
+         *
+         * @param offset the position in the term to copy to.
+         * @param n      the number of bytes.
+         */
+        protected void read(int offset, int n)
+        {
+            TermDictionary.this.file.getBuffer().get(this.position[0], this.term, offset, n);
+            this.position[0] += n;
+        }
+    }
+}
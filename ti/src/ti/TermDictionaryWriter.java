@@ -0,0 +1,122 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * This class writes a term dictionary to be read with {@link TermDictionary}.
+ * <p>
+ * Terms must be appended in {@code termID} order, which is the order of their UTF-8 bytes. They are buffered until a
+ * block of {@link TermDictionary#TERMS_PER_BLOCK} terms is complete, and then the block is streamed to disk, so the
+ * dictionary can be written while merging sorted runs without holding the vocabulary in memory.
+ */
+public class TermDictionaryWriter implements Closeable
+{
+    protected final RecordFileWriter writer;
+    protected final ByteArrayOutputStream terms;
+    protected final DataOutputStream termsOut;
+    protected final int[] documentFrequencies;
+    protected final float[] maxWeights;
+    protected byte[] lastTerm;
+    protected int count;
+
+    /**
+     * Creates a new writer for the specified file, overwriting it if it already exists.
+     *
+     * @param file    the file to write.
+     * @param version the format version of the dictionary.
+     * @throws IOException if an error occurs while creating the file.
+     */
+    public TermDictionaryWriter(File file, int version) throws IOException
+    {
+        this.writer = new RecordFileWriter(file, TermDictionary.MAGIC, version);
+        this.terms = new ByteArrayOutputStream();
+        this.termsOut = new DataOutputStream(this.terms);
+        this.documentFrequencies = new int[TermDictionary.TERMS_PER_BLOCK];
+        this.maxWeights = new float[TermDictionary.TERMS_PER_BLOCK];
+        this.lastTerm = null;
+        this.count = 0;
+    }
+
+    /**
+     * Appends the next term to the dictionary.
+     *
+     * @param term      the UTF-8 bytes of the term, which must be greater than those of the last term appended.
+     * @param df        the document frequency of the term.
+     * @param maxWeight the maximum normalized weight of the term.
+     * @throws IOException if an error occurs while writing the dictionary.
+     */
+    public void add(byte[] term, int df, float maxWeight) throws IOException
+    {
+        if (this.lastTerm != null && Index.compareBytes(this.lastTerm, term) >= 0)
+            throw new IOException("Term " + this.count + " added out of order.");
+
+        int i = this.count % TermDictionary.TERMS_PER_BLOCK;
+        if (i == 0) {
+            PostingsCodec.writeVByte(term.length, this.termsOut);
+            this.termsOut.write(term);
+        } else {
+            int prefixLength = 0;
+            int n = Math.min(this.lastTerm.length, term.length);
+            while (prefixLength < n && this.lastTerm[prefixLength] == term[prefixLength])
+                prefixLength++;
+            PostingsCodec.writeVByte(prefixLength, this.termsOut);
+            PostingsCodec.writeVByte(term.length - prefixLength, this.termsOut);
+            this.termsOut.write(term, prefixLength, term.length - prefixLength);
+        }
+        this.documentFrequencies[i] = df;
+        this.maxWeights[i] = maxWeight;
+        this.lastTerm = term;
+        this.count++;
+        if (this.count % TermDictionary.TERMS_PER_BLOCK == 0)
+            this.flushBlock(TermDictionary.TERMS_PER_BLOCK);
+    }
+
+    /**
+     * Returns the number of terms appended so far.
+     *
+     * @return the number of terms.
+     */
+    public int getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * Writes the buffered terms as the next block.
+     *
+     * @param size the number of terms in the block.
+     * @throws IOException if an error occurs while writing the dictionary.
+     */
+    protected void flushBlock(int size) throws IOException
+    {
+        this.writer.nextRecord();
+        DataOutputStream out = this.writer.getOutput();
+        out.writeByte(size);
+        for (int i = 0; i < size; i++)
+            out.writeFloat(this.maxWeights[i]);
+        for (int i = 0; i < size; i++)
+            PostingsCodec.writeVByte(this.documentFrequencies[i], out);
+        this.terms.writeTo(out);
+        this.terms.reset();
+    }
+
+    /**
+     * Writes the last, possibly incomplete, block and closes the file.
+     *
+     * @throws IOException if an error occurs while writing the dictionary.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (this.count % TermDictionary.TERMS_PER_BLOCK != 0)
+            this.flushBlock(this.count % TermDictionary.TERMS_PER_BLOCK);
+        this.writer.close();
+    }
+}
@@ -0,0 +1,90 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class creates the worker pools used to run tasks concurrently.
+ */
+public class ThreadPools
+{
+    /**
+     * The specification that selects virtual threads instead of a fixed number of platform threads.
+     */
+    public static final String VIRTUAL = "virtual";
+
+    /**
+     * Creates a worker pool as specified.
+     * <p>
+     * The specification is either a number of platform threads or {@value #VIRTUAL}, to start a virtual thread per
+     * task. Virtual threads require Java 21; on older runtimes one platform thread per processor is used instead.
+     *
+     * @param spec the number of threads or {@value #VIRTUAL}.
+     * @return the new executor.
+     * @throws IllegalArgumentException if the specification is not valid.
+     */
+    public static ExecutorService create(String spec)
+    {
+        return ThreadPools.create(spec, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a worker pool as specified, with the given number of platform threads instead of virtual threads if the
+     * runtime does not support them.
+     *
+     * @param spec            the number of threads or {@value #VIRTUAL}.
+     * @param fallbackThreads the number of platform threads to use if virtual threads are not available.
+     * @return the new executor.
+     * @throws IllegalArgumentException if the specification is not valid.
+     */
+    public static ExecutorService create(String spec, int fallbackThreads)
+    {
+        if (spec.equalsIgnoreCase(VIRTUAL)) {
+            ExecutorService virtual = ThreadPools.createVirtual();
+            return virtual != null ? virtual : ThreadPools.create(fallbackThreads);
+        }
+        int threads;
+        try {
+            threads = Integer.parseInt(spec);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid number of threads: " + spec + ".");
+        }
+        if (threads < 1)
+            throw new IllegalArgumentException("Invalid number of threads: " + spec + ".");
+        return ThreadPools.create(threads);
+    }
+
+    /**
+     * Creates an executor that starts a virtual thread per task, if the runtime supports them.
+     *
+     * @return the new executor, or {@code null} before Java 21.
+     */
+    protected static ExecutorService createVirtual()
+    {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates a pool with a fixed number of platform daemon threads.
+     *
+     * @param threads the number of threads.
+     * @return the new executor.
+     */
+    public static ExecutorService create(int threads)
+    {
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,82 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link MergePolicy} that groups segments in tiers by their order of magnitude, and merges the segments of a tier
+ * once there are enough of them.
+ * <p>
+ * A segment with {@code n} live documents is in tier {@code floor(log_f(n))}, where {@code f} is the number of
+ * segments per tier. When a tier has {@code f} segments, they are merged into one segment of the next tier, so the
+ * number of segments grows logarithmically with the size of the index and each document is rewritten a logarithmic
+ * number of times. Segments where most documents are deleted are merged on their own to reclaim space.
+ */
+public class TieredMergePolicy implements MergePolicy
+{
+    protected static final int DEFAULT_SEGMENTS_PER_TIER = 10;
+    protected static final double MAX_DELETED_RATIO = 0.5;
+
+    protected final int segmentsPerTier;
+
+    /**
+     * Creates a new policy with the default number of segments per tier.
+     */
+    public TieredMergePolicy()
+    {
+        this(DEFAULT_SEGMENTS_PER_TIER);
+    }
+
+    /**
+     * Creates a new policy with the given number of segments per tier.
+     *
+     * @param segmentsPerTier the number of segments in a tier that triggers their merge.
+     */
+    public TieredMergePolicy(int segmentsPerTier)
+    {
+        if (segmentsPerTier < 2)
+            throw new IllegalArgumentException("At least 2 segments per tier are required.");
+        this.segmentsPerTier = segmentsPerTier;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<SegmentManifest.SegmentInfo> findMerge(List<SegmentManifest.SegmentInfo> segments)
+    {
+        ArrayList<ArrayList<SegmentManifest.SegmentInfo>> tiers = new ArrayList<>();
+        for (SegmentManifest.SegmentInfo info : segments) {
+            if (info.deletedCount > info.docCount * MAX_DELETED_RATIO) {
+                ArrayList<SegmentManifest.SegmentInfo> merge = new ArrayList<>();
+                merge.add(info);
+                return merge;
+            }
+
+            int tier = this.getTier(info.getLiveCount());
+            while (tiers.size() <= tier)
+                tiers.add(new ArrayList<>());
+            tiers.get(tier).add(info);
+            if (tiers.get(tier).size() == this.segmentsPerTier)
+                return tiers.get(tier);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the tier of a segment.
+     *
+     * @param liveCount the number of live documents in the segment.
+     * @return the tier.
+     */
+    protected int getTier(int liveCount)
+    {
+        int tier = 0;
+        for (long size = this.segmentsPerTier; size <= liveCount; size *= this.segmentsPerTier)
+            tier++;
+        return tier;
+    }
+}
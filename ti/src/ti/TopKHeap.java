@@ -0,0 +1,154 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * This class selects the {@code k} best scored documents with a bounded binary min-heap over primitive arrays.
+ * <p>
+ * Documents are ranked by descending score, and ties are broken by ascending {@code docID}, so the selection does not
+ * depend on the order in which documents are offered. The root of the heap is the worst document selected so far.
+ */
+public class TopKHeap
+{
+    protected final int k;
+    protected final int[] docIDs;
+    protected final double[] scores;
+    protected int size;
+
+    /**
+     * Creates a new empty heap to select the {@code k} best documents.
+     *
+     * @param k the number of documents to select.
+     */
+    public TopKHeap(int k)
+    {
+        this.k = Math.max(k, 0);
+        this.docIDs = new int[this.k];
+        this.scores = new double[this.k];
+        this.size = 0;
+    }
+
+    /**
+     * Offers a document to the heap. It is kept if fewer than {@code k} documents have been selected or it ranks
+     * better than the worst of them, which is then evicted.
+     *
+     * @param docID the ID of the document.
+     * @param score the score of the document.
+     * @return {@code true} if the document was kept.
+     */
+    public boolean offer(int docID, double score)
+    {
+        if (this.size < this.k) {
+            this.docIDs[this.size] = docID;
+            this.scores[this.size] = score;
+            this.siftUp(this.size++);
+            return true;
+        }
+        if (this.k == 0 || !TopKHeap.ranksBefore(docID, score, this.docIDs[0], this.scores[0]))
+            return false;
+        this.docIDs[0] = docID;
+        this.scores[0] = score;
+        this.siftDown(0);
+        return true;
+    }
+
+    /**
+     * Returns whether {@code k} documents have already been selected.
+     *
+     * @return {@code true} if the heap is full.
+     */
+    public boolean isFull()
+    {
+        return this.size == this.k;
+    }
+
+    /**
+     * Returns the score of the worst document selected so far, that a new document must beat to enter a full heap.
+     *
+     * @return the minimum score in the heap, {@link Double#NEGATIVE_INFINITY} if it is not full yet, or
+     * {@link Double#POSITIVE_INFINITY} if {@code k=0}.
+     */
+    public double getThreshold()
+    {
+        if (this.k == 0)
+            return Double.POSITIVE_INFINITY;
+        return this.isFull() ? this.scores[0] : Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Returns the number of documents selected.
+     *
+     * @return the number of documents in the heap.
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Empties the heap and returns the selected documents from best to worst.
+     *
+     * @return a list of {@link Tuple}s where the first item is the {@code docID} and the second one the score.
+     */
+    public ArrayList<Tuple<Integer, Double>> toList()
+    {
+        ArrayList<Tuple<Integer, Double>> results = new ArrayList<>(Collections.nCopies(this.size, null));
+        while (this.size > 0) {
+            results.set(this.size - 1, new Tuple<>(this.docIDs[0], this.scores[0]));
+            this.size--;
+            this.docIDs[0] = this.docIDs[this.size];
+            this.scores[0] = this.scores[this.size];
+            this.siftDown(0);
+        }
+        return results;
+    }
+
+    /**
+     * Returns whether the first document ranks before the second one: it has a higher score, or the same score and a
+     * lower {@code docID}.
+     */
+    protected static boolean ranksBefore(int docID1, double score1, int docID2, double score2)
+    {
+        return score1 > score2 || (score1 == score2 && docID1 < docID2);
+    }
+
+    protected void siftUp(int i)
+    {
+        int docID = this.docIDs[i];
+        double score = this.scores[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!TopKHeap.ranksBefore(this.docIDs[parent], this.scores[parent], docID, score))
+                break;
+            this.docIDs[i] = this.docIDs[parent];
+            this.scores[i] = this.scores[parent];
+            i = parent;
+        }
+        this.docIDs[i] = docID;
+        this.scores[i] = score;
+    }
+
+    protected void siftDown(int i)
+    {
+        int docID = this.docIDs[i];
+        double score = this.scores[i];
+        int half = this.size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < this.size && TopKHeap.ranksBefore(this.docIDs[child], this.scores[child], this.docIDs[right], this.scores[right]))
+                child = right;
+            if (!TopKHeap.ranksBefore(docID, score, this.docIDs[child], this.scores[child]))
+                break;
+            this.docIDs[i] = this.docIDs[child];
+            this.scores[i] = this.scores[child];
+            i = child;
+        }
+        this.docIDs[i] = docID;
+        this.scores[i] = score;
+    }
+}
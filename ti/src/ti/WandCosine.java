@@ -0,0 +1,184 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.util.ArrayList;
+
+/**
+ * Implements the same retrieval as {@link Cosine}, but evaluates queries document at a time with the WAND algorithm
+ * (Broder et al., 2003) to skip documents that can not enter the top {@code k}.
+ * <p>
+ * Each query term contributes at most {@code qW * maxWeight / queryNorm} to the similarity of any document, where
+ * {@code maxWeight} is the {@link Index#getMaxWeight bound stored in the vocabulary}. Postings lists are kept sorted
+ * by their current {@code docID}, and a document is only scored if the bounds of the lists up to it add up to more
+ * than the score of the {@code k}-th document found so far. Scores are computed exactly as {@link Cosine} does, so
+ * the results are identical.
+ * <p>
+ * Nothing can be skipped until {@code k} documents have been scored, and every skip costs a cursor movement of its
+ * own, so pruning only pays off when {@code k} is small compared to the postings of the query. Otherwise, the query
+ * is scored exhaustively term at a time, as {@link Cosine} does.
+ */
+public class WandCosine extends Cosine
+{
+	/**
+	 * Relative slack added to the term bounds, to absorb rounding differences between bounds and scores.
+	 */
+	protected static final double BOUND_TOLERANCE = 1e-5;
+	/**
+	 * Minimum ratio between the postings of a query and {@code k} for pruning to be used. On the generated
+	 * collections, WAND scanned more postings than exhaustive scoring for queries with fewer than 20 postings per
+	 * result, and the savings were marginal below 30.
+	 */
+	protected static final int MIN_POSTINGS_PER_RESULT = 30;
+
+	public WandCosine()
+	{
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected ArrayList<Tuple<Integer, Double>> computeScores(ArrayList<Tuple<Integer, Double>> queryVector, Index index, int k)
+	{
+		if (!WandCosine.isPruningWorthwhile(queryVector, index, k))
+			return this.computeExhaustiveScores(queryVector, index, k);
+
+		int numTerms = queryVector.size();
+		double queryNorm = 0;
+		for (Tuple<Integer, Double> qTerm : queryVector)
+			queryNorm += qTerm.item2 * qTerm.item2;
+		queryNorm = Math.sqrt(queryNorm);
+
+		// Open a cursor per query term, and keep the active ones sorted by current docID
+		PostingsIterator[] cursors = new PostingsIterator[numTerms];
+		double[] qWeights = new double[numTerms];
+		double[] bounds = new double[numTerms];
+		boolean[] exhausted = new boolean[numTerms];
+		int[] order = new int[numTerms];
+		int active = 0;
+		long scanned = 0, scored = 0;
+		for (int t = 0; t < numTerms; t++) {
+			int termId = queryVector.get(t).item1;
+			qWeights[t] = queryVector.get(t).item2;
+			if (termId < 0) {
+				exhausted[t] = true; // only weighs in the norm of the query
+				continue;
+			}
+			bounds[t] = qWeights[t] * index.getMaxWeight(termId) / queryNorm * (1 + BOUND_TOLERANCE);
+			cursors[t] = index.getPostings(termId);
+			scanned++;
+			if (cursors[t].next())
+				order[active++] = t;
+			else
+				exhausted[t] = true;
+		}
+
+		TopKHeap topK = new TopKHeap(k);
+		while (active > 0) {
+			WandCosine.sortByDocID(order, active, cursors);
+
+			// Find the pivot: the first list where the accumulated bound may beat the current threshold
+			double threshold = topK.getThreshold();
+			double bound = 0;
+			int pivot = -1;
+			for (int i = 0; i < active; i++) {
+				bound += bounds[order[i]];
+				if (bound > threshold) {
+					pivot = i;
+					break;
+				}
+			}
+			if (pivot < 0)
+				break; // no remaining document can enter the top k
+			int pivotDoc = cursors[order[pivot]].getID();
+
+			if (cursors[order[0]].getID() == pivotDoc) {
+				// All lists before the pivot are on the pivot document: score it, adding terms in query order
+				float sim = 0;
+				for (int t = 0; t < numTerms; t++)
+					if (!exhausted[t] && cursors[t].getID() == pivotDoc)
+						sim += (float) (cursors[t].getWeight() * qWeights[t]);
+				topK.offer(pivotDoc, sim / queryNorm / index.getDocumentNorm(pivotDoc));
+				scored++;
+
+				for (int i = 0; i < active; i++) {
+					int t = order[i];
+					if (cursors[t].getID() == pivotDoc) {
+						scanned++;
+						if (!cursors[t].next())
+							exhausted[t] = true;
+					}
+				}
+			} else {
+				// Documents before the pivot only appear in lists whose bounds do not beat the threshold: skip them
+				for (int i = 0; i < pivot; i++) {
+					int t = order[i];
+					scanned++;
+					if (!cursors[t].advance(pivotDoc))
+						exhausted[t] = true;
+				}
+			}
+
+			// Drop exhausted lists
+			int remaining = 0;
+			for (int i = 0; i < active; i++)
+				if (!exhausted[order[i]])
+					order[remaining++] = order[i];
+			active = remaining;
+		}
+		Metrics.POSTINGS_SCANNED.add(scanned);
+		Metrics.CANDIDATES_SCORED.add(scored);
+		return topK.toList();
+	}
+
+	/**
+	 * Scores all documents that match the query term at a time, as {@link Cosine} does.
+	 *
+	 * @param queryVector the vector with query term weights.
+	 * @param index       the index to search in.
+	 * @param k           the number of documents to return.
+	 * @return a list of {@link Tuple}s where the first item is the {@code docID} and the second one the similarity score.
+	 */
+	protected ArrayList<Tuple<Integer, Double>> computeExhaustiveScores(ArrayList<Tuple<Integer, Double>> queryVector, Index index, int k)
+	{
+		return super.computeScores(queryVector, index, k);
+	}
+
+	/**
+	 * Tells whether the query has enough postings per result for pruning to skip more of them than it costs.
+	 *
+	 * @param queryVector the vector with query term weights.
+	 * @param index       the index to search in.
+	 * @param k           the number of documents to return.
+	 * @return {@code true} if the query should be evaluated document at a time with pruning, or {@code false} if it
+	 * should be scored exhaustively.
+	 */
+	protected static boolean isPruningWorthwhile(ArrayList<Tuple<Integer, Double>> queryVector, Index index, int k)
+	{
+		long postings = 0;
+		for (Tuple<Integer, Double> qTerm : queryVector)
+			if (qTerm.item1 >= 0)
+				postings += index.getPostings(qTerm.item1).size();
+		return postings > (long) k * MIN_POSTINGS_PER_RESULT;
+	}
+
+	/**
+	 * Sorts the first {@code count} cursor positions in {@code order} by the current {@code docID} of their cursors.
+	 * Insertion sort is used because the order barely changes from one step to the next.
+	 */
+	protected static void sortByDocID(int[] order, int count, PostingsIterator[] cursors)
+	{
+		for (int i = 1; i < count; i++) {
+			int t = order[i];
+			int docID = cursors[t].getID();
+			int j = i - 1;
+			while (j >= 0 && cursors[order[j]].getID() > docID) {
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = t;
+		}
+	}
+}